@@ -0,0 +1,229 @@
+package android.opengl;
+
+/**
+ * The part of the matrix math of Android the app uses, for the plain JVM: 4x4 matrices
+ * in column-major order, with the same arguments and results as on the device.
+ * <p/>
+ * <p>Nothing allocates. Like on Android, the result of a multiplication must not overlap
+ * its left-hand side.
+ * <p/>
+ * <p>Only FrameAllocationTest and the benchmarks run against it, in place of the stub of
+ * android.jar, which returns defaults; the local unit tests keep the stub.
+ */
+public class Matrix {
+
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+                                  float[] rhs, int rhsOffset) {
+        for (int j = 0; j < 4; j++) {
+            int column = rhsOffset + 4 * j;
+            float r0 = rhs[column];
+            float r1 = rhs[column + 1];
+            float r2 = rhs[column + 2];
+            float r3 = rhs[column + 3];
+            for (int i = 0; i < 4; i++)
+                result[resultOffset + 4 * j + i] = lhs[lhsOffset + i] * r0 + lhs[lhsOffset + 4 + i] * r1
+                        + lhs[lhsOffset + 8 + i] * r2 + lhs[lhsOffset + 12 + i] * r3;
+        }
+    }
+
+    public static void multiplyMV(float[] resultVec, int resultVecOffset, float[] lhsMat, int lhsMatOffset,
+                                  float[] rhsVec, int rhsVecOffset) {
+        float x = rhsVec[rhsVecOffset];
+        float y = rhsVec[rhsVecOffset + 1];
+        float z = rhsVec[rhsVecOffset + 2];
+        float w = rhsVec[rhsVecOffset + 3];
+        float r0 = lhsMat[lhsMatOffset] * x + lhsMat[lhsMatOffset + 4] * y + lhsMat[lhsMatOffset + 8] * z
+                + lhsMat[lhsMatOffset + 12] * w;
+        float r1 = lhsMat[lhsMatOffset + 1] * x + lhsMat[lhsMatOffset + 5] * y + lhsMat[lhsMatOffset + 9] * z
+                + lhsMat[lhsMatOffset + 13] * w;
+        float r2 = lhsMat[lhsMatOffset + 2] * x + lhsMat[lhsMatOffset + 6] * y + lhsMat[lhsMatOffset + 10] * z
+                + lhsMat[lhsMatOffset + 14] * w;
+        float r3 = lhsMat[lhsMatOffset + 3] * x + lhsMat[lhsMatOffset + 7] * y + lhsMat[lhsMatOffset + 11] * z
+                + lhsMat[lhsMatOffset + 15] * w;
+        resultVec[resultVecOffset] = r0;
+        resultVec[resultVecOffset + 1] = r1;
+        resultVec[resultVecOffset + 2] = r2;
+        resultVec[resultVecOffset + 3] = r3;
+    }
+
+    public static void setIdentityM(float[] sm, int smOffset) {
+        for (int i = 0; i < 16; i++)
+            sm[smOffset + i] = i % 5 == 0 ? 1f : 0f;
+    }
+
+    public static void translateM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++)
+            m[mOffset + 12 + i] += m[mOffset + i] * x + m[mOffset + 4 + i] * y + m[mOffset + 8 + i] * z;
+    }
+
+    public static void scaleM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[mOffset + i] *= x;
+            m[mOffset + 4 + i] *= y;
+            m[mOffset + 8 + i] *= z;
+        }
+    }
+
+    /**
+     * @param a the angle in degrees around the axis x, y, z.
+     */
+    public static void setRotateM(float[] rm, int rmOffset, float a, float x, float y, float z) {
+        double radians = Math.toRadians(a);
+        float s = (float) Math.sin(radians);
+        float c = (float) Math.cos(radians);
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        if (length != 1f) {
+            x /= length;
+            y /= length;
+            z /= length;
+        }
+        float nc = 1f - c;
+        rm[rmOffset] = x * x * nc + c;
+        rm[rmOffset + 1] = x * y * nc + z * s;
+        rm[rmOffset + 2] = z * x * nc - y * s;
+        rm[rmOffset + 3] = 0f;
+        rm[rmOffset + 4] = x * y * nc - z * s;
+        rm[rmOffset + 5] = y * y * nc + c;
+        rm[rmOffset + 6] = y * z * nc + x * s;
+        rm[rmOffset + 7] = 0f;
+        rm[rmOffset + 8] = z * x * nc + y * s;
+        rm[rmOffset + 9] = y * z * nc - x * s;
+        rm[rmOffset + 10] = z * z * nc + c;
+        rm[rmOffset + 11] = 0f;
+        rm[rmOffset + 12] = 0f;
+        rm[rmOffset + 13] = 0f;
+        rm[rmOffset + 14] = 0f;
+        rm[rmOffset + 15] = 1f;
+    }
+
+    /**
+     * @return false if the matrix cannot be inverted, leaving the result unchanged.
+     */
+    public static boolean invertM(float[] mInv, int mInvOffset, float[] m, int mOffset) {
+        float a00 = m[mOffset], a01 = m[mOffset + 1], a02 = m[mOffset + 2], a03 = m[mOffset + 3];
+        float a10 = m[mOffset + 4], a11 = m[mOffset + 5], a12 = m[mOffset + 6], a13 = m[mOffset + 7];
+        float a20 = m[mOffset + 8], a21 = m[mOffset + 9], a22 = m[mOffset + 10], a23 = m[mOffset + 11];
+        float a30 = m[mOffset + 12], a31 = m[mOffset + 13], a32 = m[mOffset + 14], a33 = m[mOffset + 15];
+
+        float b00 = a00 * a11 - a01 * a10;
+        float b01 = a00 * a12 - a02 * a10;
+        float b02 = a00 * a13 - a03 * a10;
+        float b03 = a01 * a12 - a02 * a11;
+        float b04 = a01 * a13 - a03 * a11;
+        float b05 = a02 * a13 - a03 * a12;
+        float b06 = a20 * a31 - a21 * a30;
+        float b07 = a20 * a32 - a22 * a30;
+        float b08 = a20 * a33 - a23 * a30;
+        float b09 = a21 * a32 - a22 * a31;
+        float b10 = a21 * a33 - a23 * a31;
+        float b11 = a22 * a33 - a23 * a32;
+
+        float det = b00 * b11 - b01 * b10 + b02 * b09 + b03 * b08 - b04 * b07 + b05 * b06;
+        if (det == 0f)
+            return false;
+        float inv = 1f / det;
+
+        mInv[mInvOffset] = (a11 * b11 - a12 * b10 + a13 * b09) * inv;
+        mInv[mInvOffset + 1] = (a02 * b10 - a01 * b11 - a03 * b09) * inv;
+        mInv[mInvOffset + 2] = (a31 * b05 - a32 * b04 + a33 * b03) * inv;
+        mInv[mInvOffset + 3] = (a22 * b04 - a21 * b05 - a23 * b03) * inv;
+        mInv[mInvOffset + 4] = (a12 * b08 - a10 * b11 - a13 * b07) * inv;
+        mInv[mInvOffset + 5] = (a00 * b11 - a02 * b08 + a03 * b07) * inv;
+        mInv[mInvOffset + 6] = (a32 * b02 - a30 * b05 - a33 * b01) * inv;
+        mInv[mInvOffset + 7] = (a20 * b05 - a22 * b02 + a23 * b01) * inv;
+        mInv[mInvOffset + 8] = (a10 * b10 - a11 * b08 + a13 * b06) * inv;
+        mInv[mInvOffset + 9] = (a01 * b08 - a00 * b10 - a03 * b06) * inv;
+        mInv[mInvOffset + 10] = (a30 * b04 - a31 * b02 + a33 * b00) * inv;
+        mInv[mInvOffset + 11] = (a21 * b02 - a20 * b04 - a23 * b00) * inv;
+        mInv[mInvOffset + 12] = (a11 * b07 - a10 * b09 - a12 * b06) * inv;
+        mInv[mInvOffset + 13] = (a00 * b09 - a01 * b07 + a02 * b06) * inv;
+        mInv[mInvOffset + 14] = (a31 * b01 - a30 * b03 - a32 * b00) * inv;
+        mInv[mInvOffset + 15] = (a20 * b03 - a21 * b01 + a22 * b00) * inv;
+        return true;
+    }
+
+    public static void setLookAtM(float[] rm, int rmOffset, float eyeX, float eyeY, float eyeZ,
+                                  float centerX, float centerY, float centerZ,
+                                  float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // s = f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        // u = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        rm[rmOffset] = sx;
+        rm[rmOffset + 1] = ux;
+        rm[rmOffset + 2] = -fx;
+        rm[rmOffset + 3] = 0f;
+        rm[rmOffset + 4] = sy;
+        rm[rmOffset + 5] = uy;
+        rm[rmOffset + 6] = -fy;
+        rm[rmOffset + 7] = 0f;
+        rm[rmOffset + 8] = sz;
+        rm[rmOffset + 9] = uz;
+        rm[rmOffset + 10] = -fz;
+        rm[rmOffset + 11] = 0f;
+        rm[rmOffset + 12] = 0f;
+        rm[rmOffset + 13] = 0f;
+        rm[rmOffset + 14] = 0f;
+        rm[rmOffset + 15] = 1f;
+        translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+    }
+
+    public static void frustumM(float[] m, int offset, float left, float right, float bottom, float top,
+                                float near, float far) {
+        if (left == right)
+            throw new IllegalArgumentException("left == right");
+        if (top == bottom)
+            throw new IllegalArgumentException("top == bottom");
+        if (near == far)
+            throw new IllegalArgumentException("near == far");
+        if (near <= 0f)
+            throw new IllegalArgumentException("near <= 0.0f");
+        if (far <= 0f)
+            throw new IllegalArgumentException("far <= 0.0f");
+        float rWidth = 1f / (right - left);
+        float rHeight = 1f / (top - bottom);
+        float rDepth = 1f / (near - far);
+        for (int i = 0; i < 16; i++)
+            m[offset + i] = 0f;
+        m[offset] = 2f * near * rWidth;
+        m[offset + 5] = 2f * near * rHeight;
+        m[offset + 8] = (right + left) * rWidth;
+        m[offset + 9] = (top + bottom) * rHeight;
+        m[offset + 10] = (far + near) * rDepth;
+        m[offset + 11] = -1f;
+        m[offset + 14] = 2f * far * near * rDepth;
+    }
+
+    /**
+     * @param fovy the field of view in y in degrees.
+     */
+    public static void perspectiveM(float[] m, int offset, float fovy, float aspect, float zNear, float zFar) {
+        float f = 1f / (float) Math.tan(fovy * (Math.PI / 360.0));
+        float rangeReciprocal = 1f / (zNear - zFar);
+        for (int i = 0; i < 16; i++)
+            m[offset + i] = 0f;
+        m[offset] = f / aspect;
+        m[offset + 5] = f;
+        m[offset + 10] = (zFar + zNear) * rangeReciprocal;
+        m[offset + 11] = -1f;
+        m[offset + 14] = 2f * zFar * zNear * rangeReciprocal;
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.thomann.plotvr;
+
+import android.opengl.Matrix;
+
+import com.google.vr.sdk.base.Eye;
+import com.google.vr.sdk.base.HeadTransform;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Counts what the frames of the renderer allocate on the thread drawing them, which must be
+ * nothing at all.
+ * <p/>
+ * <p>It runs in a task of its own, allocationTest, against the matrix math next to it instead
+ * of the stub of android.jar, so that the head view inverts and the renderer takes the head
+ * over again as on the device. The task runs it with the client compiler only: when code of
+ * the optimizing compiler hits an uncommon trap, HotSpot deoptimizes it on the thread running
+ * it, which may allocate there, e.g. the objects the compiled code had eliminated. These show
+ * up as a few hundred bytes in the rounds a trap happens in, although the same frames allocate
+ * nothing when interpreted (-Xint).
+ */
+public class FrameAllocationTest {
+
+    private static final int ALLOCATION_FRAMES = 1000;
+    private static final int ALLOCATION_ROUNDS = 5;
+
+    /**
+     * The bytes allocated by this thread, as counted by HotSpot.
+     */
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void framesAndInputsDoNotAllocate() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // toggleTrackHead only takes the head over again if the head view inverts
+        float[] identity = new float[16];
+        Matrix.setIdentityM(identity, 0);
+        assertTrue("Head view not invertible", Matrix.invertM(new float[16], 0, identity, 0));
+
+        RecordingGl gl = new RecordingGl(true);
+        Renderer renderer = RendererTest.start(gl, RendererTest.randomData(RendererTest.SAMPLES));
+        renderer.setLevelOfDetail(true);
+        RendererTest.settle(renderer);
+        HeadTransform head = new HeadTransform();
+        Eye left = new Eye(Eye.Type.LEFT);
+        Eye right = new Eye(Eye.Type.RIGHT);
+        // loads the classes of all paths, and lets the level of detail complete its selection
+        RendererTest.framesAndInputs(renderer, 2000, head, left, right);
+
+        // what measuring itself allocates, if anything
+        long overhead = -allocatedBytes(threads) + allocatedBytes(threads);
+        // every round counts, so that what the frames allocate only now and then shows as well
+        for (int round = 0; round < ALLOCATION_ROUNDS; round++) {
+            long before = allocatedBytes(threads);
+            RendererTest.framesAndInputs(renderer, ALLOCATION_FRAMES, head, left, right);
+            long allocated = allocatedBytes(threads) - before - overhead;
+            assertEquals("Bytes allocated in " + ALLOCATION_FRAMES + " frames of round " + round, 0, allocated);
+        }
+        assertEquals(0, gl.glGetError());
+    }
+}
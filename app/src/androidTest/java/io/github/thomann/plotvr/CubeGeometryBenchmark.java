@@ -0,0 +1,83 @@
+package io.github.thomann.plotvr;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how building the cubes of 10^6 samples scales from 1 thread to the number of cores,
+ * for 36 vertices per cube and for one record per sample, with quantized positions as drawn
+ * with render.quantize. Results go to logcat with the tag "CubeGeometryBenchmark".
+ * <p/>
+ * <p>With 1 thread the cubes are written sequentially, so that is the baseline. The octree is
+ * built the same way in every run and included in the time.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CubeGeometryBenchmark {
+    private static final String TAG = "CubeGeometryBenchmark";
+
+    private static final int REPETITIONS = 3;
+    private static final int SAMPLES = 1000000;
+    private static final int COLORS = 4;
+
+    @Test
+    public void records_1e6() throws Exception {
+        scale(true);
+    }
+
+    @Test
+    public void vertices_1e6() throws Exception {
+        scale(false);
+    }
+
+    private void scale(boolean perSample) throws Exception {
+        PointTable table = randomTable(SAMPLES);
+        int cores = Runtime.getRuntime().availableProcessors();
+        long sequential = 0;
+        for (int threads = 1; threads <= cores; threads++) {
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            try {
+                // warm up, also the threads of the pool
+                CubeGeometry.build(0, table, perSample, true, false, 1024, workers, threads);
+                long millis = time(table, perSample, workers, threads);
+                if (threads == 1)
+                    sequential = millis;
+                Log.i(TAG, String.format(Locale.US, "%d samples, %s, %d threads: %d ms, speedup %.2f",
+                        SAMPLES, perSample ? "records" : "vertices", threads, millis,
+                        sequential / (double) Math.max(millis, 1)));
+            } finally {
+                workers.shutdown();
+            }
+        }
+    }
+
+    private long time(PointTable table, boolean perSample, ExecutorService workers, int threads) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            System.gc();
+            long start = System.nanoTime();
+            CubeGeometry geometry = CubeGeometry.build(0, table, perSample, true, false, 1024, workers, threads);
+            best = Math.min(best, (System.nanoTime() - start) / 1000000);
+            assertEquals(SAMPLES, geometry.getCount());
+        }
+        return best;
+    }
+
+    private static PointTable randomTable(int n) {
+        Random random = new Random(n);
+        PointTable.Builder builder = new PointTable.Builder(n);
+        for (int i = 0; i < n; i++)
+            builder.add(10 * random.nextFloat(), 10 * random.nextFloat(), 10 * random.nextFloat(),
+                    random.nextInt(COLORS));
+        return builder.build();
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.thomann.plotvr;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the {@link JsonDataScanner} with the former {@link android.util.JsonReader} parser
+ * on synthetic data of 10^5 to 10^7 samples. Results go to logcat with the tag "JsonParserBenchmark".
+ * <p/>
+ * <p>The former parser is not run on 10^7 samples: its float[4] per sample does not fit
+ * into a standard app heap.
+ */
+@RunWith(AndroidJUnit4.class)
+public class JsonParserBenchmark {
+    private static final String TAG = "JsonParserBenchmark";
+
+    private static final int JSON_READER_LIMIT = 1000000;
+
+    @Test
+    public void samples_1e5() throws Exception {
+        compare(100000);
+    }
+
+    @Test
+    public void samples_1e6() throws Exception {
+        compare(1000000);
+    }
+
+    @Test
+    public void samples_1e7() throws Exception {
+        compare(10000000);
+    }
+
+    private void compare(int samples) throws IOException {
+        // warm up both parsers on a small input first
+        new Data().readJson(new SyntheticJson(1000));
+        new Data().readJsonWithJsonReader(new SyntheticJson(1000));
+
+        long scanner = time(samples, false);
+        String jsonReader = "skipped";
+        if (samples <= JSON_READER_LIMIT)
+            jsonReader = time(samples, true) + " ms";
+        Log.i(TAG, String.format(Locale.US, "%d samples: JsonDataScanner %d ms, JsonReader %s",
+                samples, scanner, jsonReader));
+    }
+
+    private long time(int samples, boolean withJsonReader) throws IOException {
+        System.gc();
+        long start = System.nanoTime();
+        Data data = withJsonReader
+                ? new Data().readJsonWithJsonReader(new SyntheticJson(samples))
+                : new Data().readJson(new SyntheticJson(samples));
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertEquals(samples, data.getSampleCount());
+        return millis;
+    }
+
+    /**
+     * Produces {"data": [[x,y,z,c],...], "speed": 1} on the fly by cycling through a block of
+     * random samples, so that generating the input costs next to nothing.
+     */
+    static class SyntheticJson extends Reader {
+        private static final int BLOCK_SAMPLES = 4096;
+        private static final char[] BLOCK;
+
+        static {
+            Random random = new Random(1);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < BLOCK_SAMPLES; i++) {
+                sb.append(String.format(Locale.US, "[%.4f,%.4f,%.4f,%d],",
+                        random.nextGaussian() * 10, random.nextGaussian() * 10,
+                        random.nextGaussian() * 10, random.nextInt(8)));
+            }
+            BLOCK = sb.toString().toCharArray();
+        }
+
+        private static final char[] HEAD = "{\"data\": [".toCharArray();
+        private static final char[] TAIL = "[0,0,0,1]], \"speed\": 1}".toCharArray();
+
+        private long remainingBlockChars;
+        private int headPos = 0;
+        private int blockPos = 0;
+        private int tailPos = 0;
+
+        SyntheticJson(int samples) {
+            // samples - 1 samples from the block, the last one from TAIL
+            remainingBlockChars = (long) (samples - 1) / BLOCK_SAMPLES * BLOCK.length;
+            int rest = (samples - 1) % BLOCK_SAMPLES;
+            if (rest > 0) {
+                int chars = 0;
+                for (int i = 0; i < rest; i++)
+                    chars = indexOfNext(chars);
+                remainingBlockChars += chars;
+            }
+        }
+
+        private static int indexOfNext(int from) {
+            int i = from;
+            while (BLOCK[i] != ',' || BLOCK[i - 1] != ']')
+                i++;
+            return i + 1;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (headPos < HEAD.length) {
+                int n = Math.min(len, HEAD.length - headPos);
+                System.arraycopy(HEAD, headPos, cbuf, off, n);
+                headPos += n;
+                return n;
+            }
+            if (remainingBlockChars > 0) {
+                int n = (int) Math.min(Math.min(len, BLOCK.length - blockPos), remainingBlockChars);
+                System.arraycopy(BLOCK, blockPos, cbuf, off, n);
+                blockPos = (blockPos + n) % BLOCK.length;
+                remainingBlockChars -= n;
+                return n;
+            }
+            if (tailPos < TAIL.length) {
+                int n = Math.min(len, TAIL.length - tailPos);
+                System.arraycopy(TAIL, tailPos, cbuf, off, n);
+                tailPos += n;
+                return n;
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.thomann.plotvr;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how parsing with the {@link ParallelParser} scales from 1 thread to the number of cores,
+ * on synthetic json of 10^5 to 2*10^6 samples and on the same samples in the binary column format.
+ * Results go to logcat with the tag "ParallelParserBenchmark".
+ * <p/>
+ * <p>With 1 thread the parser reads sequentially, so that is the baseline.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParallelParserBenchmark {
+    private static final String TAG = "ParallelParserBenchmark";
+
+    private static final int REPETITIONS = 3;
+
+    @Test
+    public void samples_1e5() throws Exception {
+        scale(100000);
+    }
+
+    @Test
+    public void samples_1e6() throws Exception {
+        scale(1000000);
+    }
+
+    @Test
+    public void samples_2e6() throws Exception {
+        scale(2000000);
+    }
+
+    private void scale(int samples) throws IOException {
+        byte[] json = toBytes(new JsonParserBenchmark.SyntheticJson(samples));
+        int cores = Runtime.getRuntime().availableProcessors();
+        long sequential = 0;
+        for (int threads = 1; threads <= cores; threads++) {
+            ParallelParser parser = new ParallelParser(threads);
+            // warm up, also the threads of the pool
+            parser.parse(json, json.length, "application/json");
+            long millis = time(parser, json, "application/json", samples);
+            if (threads == 1)
+                sequential = millis;
+            Log.i(TAG, String.format(Locale.US, "%d samples, json, %d threads: %d ms, speedup %.2f",
+                    samples, threads, millis, sequential / (double) Math.max(millis, 1)));
+        }
+
+        ByteArrayOutputStream columns = new ByteArrayOutputStream();
+        ColumnarFormat.write(new ParallelParser(1).parse(json, json.length, null), columns);
+        json = null;
+        byte[] binary = columns.toByteArray();
+        long millis = time(new ParallelParser(cores), binary, ColumnarFormat.MIME_TYPE, samples);
+        Log.i(TAG, String.format(Locale.US, "%d samples, binary columns: %d ms", samples, millis));
+    }
+
+    private long time(ParallelParser parser, byte[] bytes, String contentType, int samples) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            System.gc();
+            long start = System.nanoTime();
+            Data data = parser.parse(bytes, bytes.length, contentType);
+            best = Math.min(best, (System.nanoTime() - start) / 1000000);
+            assertEquals(samples, data.getSampleCount());
+        }
+        return best;
+    }
+
+    private static byte[] toBytes(Reader json) throws IOException {
+        // the synthetic json is ASCII only
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        char[] chars = new char[64 * 1024];
+        int n;
+        while ((n = json.read(chars, 0, chars.length)) >= 0)
+            for (int i = 0; i < n; i++)
+                out.write(chars[i]);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.thomann.plotvr;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.vr.sdk.base.Eye;
+import com.google.vr.sdk.base.HeadTransform;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the CPU time of a frame of 10^6 samples on a {@link RecordingGl}, without the GPU:
+ * the tasks handed to the GL thread, culling, the level of detail and the calls of both eyes.
+ * Results go to logcat with the tag "RendererBenchmark", with the calls of the last frame.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RendererBenchmark {
+    private static final String TAG = "RendererBenchmark";
+
+    private static final int SAMPLES = 1000000;
+    private static final int WARMUP_FRAMES = 50;
+    private static final int FRAMES = 300;
+
+    @Test
+    public void instanced_1e6() throws Exception {
+        measure("instanced", true, false, false);
+    }
+
+    @Test
+    public void triangles_1e6() throws Exception {
+        measure("triangles", false, false, false);
+    }
+
+    @Test
+    public void points_1e6() throws Exception {
+        measure("points", true, true, false);
+    }
+
+    @Test
+    public void levelOfDetail_1e6() throws Exception {
+        measure("level of detail", true, false, true);
+    }
+
+    private void measure(String name, boolean gles3, boolean points, boolean levelOfDetail) throws Exception {
+        RecordingGl gl = new RecordingGl(gles3);
+        Renderer renderer = new Renderer(null, gl);
+        renderer.onSurfaceCreated(null);
+        renderer.onSurfaceChanged(1440, 1440);
+        renderer.setPointSprites(points);
+        renderer.setLevelOfDetail(levelOfDetail);
+        renderer.setData(randomData(SAMPLES));
+        frame(renderer);
+        long deadline = System.currentTimeMillis() + 60000;
+        while (renderer.isBuilding()) {
+            assertTrue("Still building", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            frame(renderer);
+        }
+        for (int i = 0; i < WARMUP_FRAMES; i++)
+            frame(renderer);
+
+        long total = 0;
+        long worst = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            gl.resetCounts();
+            long start = System.nanoTime();
+            frame(renderer);
+            long nanos = System.nanoTime() - start;
+            total += nanos;
+            worst = Math.max(worst, nanos);
+        }
+        assertEquals(0, gl.glGetError());
+        Log.i(TAG, String.format(Locale.US, "%d samples, %s: %.3f ms per frame, worst %.3f ms, %s",
+                SAMPLES, name, total / 1e6 / FRAMES, worst / 1e6, gl));
+        renderer.onRendererShutdown();
+    }
+
+    private static void frame(Renderer renderer) {
+        renderer.onNewFrame(new HeadTransform());
+        renderer.onDrawEye(new Eye(Eye.Type.LEFT));
+        renderer.onDrawEye(new Eye(Eye.Type.RIGHT));
+        renderer.onFinishFrame(null);
+    }
+
+    private static Data randomData(int n) {
+        Random random = new Random(n);
+        PointTable.Builder builder = new PointTable.Builder(n);
+        for (int i = 0; i < n; i++)
+            builder.add(10 * random.nextFloat(), 10 * random.nextFloat(), 10 * random.nextFloat(),
+                    random.nextInt(4));
+        Data data = new Data();
+        data.setTable(builder.build());
+        return data;
+    }
+}
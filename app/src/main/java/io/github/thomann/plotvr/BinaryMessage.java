@@ -0,0 +1,165 @@
+package io.github.thomann.plotvr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A binary WebSocket message, the compact alternative to text messages for streaming
+ * samples and poses.
+ * <p/>
+ * <p>All numbers are little-endian, like in the {@link ColumnarFormat}:
+ * <pre>
+ *   int8     type: 1 points, 2 delta, 3 pose, 4 control
+ *   int8     delta op: 1 append, 2 update, 3 delete, 4 recolor (0 for other types)
+ *   int16    reserved (0)
+ *   int32    from: index of the first sample (deltas only)
+ *   int32    count: number of samples
+ *   payload
+ * </pre>
+ * The payload of points and of append and update deltas are the columns x, y, z and color,
+ * count float32 each. Points replace all samples, deltas change them like their json
+ * counterparts in {@link Delta}. A recolor delta carries either count float32 colors or
+ * a single one for all samples, a delete delta no payload at all.
+ * A pose is the camera matrix as 16 float32 in column-major order, a control message
+ * the UTF-8 name of a key as also sent in text messages.
+ * <p/>
+ * <p>Samples are not copied while decoding: the columns are float views on the message.
+ */
+public class BinaryMessage {
+
+    public static final int POINTS = 1;
+    public static final int DELTA = 2;
+    public static final int POSE = 3;
+    public static final int CONTROL = 4;
+
+    public static final int HEADER_BYTES = 12;
+    public static final int POSE_FLOATS = 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int type;
+    private final ByteBuffer payload;
+    private PointTable table;
+    private Delta delta;
+
+    private BinaryMessage(int type, ByteBuffer payload) {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    /**
+     * Decodes the message. Its content must not change afterwards, since the decoded
+     * samples are views on it.
+     */
+    public static BinaryMessage decode(ByteBuffer bytes) throws IOException {
+        ByteBuffer in = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < HEADER_BYTES)
+            throw new IOException("Binary message of " + in.remaining() + " bytes is too short");
+        int type = in.get(0);
+        int op = in.get(1);
+        int from = in.getInt(4);
+        int count = in.getInt(8);
+        in.position(HEADER_BYTES);
+        BinaryMessage message = new BinaryMessage(type, in.slice().order(ByteOrder.LITTLE_ENDIAN));
+        switch (type) {
+            case POINTS:
+                message.table = message.readTable(count);
+                break;
+            case DELTA:
+                message.delta = message.readDelta(op, from, count);
+                break;
+            case POSE:
+                message.checkFloats(POSE_FLOATS);
+                break;
+            case CONTROL:
+                break;
+            default:
+                throw new IOException("Unknown binary message type " + type);
+        }
+        return message;
+    }
+
+    private Delta readDelta(int op, int from, int count) throws IOException {
+        Delta delta = new Delta(op);
+        delta.from = from;
+        switch (op) {
+            case Delta.APPEND:
+            case Delta.UPDATE:
+                delta.samples = readTable(count);
+                break;
+            case Delta.DELETE:
+                delta.count = count;
+                break;
+            case Delta.RECOLOR:
+                delta.count = count;
+                if (payload.remaining() == 4 && count != 1) {
+                    delta.color = payload.getFloat(0);
+                } else {
+                    checkFloats(count);
+                    delta.colors = column(0, count);
+                }
+                break;
+        }
+        delta.validate();
+        return delta;
+    }
+
+    private PointTable readTable(int count) throws IOException {
+        checkFloats((long) PointTable.PLOT_COLUMNS * count);
+        return new PointTable(column(PointTable.X, count), column(PointTable.Y, count),
+                column(PointTable.Z, count), column(PointTable.COLOR, count));
+    }
+
+    private FloatBuffer column(int column, int count) {
+        ByteBuffer bytes = payload.duplicate();
+        bytes.position(4 * column * count).limit(4 * (column + 1) * count);
+        return bytes.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    private void checkFloats(long floats) throws IOException {
+        if (floats < 0 || payload.remaining() != 4 * floats)
+            throw new IOException("Binary message of type " + type + " has " + payload.remaining()
+                    + " bytes of payload instead of " + 4 * floats);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return the samples of a points message.
+     */
+    public PointTable getTable() {
+        return table;
+    }
+
+    /**
+     * @return the delta of a delta message.
+     */
+    public Delta getDelta() {
+        return delta;
+    }
+
+    /**
+     * Copies the camera matrix of a pose message.
+     */
+    public void getPose(float[] matrix, int offset) {
+        for (int i = 0; i < POSE_FLOATS; i++)
+            matrix[offset + i] = payload.getFloat(4 * i);
+    }
+
+    /**
+     * @return the key of a control message.
+     */
+    public String getControl() {
+        return UTF8.decode(payload.duplicate()).toString();
+    }
+
+    @Override
+    public String toString() {
+        return "{ BinaryMessage: type=" + type + ", bytes=" + payload.remaining() + " }";
+    }
+}
@@ -0,0 +1,200 @@
+package io.github.thomann.plotvr;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps direct buffers that are no longer needed, to hand them out again instead of
+ * allocating new ones. Native memory of direct buffers is only freed once the garbage
+ * collector finalized them, so reloading data again and again would otherwise make it grow
+ * until the app is killed.
+ * <p/>
+ * <p>Buffers come in size classes of four steps per power of two, so a buffer is at most a
+ * quarter larger than asked for and fits other requests of about the same size. Whoever
+ * acquires a buffer must {@link #release} it once nothing refers to it any more, e.g. after
+ * it was uploaded for the last time; buffers that are never released are simply collected.
+ * At most a budget of bytes is kept idle; released buffers beyond that are left to the
+ * garbage collector. Buffers larger than the whole budget, like the geometry of a million
+ * cubes as triangles, get room for one more on top of it, as large as the largest released,
+ * so that reloading such data reuses the buffer of the geometry it replaces.
+ * <p/>
+ * <p>Reused buffers are not cleared. All methods are thread safe.
+ */
+class BufferPool {
+    private static final String TAG = "BufferPool";
+
+    // smaller buffers are rounded up to this
+    static final int MIN_CLASS_BYTES = 4096;
+    private static final int STEPS_PER_POWER = 4;
+
+    public static final long DEFAULT_MAX_IDLE_BYTES = 64L * 1024 * 1024;
+
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_MAX_IDLE_BYTES);
+
+    private final long maxIdleBytes;
+    private final Map<Integer, ArrayDeque<ByteBuffer>> idle = new HashMap<Integer, ArrayDeque<ByteBuffer>>();
+    // the buffers handed out, to catch releasing twice or releasing foreign buffers
+    private final Set<ByteBuffer> acquired = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+
+    private long idleBytes = 0;
+    // the largest buffer released so far, if larger than the budget
+    private long largestRelease = 0;
+    private long bytesInUse = 0;
+    private long peakBytesInUse = 0;
+    private long acquires = 0;
+    private long reuses = 0;
+    private long releases = 0;
+    private long drops = 0;
+
+    /**
+     * @param maxIdleBytes the most bytes of released buffers to keep for reuse.
+     */
+    BufferPool(long maxIdleBytes) {
+        if (maxIdleBytes < 0)
+            throw new IllegalArgumentException("Budget must not be negative: " + maxIdleBytes);
+        this.maxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * @return the pool shared by geometry, level of detail and loader.
+     */
+    static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the capacity of the buffers handed out for the given number of bytes.
+     */
+    static int classBytes(int bytes) {
+        if (bytes <= MIN_CLASS_BYTES)
+            return MIN_CLASS_BYTES;
+        long power = Long.highestOneBit(bytes - 1L);
+        long step = power / STEPS_PER_POWER;
+        long size = power + (bytes - power + step - 1) / step * step;
+        // too large for classes, no point in rounding up
+        return size > Integer.MAX_VALUE ? bytes : (int) size;
+    }
+
+    /**
+     * @return a direct buffer in native order of at least the given bytes, cleared,
+     * with undefined content.
+     */
+    synchronized ByteBuffer acquire(int bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Bytes must not be negative: " + bytes);
+        int size = classBytes(bytes);
+        acquires++;
+        ArrayDeque<ByteBuffer> buffers = idle.get(size);
+        ByteBuffer buffer = buffers == null ? null : buffers.pollLast();
+        if (buffer != null) {
+            reuses++;
+            idleBytes -= size;
+            buffer.clear();
+        } else {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        acquired.add(buffer);
+        bytesInUse += size;
+        peakBytesInUse = Math.max(peakBytesInUse, bytesInUse);
+        return buffer;
+    }
+
+    /**
+     * Takes the buffer back, which must not be used by the caller any more.
+     *
+     * @param buffer a buffer of this pool, may be null.
+     */
+    synchronized void release(ByteBuffer buffer) {
+        if (buffer == null)
+            return;
+        if (!acquired.remove(buffer)) {
+            Log.w(TAG, "Ignoring buffer of " + buffer.capacity() + " bytes that is not in use");
+            return;
+        }
+        int size = buffer.capacity();
+        bytesInUse -= size;
+        releases++;
+        if (size > maxIdleBytes)
+            largestRelease = Math.max(largestRelease, size);
+        if (idleBytes + size > getMaxIdleBytes()) {
+            drops++;
+            return;
+        }
+        ArrayDeque<ByteBuffer> buffers = idle.get(size);
+        if (buffers == null) {
+            buffers = new ArrayDeque<ByteBuffer>();
+            idle.put(size, buffers);
+        }
+        buffers.add(buffer);
+        idleBytes += size;
+    }
+
+    /**
+     * Drops all idle buffers, e.g. when the system runs low on memory.
+     */
+    synchronized void trim() {
+        idle.clear();
+        idleBytes = 0;
+    }
+
+    synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+    /**
+     * @return the most bytes kept idle: the budget, and room for the largest buffer released
+     * that is larger than the budget.
+     */
+    synchronized long getMaxIdleBytes() {
+        return maxIdleBytes + largestRelease;
+    }
+
+    synchronized long getBytesInUse() {
+        return bytesInUse;
+    }
+
+    /**
+     * @return the most bytes that were in use at the same time.
+     */
+    synchronized long getPeakBytesInUse() {
+        return peakBytesInUse;
+    }
+
+    synchronized long getAcquires() {
+        return acquires;
+    }
+
+    /**
+     * @return how many acquires got an idle buffer instead of a new one.
+     */
+    synchronized long getReuses() {
+        return reuses;
+    }
+
+    synchronized long getReleases() {
+        return releases;
+    }
+
+    /**
+     * @return how many released buffers were not kept because of the budget.
+     */
+    synchronized long getDrops() {
+        return drops;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "{ BufferPool: inUse=" + bytesInUse + ", peak=" + peakBytesInUse + ", idle=" + idleBytes
+                + "/" + getMaxIdleBytes() + ", acquires=" + acquires + ", reuses=" + reuses
+                + ", releases=" + releases + ", drops=" + drops + " }";
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.thomann.plotvr;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The size budget of the file caches, {@link DataCache} and {@link GeometryCache}: the least
+ * recently used files go first, by their time of last modification, which the caches touch
+ * whenever they read a file.
+ */
+final class CacheFiles {
+
+    private CacheFiles() {
+    }
+
+    /**
+     * Deletes the least recently used files of the cache until they fit into its budget.
+     *
+     * @param suffix      the suffix of the files that count; others, e.g. temporary ones, are left alone.
+     * @param companions  the suffixes of files that go along with a file, in place of its suffix.
+     */
+    static void evict(File dir, long maxBytes, String tag, String suffix, String... companions) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        long total = 0;
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(suffix)) {
+                total += file.length();
+                files[count++] = file;
+            }
+        }
+        if (total <= maxBytes)
+            return;
+        files = Arrays.copyOf(files, count);
+        final long[] lastModified = new long[count];
+        for (int i = 0; i < count; i++)
+            lastModified[i] = files[i].lastModified();
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+        for (int i = 0; i < count && total > maxBytes; i++) {
+            File file = files[order[i]];
+            total -= file.length();
+            String name = file.getName();
+            String stem = name.substring(0, name.length() - suffix.length());
+            for (String companion : companions)
+                new File(dir, stem + companion).delete();
+            if (!file.delete())
+                Log.w(tag, "Cannot delete " + file);
+            Log.i(tag, "Evicted " + name);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.thomann.plotvr;
+
+/**
+ * Maps the color column of the samples to colors, looked up in the shaders from a texture
+ * of one row.
+ * <p/>
+ * <p>The geometry carries a color level per sample: the color index for a palette, whose colors
+ * repeat for larger indices, or the color value scaled from its range to 0..{@link #LEVELS} for a
+ * continuous color map like viridis. The shaders turn the level into a texture coordinate
+ * with {@link #getLookup(float[])}. Changing the colors hence only needs a new texture, while
+ * switching between palette and continuous changes the levels and needs new geometry.
+ */
+class ColorMap {
+
+    // the largest level of a continuous color value, one less than the marker of deleted samples
+    static final int LEVELS = 65534;
+    // the texels of a continuous color map
+    static final int TEXELS = 256;
+
+    static final ColorMap VIRIDIS = continuous("viridis", new int[]{
+            0xFF440154, 0xFF472D7B, 0xFF3B528B, 0xFF2C728E, 0xFF21918C,
+            0xFF28AE80, 0xFF5DC863, 0xFFADDC30, 0xFFFDE725});
+    static final ColorMap MAGMA = continuous("magma", new int[]{
+            0xFF000004, 0xFF1C1044, 0xFF4F127B, 0xFF812581, 0xFFB5367A,
+            0xFFE55064, 0xFFFB8861, 0xFFFEC287, 0xFFFCFDBF});
+
+    private final String name;
+    private final boolean continuous;
+    // ARGB, one per texel
+    private final int[] colors;
+
+    private ColorMap(String name, boolean continuous, int[] colors) {
+        this.name = name;
+        this.continuous = continuous;
+        this.colors = colors;
+    }
+
+    /**
+     * A color per color index, repeating for larger indices.
+     *
+     * @param colors ARGB colors, at most {@link #TEXELS}.
+     */
+    static ColorMap palette(String name, int[] colors) {
+        if (colors.length == 0 || colors.length > TEXELS)
+            throw new IllegalArgumentException("Palette of " + colors.length + " colors");
+        return new ColorMap(name, false, colors.clone());
+    }
+
+    /**
+     * Colors interpolated linearly between stops spread evenly over the range of the values.
+     *
+     * @param stops at least two ARGB colors, from the smallest value to the largest.
+     */
+    static ColorMap continuous(String name, int[] stops) {
+        if (stops.length < 2)
+            throw new IllegalArgumentException("Color map of " + stops.length + " stops");
+        int[] colors = new int[TEXELS];
+        for (int i = 0; i < TEXELS; i++) {
+            float position = i * (stops.length - 1) / (float) (TEXELS - 1);
+            int stop = Math.min((int) position, stops.length - 2);
+            colors[i] = mix(stops[stop], stops[stop + 1], position - stop);
+        }
+        return new ColorMap(name, true, colors);
+    }
+
+    private static int mix(int from, int to, float t) {
+        int color = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (from >>> shift) & 0xFF;
+            int b = (to >>> shift) & 0xFF;
+            color |= Math.round(a + (b - a) * t) << shift;
+        }
+        return color;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether the levels are scaled color values rather than color indices.
+     */
+    boolean isContinuous() {
+        return continuous;
+    }
+
+    /**
+     * @return the width of the texture.
+     */
+    int getTexels() {
+        return colors.length;
+    }
+
+    /**
+     * @return the color of the texel as ARGB.
+     */
+    int getColor(int texel) {
+        return colors[texel];
+    }
+
+    /**
+     * @return the texels as RGBA bytes, for glTexImage2D.
+     */
+    byte[] getTexture() {
+        byte[] rgba = new byte[4 * colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            rgba[4 * i] = (byte) (colors[i] >> 16);
+            rgba[4 * i + 1] = (byte) (colors[i] >> 8);
+            rgba[4 * i + 2] = (byte) colors[i];
+            rgba[4 * i + 3] = (byte) (colors[i] >>> 24);
+        }
+        return rgba;
+    }
+
+    /**
+     * Fills in how the shaders get the texture coordinate of a level: level * scale + offset,
+     * wrapped into 0..1 for a palette and clamped for a continuous color map.
+     *
+     * @param lookup scale, offset, and 1 to wrap or 0 to clamp.
+     */
+    void getLookup(float[] lookup) {
+        if (continuous) {
+            // from the center of the first texel to the center of the last one
+            lookup[0] = (TEXELS - 1) / (float) TEXELS / LEVELS;
+            lookup[1] = 0.5f / TEXELS;
+            lookup[2] = 0f;
+        } else {
+            // the center of the texel of the index
+            lookup[0] = 1f / colors.length;
+            lookup[1] = 0.5f / colors.length;
+            lookup[2] = 1f;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "{ ColorMap: " + name + (continuous ? ", continuous" : ", palette of " + colors.length) + " }";
+    }
+}
@@ -0,0 +1,386 @@
+package io.github.thomann.plotvr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads and writes the compact binary point format, the columnar alternative to data.json.
+ * <p/>
+ * <p>All numbers are little-endian:
+ * <pre>
+ *   int32    magic "PVRC"
+ *   int32    format version (1, or 2 if there are quantized columns)
+ *   int32    number of samples n
+ *   float64  speed
+ *   int32    number of columns k
+ *   k times: int32 column type, int32 length of the name, name (UTF-8),
+ *            for quantized columns float32 offset and float32 scale
+ *   padding with zeros to a multiple of 4 bytes
+ *   k times: n values of the column, padded with zeros to a multiple of 4 bytes
+ * </pre>
+ * Column types are 1 for float32, 2 for int32 and 3 for quantized: uint16 values q standing
+ * for offset + q * scale, see {@link Quantization}. Quantized columns are turned into float32
+ * columns when read.
+ * The columns named x, y, z and color are used for the plot; if they are not named,
+ * the first four columns are taken in this order. All other columns are kept as extra
+ * columns of the {@link PointTable}.
+ * Every column is read in one go into a direct buffer, so there is no per-sample work at all.
+ */
+public final class ColumnarFormat {
+
+    /** The content type the server sends for this format. */
+    public static final String MIME_TYPE = "application/vnd.plotvr.columns";
+
+    public static final int MAGIC = 'P' | 'V' << 8 | 'R' << 16 | 'C' << 24;
+    public static final int VERSION = 1;
+    public static final int VERSION_QUANTIZED = 2;
+
+    public static final int TYPE_FLOAT32 = 1;
+    public static final int TYPE_INT32 = 2;
+    public static final int TYPE_QUANTIZED = 3;
+
+    public static final String[] PLOT_COLUMNS = {"x", "y", "z", "color"};
+
+    /** The longest column name read, in bytes; longer ones mean a corrupt header. */
+    static final int MAX_NAME_BYTES = 64 * 1024;
+    /** The most columns read; more mean a corrupt header. */
+    static final int MAX_COLUMNS = 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ColumnarFormat() {
+    }
+
+    /**
+     * @param contentType the Content-Type header of a response, may be null.
+     * @return true if the response is in this format.
+     */
+    public static boolean isColumnar(String contentType) {
+        return contentType != null && contentType.startsWith(MIME_TYPE);
+    }
+
+    public static Data read(InputStream in, Data data) throws IOException {
+        return read(in, data, -1);
+    }
+
+    /**
+     * @param length the number of bytes in the stream if known, e.g. of a file, or -1; if known,
+     *               columns not fitting into it are an error before they are allocated.
+     */
+    public static Data read(InputStream in, Data data, long length) throws IOException {
+        return read(Channels.newChannel(in), data, length);
+    }
+
+    /**
+     * Reads the remaining bytes, which are copied right into the columns, without a stream
+     * in between. The position of bytes does not change.
+     */
+    public static Data read(ByteBuffer bytes, Data data) throws IOException {
+        return read(new BufferChannel(bytes.duplicate()), data, bytes.remaining());
+    }
+
+    private static Data read(ReadableByteChannel channel, Data data, long length) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header);
+        if (header.getInt() != MAGIC)
+            throw new IOException("Not a plotVR column file");
+        int version = header.getInt();
+        if (version != VERSION && version != VERSION_QUANTIZED)
+            throw new IOException("Unsupported column format version " + version);
+        int n = header.getInt();
+        double speed = header.getDouble();
+        int k = header.getInt();
+        // a column of n values of 4 bytes must fit a buffer
+        if (n < 0 || n > Integer.MAX_VALUE / 4 || k < 0 || k > MAX_COLUMNS)
+            throw new IOException("Corrupt column header: n=" + n + ", k=" + k);
+
+        int[] types = new int[k];
+        String[] names = new String[k];
+        float[] offsets = new float[k];
+        float[] scales = new float[k];
+        long headerLength = header.capacity();
+        ByteBuffer columnHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int c = 0; c < k; c++) {
+            columnHeader.clear();
+            readFully(channel, columnHeader);
+            types[c] = columnHeader.getInt();
+            int nameLength = columnHeader.getInt();
+            if (nameLength < 0 || nameLength > MAX_NAME_BYTES)
+                throw new IOException("Corrupt header of column " + c + ": name of " + nameLength + " bytes");
+            ByteBuffer name = ByteBuffer.allocate(nameLength);
+            readFully(channel, name);
+            names[c] = new String(name.array(), UTF8);
+            headerLength += columnHeader.capacity() + nameLength;
+            if (types[c] == TYPE_QUANTIZED) {
+                columnHeader.clear();
+                readFully(channel, columnHeader);
+                offsets[c] = columnHeader.getFloat();
+                scales[c] = columnHeader.getFloat();
+                headerLength += columnHeader.capacity();
+            }
+        }
+        int padding = (int) ((4 - headerLength % 4) % 4);
+        if (length >= 0) {
+            long columnBytes = 0;
+            for (int c = 0; c < k; c++)
+                columnBytes += types[c] == TYPE_QUANTIZED ? 2L * (n + n % 2) : 4L * n;
+            if (headerLength + padding + columnBytes > length)
+                throw new EOFException("Columns of " + columnBytes + " bytes after a header of "
+                        + headerLength + " bytes exceed the " + length + " bytes");
+        }
+        skip(channel, padding);
+
+        FloatBuffer[] columns = new FloatBuffer[PLOT_COLUMNS.length];
+        Buffer[] extras = new Buffer[k];
+        for (int c = 0; c < k; c++) {
+            ByteBuffer bytes;
+            switch (types[c]) {
+                case TYPE_FLOAT32:
+                case TYPE_QUANTIZED:
+                    bytes = types[c] == TYPE_FLOAT32 ? readColumn(channel, n)
+                            : readQuantizedColumn(channel, n, offsets[c], scales[c]);
+                    int target = plotColumn(names[c], c);
+                    if (target < 0 || columns[target] != null)
+                        extras[c] = bytes.asFloatBuffer();
+                    else
+                        columns[target] = bytes.asFloatBuffer();
+                    break;
+                case TYPE_INT32:
+                    extras[c] = readColumn(channel, n).asIntBuffer();
+                    break;
+                default:
+                    throw new IOException("Unsupported type " + types[c] + " of column " + names[c]);
+            }
+        }
+        for (int c = 0; c < columns.length; c++)
+            if (columns[c] == null)
+                throw new IOException("Missing column " + PLOT_COLUMNS[c]);
+
+        PointTable table = new PointTable(columns[PointTable.X], columns[PointTable.Y],
+                columns[PointTable.Z], columns[PointTable.COLOR]);
+        for (int c = 0; c < k; c++) {
+            if (extras[c] instanceof FloatBuffer)
+                table.addColumn(names[c], (FloatBuffer) extras[c]);
+            else if (extras[c] instanceof IntBuffer)
+                table.addColumn(names[c], (IntBuffer) extras[c]);
+        }
+        data.setTable(table);
+        data.setSpeed(speed);
+        return data;
+    }
+
+    /**
+     * Writes the samples of data with all their columns.
+     */
+    public static void write(Data data, OutputStream out) throws IOException {
+        write(data, out, false);
+    }
+
+    /**
+     * Writes the samples of data with all their columns.
+     *
+     * @param quantizePositions whether to write x, y and z quantized to 16 bit, which halves them
+     *                          at an error of at most {@link Quantization#getMaxError(int)}.
+     */
+    public static void write(Data data, OutputStream out, boolean quantizePositions) throws IOException {
+        PointTable table = data.getTable();
+        Quantization quantization = quantizePositions ? Quantization.of(table, 0f) : null;
+        int n = table == null ? 0 : table.size();
+        String[] names = new String[PLOT_COLUMNS.length + (table == null ? 0 : table.getExtraColumnNames().size())];
+        System.arraycopy(PLOT_COLUMNS, 0, names, 0, PLOT_COLUMNS.length);
+        if (table != null) {
+            int c = PLOT_COLUMNS.length;
+            for (String name : table.getExtraColumnNames())
+                names[c++] = name;
+        }
+
+        WritableByteChannel channel = Channels.newChannel(out);
+        int headerLength = 24;
+        for (String name : names)
+            headerLength += 8 + name.getBytes(UTF8).length;
+        if (quantization != null)
+            headerLength += Quantization.AXES * 8;
+        headerLength += (4 - headerLength % 4) % 4;
+        ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(quantization != null ? VERSION_QUANTIZED : VERSION)
+                .putInt(n).putDouble(data.getSpeed()).putInt(names.length);
+        for (int c = 0; c < names.length; c++) {
+            byte[] name = names[c].getBytes(UTF8);
+            if (quantization != null && c < Quantization.AXES) {
+                header.putInt(TYPE_QUANTIZED).putInt(name.length).put(name)
+                        .putFloat(quantization.getOffset(c)).putFloat(quantization.getScale(c));
+                continue;
+            }
+            boolean isInt = c >= PLOT_COLUMNS.length && table.getIntColumn(names[c]) != null;
+            header.putInt(isInt ? TYPE_INT32 : TYPE_FLOAT32).putInt(name.length).put(name);
+        }
+        header.position(0);
+        writeFully(channel, header);
+        if (table == null)
+            return;
+
+        ByteBuffer scratch = BufferPool.getDefault().acquire(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            for (int c = 0; c < names.length; c++) {
+                if (quantization != null && c < Quantization.AXES) {
+                    writeQuantizedColumn(channel, table.getColumn(c), quantization, c, scratch);
+                } else if (c < PLOT_COLUMNS.length) {
+                    writeColumn(channel, table.getColumn(c).duplicate(), scratch);
+                } else {
+                    FloatBuffer floats = table.getFloatColumn(names[c]);
+                    writeColumn(channel, floats != null ? floats.duplicate() : table.getIntColumn(names[c]).duplicate(), scratch);
+                }
+            }
+        } finally {
+            BufferPool.getDefault().release(scratch);
+        }
+    }
+
+    private static void writeColumn(WritableByteChannel channel, Buffer column, ByteBuffer scratch) throws IOException {
+        column.position(0);
+        while (column.hasRemaining()) {
+            int values = Math.min(column.remaining(), scratch.capacity() / 4);
+            int limit = column.limit();
+            column.limit(column.position() + values);
+            scratch.clear();
+            if (column instanceof FloatBuffer)
+                scratch.asFloatBuffer().put((FloatBuffer) column);
+            else
+                scratch.asIntBuffer().put((IntBuffer) column);
+            column.limit(limit);
+            scratch.limit(values * 4);
+            writeFully(channel, scratch);
+        }
+    }
+
+    private static void writeQuantizedColumn(WritableByteChannel channel, FloatBuffer column,
+                                             Quantization quantization, int axis, ByteBuffer scratch) throws IOException {
+        int n = column.limit();
+        scratch.clear();
+        for (int i = 0; i < n; i++) {
+            if (!scratch.hasRemaining()) {
+                scratch.flip();
+                writeFully(channel, scratch);
+                scratch.clear();
+            }
+            scratch.putShort(quantization.quantize(axis, column.get(i)));
+        }
+        if (n % 2 != 0)
+            scratch.putShort((short) 0);
+        scratch.flip();
+        writeFully(channel, scratch);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    private static int plotColumn(String name, int position) {
+        for (int i = 0; i < PLOT_COLUMNS.length; i++)
+            if (PLOT_COLUMNS[i].equals(name))
+                return i;
+        if (name.isEmpty() && position < PLOT_COLUMNS.length)
+            return position;
+        return -1;
+    }
+
+    /**
+     * Reads a column of 4 byte values straight into a direct buffer in native order, ready for OpenGL.
+     */
+    private static ByteBuffer readColumn(ReadableByteChannel channel, int n) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(n * 4).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, bytes);
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            ByteBuffer swapped = ByteBuffer.allocateDirect(n * 4).order(ByteOrder.nativeOrder());
+            swapped.asIntBuffer().put(bytes.asIntBuffer());
+            bytes = swapped;
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads a quantized column and turns it into float values in a direct buffer in native order.
+     */
+    private static ByteBuffer readQuantizedColumn(ReadableByteChannel channel, int n,
+                                                  float offset, float scale) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(n * 4).order(ByteOrder.nativeOrder());
+        FloatBuffer values = bytes.asFloatBuffer();
+        ByteBuffer scratch = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        int padded = n + n % 2;
+        for (int read = 0; read < padded; ) {
+            scratch.clear();
+            scratch.limit(2 * Math.min(padded - read, scratch.capacity() / 2));
+            readFully(channel, scratch);
+            while (scratch.hasRemaining()) {
+                float value = offset + (scratch.getShort() & 0xFFFF) * scale;
+                if (read++ < n)
+                    values.put(value);
+            }
+        }
+        return bytes;
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new EOFException("Column data ended after " + buffer.position() + " bytes");
+        }
+        buffer.flip();
+    }
+
+    /**
+     * The bytes of a buffer as a channel.
+     */
+    private static final class BufferChannel implements ReadableByteChannel {
+        private final ByteBuffer source;
+        private boolean open = true;
+
+        BufferChannel(ByteBuffer source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read(ByteBuffer target) {
+            if (!source.hasRemaining())
+                return -1;
+            int n = Math.min(source.remaining(), target.remaining());
+            int limit = source.limit();
+            source.limit(source.position() + n);
+            target.put(source);
+            source.limit(limit);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    private static void skip(ReadableByteChannel channel, int bytes) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(Math.min(bytes, 64 * 1024));
+        while (bytes > 0) {
+            scratch.clear();
+            scratch.limit(Math.min(bytes, scratch.capacity()));
+            readFully(channel, scratch);
+            bytes -= scratch.limit();
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package io.github.thomann.plotvr;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The vertices of the cubes of all samples, as drawn by the {@link Renderer}.
+ * <p/>
+ * <p>There are two layouts. Either every cube has 36 interleaved vertices: the position
+ * (float32, or uint16 and 2 bytes padding if quantized), the normal as 3 signed bytes and
+ * 1 byte padding, and the color level as float32. Or every sample has one record of
+ * its position and color level, four float32 or four uint16, for instances and points;
+ * deleted samples have a marker as color level. The shaders look the level up in a
+ * {@link ColorMap}, so the geometry does not depend on the colors.
+ * <p/>
+ * <p>A complete geometry is built with {@link #build}, which may run on any thread since it
+ * only touches the new geometry. Once handed to the renderer, a geometry belongs to the GL
+ * thread, which changes it for streamed samples and deltas. Changed bytes are collected
+ * until the next upload, see {@link #getDirtyFrom()}.
+ * <p/>
+ * <p>Building may split the samples into ranges written on several workers. Every range writes
+ * right into its own cubes of the final buffer, which are disjoint also in the order of the
+ * octree, so nothing needs to be copied together afterwards.
+ */
+class CubeGeometry {
+    private static final String TAG = "CubeGeometry";
+
+    // the half size of a cube
+    static final float SCALE_CUBE = 0.1f;
+    // positions are not quantized in a box whose steps are coarser than this
+    static final float MAX_QUANTIZATION_ERROR = SCALE_CUBE / 100;
+    // marks deleted samples in the color level of a record
+    static final int DELETED_QUANTIZED = 0xFFFF;
+    static final float DELETED_FLOAT = -1f;
+
+    private static final int VERTEX_BYTES = 12 + 4 + 4;
+    private static final int QUANTIZED_VERTEX_BYTES = 8 + 4 + 4;
+    private static final int CUBE_VERTICES = 36;
+    // the normals of the cube as bytes
+    private static final byte[] CUBE_NORMAL_BYTES = new byte[WorldLayoutData.CUBE_NORMALS.length];
+
+    static {
+        for (int i = 0; i < CUBE_NORMAL_BYTES.length; i++)
+            CUBE_NORMAL_BYTES[i] = (byte) Math.round(127 * WorldLayoutData.CUBE_NORMALS[i]);
+    }
+
+    // below this, splitting costs more than it gains
+    private static final int MIN_RANGE_SAMPLES = 16 * 1024;
+    // more ranges than threads, so that a slow range does not keep the others waiting
+    private static final int RANGES_PER_THREAD = 4;
+
+    private static final float[] NO_SCALE = {1f, 1f, 1f};
+    private static final float[] NO_OFFSET = new float[3];
+
+    private final int generation;
+    private final boolean perSample;
+    private final boolean quantize;
+    private final boolean continuousColors;
+
+    private ByteBuffer vertices;
+    // whether the vertices are from the BufferPool, rather than e.g. a mapped file
+    private boolean pooled = true;
+    private int count = 0;
+    // positions are quantized to 16 bit in this box, null if not quantized or no cubes yet
+    private Quantization quantization;
+    private boolean requantized = false;
+    // whether the box of the positions is too large to quantize them
+    private boolean tooCoarse = false;
+    // the cubes are ordered by this index, if any
+    private Octree octree;
+
+    private final float[] boundsMin = new float[3];
+    private final float[] boundsMax = new float[3];
+    // the color values scaled to the levels of a continuous color map; later ones are clamped
+    private boolean hasColorRange = false;
+    private float colorMin = 0f;
+    private float colorMax = 1f;
+
+    // bytes changed since the last upload
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = 0;
+
+    /**
+     * An empty geometry.
+     *
+     * @param generation the rebuild of the renderer this geometry belongs to.
+     * @param perSample  whether to write one record per sample instead of 36 vertices.
+     * @param quantize   whether to keep the positions as 16 bit integers in the bounding box.
+     * @param continuousColors whether the color levels are scaled color values for a
+     *                   continuous {@link ColorMap}, rather than color indices.
+     */
+    CubeGeometry(int generation, boolean perSample, boolean quantize, boolean continuousColors) {
+        this.generation = generation;
+        this.perSample = perSample;
+        this.quantize = quantize;
+        this.continuousColors = continuousColors;
+    }
+
+    /**
+     * A geometry of vertices written before, e.g. mapped from the {@link GeometryCache}.
+     * Writing to them later, for deltas, must not change where they came from.
+     *
+     * @param vertices     exactly the vertices of the cubes.
+     * @param quantization the box of the positions, null if not quantized.
+     * @param colorRange   the range of the color values of continuous colors, null for color indices.
+     * @param octree       the order of the cubes, may be null.
+     */
+    static CubeGeometry wrap(int generation, boolean perSample, ByteBuffer vertices,
+                             Quantization quantization, float[] colorRange, Octree octree) {
+        CubeGeometry geometry = new CubeGeometry(generation, perSample, quantization != null, colorRange != null);
+        if (colorRange != null) {
+            geometry.hasColorRange = true;
+            geometry.colorMin = colorRange[0];
+            geometry.colorMax = colorRange[1];
+        }
+        geometry.vertices = vertices;
+        geometry.pooled = false;
+        geometry.count = vertices.capacity() / geometry.getCubeBytes();
+        geometry.quantization = quantization;
+        geometry.octree = octree;
+        return geometry;
+    }
+
+    /**
+     * Builds the geometry of all samples of the table, ordered by an octree if there are more
+     * than a leaf of them. The table must not change meanwhile. Positions are not quantized
+     * if the error would exceed {@link #MAX_QUANTIZATION_ERROR}, see {@link #isTooCoarse()}.
+     *
+     * @param octreeLeafSize the largest number of samples in a leaf of the octree.
+     */
+    static CubeGeometry build(int generation, PointTable table, boolean perSample, boolean quantize,
+                              boolean continuousColors, int octreeLeafSize) {
+        return build(generation, table, perSample, quantize, continuousColors, octreeLeafSize, null, 1);
+    }
+
+    /**
+     * Builds the geometry like {@link #build(int, PointTable, boolean, boolean, boolean, int)},
+     * writing ranges of the samples on the workers.
+     *
+     * @param workers the executor of the ranges, may be null to write sequentially.
+     * @param threads the number of threads of the workers.
+     */
+    static CubeGeometry build(int generation, PointTable table, boolean perSample, boolean quantize,
+                              boolean continuousColors, int octreeLeafSize, ExecutorService workers, int threads) {
+        boolean tooCoarse = false;
+        if (quantize) {
+            Quantization box = Quantization.of(table, SCALE_CUBE);
+            if (box != null && box.getMaxError() > MAX_QUANTIZATION_ERROR) {
+                Log.i(TAG, "Not quantizing, the error would be up to " + box.getMaxError());
+                quantize = false;
+                tooCoarse = true;
+            }
+        }
+        CubeGeometry geometry = new CubeGeometry(generation, perSample, quantize, continuousColors);
+        geometry.tooCoarse = tooCoarse;
+        if (table == null)
+            return geometry;
+        geometry.ensureCapacity(table.size(), true);
+        if (table.size() > octreeLeafSize) {
+            long start = System.nanoTime();
+            geometry.octree = Octree.build(table, octreeLeafSize);
+            Log.i(TAG, "Built octree of " + geometry.octree.getNodeCount() + " nodes in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        if (workers == null || threads < 2 || table.size() < 2 * MIN_RANGE_SAMPLES)
+            geometry.append(table);
+        else
+            geometry.appendParallel(table, workers, threads);
+        return geometry;
+    }
+
+    /**
+     * Like {@link #append}, with ranges of the samples written on the workers.
+     * If the workers fail, the samples are written sequentially.
+     */
+    private void appendParallel(final PointTable table, ExecutorService workers, int threads) {
+        final int n = table.size();
+        ensureCapacity(count + n, false);
+        // the box must be known before any range is quantized
+        ensureQuantization(table, 0, n);
+        ensureColorRange(table, 0, n);
+        final int firstCube = count;
+        int ranges = Math.max(1, Math.min(threads * RANGES_PER_THREAD, n / MIN_RANGE_SAMPLES));
+        List<Callable<Void>> writers = new ArrayList<Callable<Void>>(ranges);
+        for (int r = 0; r < ranges; r++) {
+            final int from = (int) ((long) n * r / ranges);
+            final int to = (int) ((long) n * (r + 1) / ranges);
+            writers.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    writeRange(table, from, to, firstCube + from);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : workers.invokeAll(writers))
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.w(TAG, "Writing sequentially: interrupted");
+            writeRange(table, 0, n, firstCube);
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Writing sequentially: " + e.getCause());
+            writeRange(table, 0, n, firstCube);
+        }
+        invalidateCubes(firstCube, n);
+        count += n;
+    }
+
+    /**
+     * Adds the cubes of the samples of the table to the end.
+     */
+    void append(PointTable table) {
+        int n = table.size();
+        if (n == 0)
+            return;
+        ensureCapacity(count + n, false);
+        ensureQuantization(table, 0, n);
+        ensureColorRange(table, 0, n);
+        write(table, 0, n, count);
+        count += n;
+    }
+
+    /**
+     * Adds the cubes of the samples of the table from the current count on, after they were
+     * appended to it.
+     */
+    void appendFrom(PointTable table) {
+        int n = table.size();
+        if (n <= count)
+            return;
+        ensureCapacity(n, false);
+        ensureQuantization(table, count, n);
+        write(table, count, n, count);
+        count = n;
+    }
+
+    /**
+     * Writes the cubes of the samples from (inclusive) to to (exclusive) again, after they changed.
+     */
+    void update(PointTable table, int from, int to) {
+        ensureQuantization(table, from, to);
+        write(table, from, to, from);
+    }
+
+    /**
+     * Grows the bounds of the octree for samples that moved.
+     */
+    void moved(PointTable table, int from, int to) {
+        if (octree == null)
+            return;
+        for (int i = from; i < to; i++)
+            octree.include(i, table.getX(i), table.getY(i), table.getZ(i));
+    }
+
+    /**
+     * Makes sure that the quantization box holds the cubes of the samples from (inclusive)
+     * to to (exclusive). If not, the box grows by half its size in every direction beyond
+     * the samples, and the cubes written so far are quantized again, so that a growing
+     * dataset only needs this a few times. Quantizing again adds at most half a step of the
+     * old box to their error, so the errors of all boxes so far add up. Once the steps of the
+     * box exceed {@link #MAX_QUANTIZATION_ERROR}, the geometry is {@link #isTooCoarse() too coarse}.
+     */
+    private void ensureQuantization(PointTable table, int from, int to) {
+        if (!quantize)
+            return;
+        if (!Quantization.bounds(table, from, to, boundsMin, boundsMax)) {
+            // only deleted samples, their cubes are not drawn anyway
+            if (quantization == null)
+                quantization = new Quantization(NO_OFFSET, NO_SCALE);
+            return;
+        }
+        Quantization old = quantization;
+        if (old != null && old.contains(boundsMin, boundsMax, SCALE_CUBE))
+            return;
+        float[] min = boundsMin;
+        float[] max = boundsMax;
+        for (int axis = 0; axis < Quantization.AXES; axis++) {
+            float margin = SCALE_CUBE;
+            if (old != null) {
+                min[axis] = Math.min(min[axis], old.getOffset(axis));
+                max[axis] = Math.max(max[axis], old.getMax(axis));
+                margin += (max[axis] - min[axis]) / 2;
+            }
+            min[axis] -= margin;
+            max[axis] += margin;
+        }
+        quantization = new Quantization(min, max);
+        if (quantization.getMaxError() > MAX_QUANTIZATION_ERROR)
+            tooCoarse = true;
+        if (old == null || count == 0)
+            return;
+        Log.i(TAG, "Quantizing " + count + " cubes again for " + quantization);
+        requantized = true;
+        // records have their color index behind the position, vertices their normal and color
+        int stride = perSample ? 8 : QUANTIZED_VERTEX_BYTES;
+        int end = count * getCubeBytes();
+        for (int offset = 0; offset < end; offset += stride) {
+            // deleted samples keep their marker
+            if (perSample && (vertices.getShort(offset + 6) & 0xFFFF) == DELETED_QUANTIZED)
+                continue;
+            for (int axis = 0; axis < Quantization.AXES; axis++) {
+                float value = old.dequantize(axis, vertices.getShort(offset + 2 * axis));
+                vertices.putShort(offset + 2 * axis, quantization.quantize(axis, value));
+            }
+        }
+        invalidate(0, end);
+    }
+
+    /**
+     * Takes the range of the color values of the first samples written, for continuous colors.
+     */
+    private void ensureColorRange(PointTable table, int from, int to) {
+        if (!continuousColors || hasColorRange)
+            return;
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            if (table.isDeleted(i))
+                continue;
+            float value = table.getColor(i);
+            // NaN is neither smaller nor larger
+            if (value < min)
+                min = value;
+            if (value > max)
+                max = value;
+        }
+        if (min > max)
+            return;
+        colorMin = min;
+        // a single value still needs a range
+        colorMax = max > min ? max : min + 1f;
+        hasColorRange = true;
+    }
+
+    /**
+     * @return the color level of the sample: its color index, or its color value scaled to
+     * 0..{@link ColorMap#LEVELS} for continuous colors.
+     */
+    private float getColorLevel(PointTable table, int i) {
+        if (!continuousColors)
+            return Math.max(table.getColorIndex(i), 0);
+        float t = (table.getColor(i) - colorMin) / (colorMax - colorMin);
+        // NaN ends up at 0
+        return Math.round(Math.max(0f, Math.min(1f, t)) * ColorMap.LEVELS);
+    }
+
+    /**
+     * Writes the cubes of the samples from (inclusive) to to (exclusive) of the table,
+     * the first one to the given cube, and marks them as changed.
+     */
+    private void write(PointTable table, int from, int to, int firstCube) {
+        writeRange(table, from, to, firstCube);
+        invalidateCubes(firstCube, to - from);
+    }
+
+    /**
+     * Writes the cubes like {@link #write}, but touches nothing but their bytes, so that
+     * disjoint ranges may be written concurrently. Deleted samples get a cube of size 0,
+     * which is not drawn.
+     */
+    private void writeRange(PointTable table, int from, int to, int firstCube) {
+        if (perSample) {
+            writeRecords(table, from, to, firstCube);
+            return;
+        }
+        float[] CUBE_COORDS = WorldLayoutData.CUBE_COORDS;
+        int vertexBytes = getVertexBytes();
+        int positionBytes = vertexBytes - 8;
+
+        for (int i = from; i < to; i++) {
+            float x = table.getX(i);
+            float y = table.getY(i);
+            float z = table.getZ(i);
+            float level = getColorLevel(table, i);
+            float scale = table.isDeleted(i) ? 0f : SCALE_CUBE;
+            int offset = getSlot(firstCube + i - from) * CUBE_VERTICES * vertexBytes;
+
+            for (int v = 0; v < CUBE_COORDS.length; v += 3, offset += vertexBytes) {
+                if (quantization != null) {
+                    vertices.putShort(offset, quantization.quantize(0, scale * CUBE_COORDS[v] + x));
+                    vertices.putShort(offset + 2, quantization.quantize(1, scale * CUBE_COORDS[v + 1] + y));
+                    vertices.putShort(offset + 4, quantization.quantize(2, scale * CUBE_COORDS[v + 2] + z));
+                } else {
+                    vertices.putFloat(offset, scale * CUBE_COORDS[v] + x);
+                    vertices.putFloat(offset + 4, scale * CUBE_COORDS[v + 1] + y);
+                    vertices.putFloat(offset + 8, scale * CUBE_COORDS[v + 2] + z);
+                }
+                int normal = offset + positionBytes;
+                vertices.put(normal, CUBE_NORMAL_BYTES[v]);
+                vertices.put(normal + 1, CUBE_NORMAL_BYTES[v + 1]);
+                vertices.put(normal + 2, CUBE_NORMAL_BYTES[v + 2]);
+                vertices.putFloat(normal + 4, level);
+            }
+        }
+    }
+
+    /**
+     * Writes position and color index of the samples, like {@link #writeRange}.
+     */
+    private void writeRecords(PointTable table, int from, int to, int firstCube) {
+        int cubeBytes = getCubeBytes();
+        for (int i = from; i < to; i++) {
+            int offset = getSlot(firstCube + i - from) * cubeBytes;
+            float level = getColorLevel(table, i);
+            if (quantization != null) {
+                vertices.putShort(offset, quantization.quantize(0, table.getX(i)));
+                vertices.putShort(offset + 2, quantization.quantize(1, table.getY(i)));
+                vertices.putShort(offset + 4, quantization.quantize(2, table.getZ(i)));
+                vertices.putShort(offset + 6, (short) (table.isDeleted(i) ? DELETED_QUANTIZED
+                        : (int) Math.min(level, DELETED_QUANTIZED - 1)));
+            } else {
+                vertices.putFloat(offset, table.getX(i));
+                vertices.putFloat(offset + 4, table.getY(i));
+                vertices.putFloat(offset + 8, table.getZ(i));
+                vertices.putFloat(offset + 12, table.isDeleted(i) ? DELETED_FLOAT : level);
+            }
+        }
+    }
+
+    /**
+     * @return where the cube of the sample is, in the order of the octree if any.
+     */
+    private int getSlot(int sample) {
+        return octree == null ? sample : octree.getSlot(sample);
+    }
+
+    /**
+     * Marks the cubes of the given samples as changed.
+     */
+    private void invalidateCubes(int firstCube, int cubes) {
+        int from = firstCube;
+        int to = firstCube + cubes;
+        if (octree != null && firstCube < octree.size()) {
+            // scattered all over the octree
+            from = Integer.MAX_VALUE;
+            to = 0;
+            for (int i = firstCube; i < firstCube + cubes; i++) {
+                int slot = octree.getSlot(i);
+                from = Math.min(from, slot);
+                to = Math.max(to, slot + 1);
+            }
+        }
+        int cubeBytes = getCubeBytes();
+        invalidate(from * cubeBytes, to * cubeBytes);
+    }
+
+    private void invalidate(int from, int to) {
+        dirtyFrom = Math.min(dirtyFrom, from);
+        dirtyTo = Math.max(dirtyTo, to);
+    }
+
+    /**
+     * @return the most cubes whose vertices fit into one buffer, e.g. 3.7 million as triangles
+     * with quantized positions.
+     */
+    int getMaxCubes() {
+        return Integer.MAX_VALUE / getCubeBytes();
+    }
+
+    /**
+     * Makes room for the given number of cubes, keeping the cubes already there.
+     * Growing stops at {@link #getMaxCubes()}.
+     *
+     * @param exact whether we know the final size, otherwise we leave room to grow.
+     * @throws IllegalArgumentException if the cubes do not fit into one buffer.
+     */
+    void ensureCapacity(int cubes, boolean exact) {
+        int cubeBytes = getCubeBytes();
+        int maxCubes = getMaxCubes();
+        if (cubes > maxCubes)
+            throw new IllegalArgumentException("Too many cubes for a buffer: " + cubes + " of "
+                    + cubeBytes + " bytes, at most " + maxCubes);
+        int capacity = vertices == null ? 0 : vertices.capacity() / cubeBytes;
+        if (capacity >= cubes && !(exact && capacity > 2L * cubes))
+            return;
+        int newCapacity = exact ? cubes : (int) Math.min(Math.max(cubes, 2L * capacity), maxCubes);
+        ByteBuffer buffer = BufferPool.getDefault().acquire(newCapacity * cubeBytes);
+        if (vertices != null && count > 0) {
+            vertices.position(0).limit(count * cubeBytes);
+            buffer.put(vertices);
+            buffer.position(0);
+        }
+        if (pooled)
+            BufferPool.getDefault().release(vertices);
+        vertices = buffer;
+        pooled = true;
+    }
+
+    /**
+     * Gives the vertices back to the {@link BufferPool}; the geometry is empty afterwards.
+     * Call once it is neither drawn nor uploaded any more.
+     */
+    void release() {
+        if (pooled)
+            BufferPool.getDefault().release(vertices);
+        vertices = null;
+        count = 0;
+    }
+
+    /**
+     * @return whether the color levels are scaled color values, see {@link #getColorRange()}.
+     */
+    boolean isContinuousColors() {
+        return continuousColors;
+    }
+
+    /**
+     * @return the color values scaled to 0..{@link ColorMap#LEVELS}, as min and max,
+     * or null for color indices.
+     */
+    float[] getColorRange() {
+        return continuousColors ? new float[]{colorMin, colorMax} : null;
+    }
+
+    /**
+     * @return the rebuild of the renderer this geometry belongs to.
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return whether there is one record per sample instead of 36 vertices.
+     */
+    boolean isPerSample() {
+        return perSample;
+    }
+
+    /**
+     * @return whether the positions are 16 bit integers in the box of {@link #getQuantization()}.
+     */
+    boolean isQuantized() {
+        return quantize;
+    }
+
+    /**
+     * @return whether the positions span a box too large to quantize them with an error of at
+     * most {@link #MAX_QUANTIZATION_ERROR}: either they are not quantized although asked to,
+     * or they were, but the box grew since. Such a quantized geometry should be built anew.
+     */
+    boolean isTooCoarse() {
+        return tooCoarse;
+    }
+
+    /**
+     * @return the bytes per cube: 36 vertices, or one record with its color index.
+     */
+    int getCubeBytes() {
+        if (perSample)
+            return quantize ? 4 * 2 : 4 * 4;
+        return CUBE_VERTICES * getVertexBytes();
+    }
+
+    /**
+     * @return the bytes per vertex of the 36 vertices of a cube, the stride of their attributes.
+     */
+    int getVertexBytes() {
+        return quantize ? QUANTIZED_VERTEX_BYTES : VERTEX_BYTES;
+    }
+
+    /**
+     * @return the vertices, null if there are none yet.
+     */
+    ByteBuffer getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return the number of cubes.
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the box of the quantized positions, null if they are float32.
+     */
+    Quantization getQuantization() {
+        return quantization;
+    }
+
+    /**
+     * @return the index the cubes are ordered by, null if there is none.
+     */
+    Octree getOctree() {
+        return octree;
+    }
+
+    /**
+     * @return whether the positions were quantized again since the last call.
+     */
+    boolean takeRequantized() {
+        boolean result = requantized;
+        requantized = false;
+        return result;
+    }
+
+    /**
+     * @return the first changed byte since {@link #clearDirty()}.
+     */
+    int getDirtyFrom() {
+        return dirtyFrom;
+    }
+
+    /**
+     * @return the byte after the last changed one since {@link #clearDirty()}.
+     */
+    int getDirtyTo() {
+        return dirtyTo;
+    }
+
+    boolean isDirty() {
+        return dirtyFrom < dirtyTo;
+    }
+
+    void clearDirty() {
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = 0;
+    }
+}
@@ -4,7 +4,9 @@ import android.util.JsonReader;
 import android.util.Log;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,15 +14,47 @@ import java.util.List;
  * Created by pht on 08.11.15.
  */
 public class Data {
+    private static final String TAG = "Data";
 
-    private float[][] theData = null;
+    private PointTable table = null;
     private double speed;
+    // hash of the downloaded content, to recognize unchanged data; null once deltas changed
+    // the samples, set on the GL thread and read by the next download
+    private volatile String contentHash = null;
+
+    /**
+     * Gets the samples in chunks while they are still being read.
+     */
+    public interface ChunkListener {
+        /**
+         * @param data the data being read.
+         * @param chunk the next samples, a view on the arrays of the table being read; do not
+         *              keep it once its samples are taken over.
+         * @param offset the index of the first sample of the chunk in the data.
+         */
+        void onChunk(Data data, PointTable chunk, int offset);
+    }
 
     public Data() {
 
     }
 
     public Data readJson(Reader in) throws IOException {
+        return new JsonDataScanner(in).read(this);
+    }
+
+    public Data readJson(Reader in, ChunkListener listener, int chunkSize) throws IOException {
+        JsonDataScanner scanner = new JsonDataScanner(in);
+        scanner.setChunkListener(listener, chunkSize);
+        return scanner.read(this);
+    }
+
+    /**
+     * The former parser using {@link JsonReader}, kept to benchmark the {@link JsonDataScanner} against.
+     * The loop is the one of the first version, with an array per sample in a list; only
+     * turning the list into a table afterwards is new.
+     */
+    Data readJsonWithJsonReader(Reader in) throws IOException {
         JsonReader reader = new JsonReader(in);
         reader.beginObject();
         while (reader.hasNext()) {
@@ -39,8 +73,8 @@ public class Data {
                     dataList.add(sample);
                 }
                 reader.endArray();
-                setTheData(dataList.toArray(new float[0][4]));
-                Log.i(PlotVRActivity.TAG, dataList.toString());
+                setTable(toTable(dataList));
+                Log.i(TAG, dataList.toString());
             } else if (name.equals("speed")) {
                 setSpeed(reader.nextDouble());
             } else
@@ -50,12 +84,38 @@ public class Data {
         return this;
     }
 
-    public float[][] getTheData() {
-        return theData;
+    private static PointTable toTable(List<float[]> samples) {
+        PointTable.Builder builder = new PointTable.Builder(samples.size());
+        for (float[] sample : samples)
+            builder.add(sample[0], sample[1], sample[2], sample[3]);
+        return builder.build();
+    }
+
+    public Data readColumns(InputStream in) throws IOException {
+        return ColumnarFormat.read(in, this);
+    }
+
+    public Data readColumns(ByteBuffer bytes) throws IOException {
+        return ColumnarFormat.read(bytes, this);
     }
 
-    public void setTheData(float[][] theData) {
-        this.theData = theData;
+    /**
+     * @param length the number of bytes in the stream, or -1 if not known.
+     */
+    public Data readColumns(InputStream in, long length) throws IOException {
+        return ColumnarFormat.read(in, this, length);
+    }
+
+    public PointTable getTable() {
+        return table;
+    }
+
+    public void setTable(PointTable table) {
+        this.table = table;
+    }
+
+    public int getSampleCount() {
+        return table == null ? 0 : table.size();
     }
 
     public double getSpeed() {
@@ -66,8 +126,16 @@ public class Data {
         this.speed = speed;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     @Override
     public String toString() {
-        return "{ Data: "+((theData==null)?"null":"samples: "+theData.length)+", speed="+speed + " }";
+        return "{ Data: "+((table==null)?"null":"samples: "+table.size())+", speed="+speed + " }";
     }
 }
@@ -0,0 +1,210 @@
+package io.github.thomann.plotvr;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Keeps downloaded data on disk in the binary column format, keyed by URL.
+ * <p/>
+ * <p>Next to the columns we store the ETag and Last-Modified headers of the response, so that
+ * a conditional GET can tell whether the cached data is still fresh, and the hash of the content,
+ * so that the renderer can recognize unchanged data.
+ * The least recently used entries are deleted once the cache grows beyond its size budget.
+ */
+public class DataCache {
+    private static final String TAG = "DataCache";
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final String DATA_SUFFIX = ".cols";
+    private static final String META_SUFFIX = ".meta";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File dir;
+    private final long maxBytes;
+
+    /**
+     * A cached dataset, as described by its meta data.
+     */
+    public static class Entry {
+        private final File file;
+        private final String etag;
+        private final String lastModified;
+        private final String contentHash;
+
+        Entry(File file, String etag, String lastModified, String contentHash) {
+            this.file = file;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+    }
+
+    public DataCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the entry for the url, or null if there is none.
+     */
+    public synchronized Entry get(String url) {
+        String key = key(url);
+        File file = new File(dir, key + DATA_SUFFIX);
+        File meta = new File(dir, key + META_SUFFIX);
+        if (!file.isFile() || !meta.isFile())
+            return null;
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(meta);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read " + meta, e);
+            return null;
+        }
+        if (!url.equals(properties.getProperty("url")))
+            return null;
+        return new Entry(file, properties.getProperty("etag"), properties.getProperty("lastModified"),
+                properties.getProperty("contentHash"));
+    }
+
+    /**
+     * Reads the cached data and marks the entry as recently used.
+     */
+    public synchronized Data load(Entry entry) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(entry.file), 64 * 1024);
+        try {
+            Data data = new Data().readColumns(in, entry.file.length());
+            data.setContentHash(entry.getContentHash());
+            if (!entry.file.setLastModified(System.currentTimeMillis()))
+                Log.w(TAG, "Cannot touch " + entry.file);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Stores data downloaded from the url, replacing any former entry.
+     * Data without validators is not stored, since we could never tell whether it is still fresh.
+     * <p/>
+     * <p>The meta data of the former entry is deleted before its columns are replaced, and the new
+     * meta data is renamed into place last, so that whatever happens in between, the validators
+     * never sit next to columns they do not describe.
+     * <p/>
+     * <p>Data with a content hash may change meanwhile, e.g. by deltas on the GL thread: since
+     * they clear the hash before they change the samples, data whose hash is gone once the
+     * columns are written is not stored.
+     */
+    public synchronized void put(String url, Data data, String etag, String lastModified) {
+        if (etag == null && lastModified == null)
+            return;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Cannot create " + dir);
+            return;
+        }
+        String key = key(url);
+        File file = new File(dir, key + DATA_SUFFIX);
+        File meta = new File(dir, key + META_SUFFIX);
+        File tmp = new File(dir, key + DATA_SUFFIX + ".tmp");
+        File metaTmp = new File(dir, key + META_SUFFIX + ".tmp");
+        String contentHash = data.getContentHash();
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024);
+            try {
+                ColumnarFormat.write(data, out);
+            } finally {
+                out.close();
+            }
+            if (contentHash != null && !contentHash.equals(data.getContentHash()))
+                throw new IOException("Changed while writing");
+            Properties properties = new Properties();
+            properties.setProperty("url", url);
+            if (etag != null)
+                properties.setProperty("etag", etag);
+            if (lastModified != null)
+                properties.setProperty("lastModified", lastModified);
+            if (contentHash != null)
+                properties.setProperty("contentHash", contentHash);
+            out = new FileOutputStream(metaTmp);
+            try {
+                properties.store(out, null);
+            } finally {
+                out.close();
+            }
+            if (meta.exists() && !meta.delete())
+                throw new IOException("Cannot delete " + meta);
+            if (!tmp.renameTo(file))
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            if (!metaTmp.renameTo(meta))
+                throw new IOException("Cannot rename " + metaTmp + " to " + meta);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot cache " + url, e);
+            tmp.delete();
+            metaTmp.delete();
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits into its budget.
+     */
+    synchronized void evict() {
+        CacheFiles.evict(dir, maxBytes, TAG, DATA_SUFFIX, META_SUFFIX);
+    }
+
+    static String key(String url) {
+        MessageDigest digest = newDigest();
+        return toHex(digest.digest(url.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    /**
+     * @return a new digest for content hashes.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-1", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
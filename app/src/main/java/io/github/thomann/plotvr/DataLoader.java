@@ -0,0 +1,249 @@
+package io.github.thomann.plotvr;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Fetches data over HTTP: negotiates format and compression, revalidates the {@link DataCache}
+ * and parses the response while it streams in.
+ * <p/>
+ * <p>Compressed responses are inflated on the fly between the socket and the parser,
+ * so inflating overlaps with the download instead of waiting for it.
+ */
+public class DataLoader {
+    private static final String TAG = "DataLoader";
+
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final DataCache cache;
+    // what is shown right now, reused if the server reports it unchanged
+    private final Data currentData;
+    private boolean compression = true;
+    private ParallelParser parser = null;
+    // the last download and its validators, to be cached by putInCache()
+    private String loadedUrl;
+    private Data loaded;
+    private String loadedHash;
+    private String loadedEtag;
+    private String loadedLastModified;
+
+    /**
+     * @param cache the cache to use, may be null.
+     * @param currentData the data shown right now, may be null.
+     */
+    public DataLoader(DataCache cache, Data currentData) {
+        this.cache = cache;
+        this.currentData = currentData;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public ParallelParser getParser() {
+        return parser;
+    }
+
+    /**
+     * @param parser if not null, the whole response is read into memory first and then parsed on
+     *               its threads; there are no chunks while loading then, and the body is held
+     *               until parsed.
+     */
+    public void setParser(ParallelParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Loads the data from the url. Downloaded data is not cached yet, see {@link #putInCache()}.
+     *
+     * @param listener gets the samples in chunks while they are read, may be null.
+     */
+    public Data load(String urlString, Data.ChunkListener listener, int chunkSize) throws IOException {
+        InputStream stream = null;
+        loaded = null;
+        try {
+            Log.i(TAG, "Loading " + urlString);
+            DataCache.Entry cached = cache == null ? null : cache.get(urlString);
+            HttpURLConnection conn = openConnection(urlString, cached);
+            if (cached != null && conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                conn.disconnect();
+                Data data = loadFromCache(cached);
+                if (data != null)
+                    return data;
+                conn = openConnection(urlString, null);
+            }
+            // hash what we parse, so the hash does not depend on the compression
+            MessageDigest digest = DataCache.newDigest();
+            stream = new DigestInputStream(decode(conn.getInputStream(), conn.getContentEncoding()), digest);
+            Data data = new Data();
+            if (parser != null) {
+                Body body = new Body(conn.getContentLength(), conn.getContentEncoding() != null
+                        && !ColumnarFormat.isColumnar(conn.getContentType()));
+                body.readFrom(stream);
+                data = parser.parse(body.bytes(), body.size(), conn.getContentType());
+            } else if (ColumnarFormat.isColumnar(conn.getContentType())) {
+                Log.i(TAG, "Reading binary columns");
+                data.readColumns(stream, conn.getContentEncoding() == null ? conn.getContentLength() : -1);
+            } else if (listener != null) {
+                data.readJson(new InputStreamReader(stream, UTF8), listener, chunkSize);
+            } else {
+                data.readJson(new InputStreamReader(stream, UTF8));
+            }
+            data.setContentHash(DataCache.toHex(digest.digest()));
+            loadedUrl = urlString;
+            loaded = data;
+            loadedHash = data.getContentHash();
+            loadedEtag = conn.getHeaderField("ETag");
+            loadedLastModified = conn.getHeaderField("Last-Modified");
+            return data;
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the data of the last load to the cache, unless it came from the cache or deltas
+     * changed it since. Separate from {@link #load}, so that the data can be shown before it
+     * is written; may run on any thread, also while deltas change the data.
+     */
+    public void putInCache() {
+        Data data = loaded;
+        loaded = null;
+        if (cache == null || data == null)
+            return;
+        if (!loadedHash.equals(data.getContentHash())) {
+            Log.i(TAG, "Not caching " + loadedUrl + ", changed since");
+            return;
+        }
+        cache.put(loadedUrl, data, loadedEtag, loadedLastModified);
+    }
+
+    /**
+     * @return the cached data, the current data if it is the same, or null if the cache fails.
+     */
+    private Data loadFromCache(DataCache.Entry cached) {
+        String hash = cached.getContentHash();
+        if (hash != null && currentData != null && hash.equals(currentData.getContentHash())) {
+            Log.i(TAG, "Not modified, keeping current data");
+            return currentData;
+        }
+        try {
+            Log.i(TAG, "Not modified, loading from cache");
+            return cache.load(cached);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot load from cache", e);
+            return null;
+        }
+    }
+
+    /**
+     * Given a string representation of a URL, sets up a connection and starts the query.
+     * We prefer the binary column format, but servers only knowing json are fine.
+     * @param urlString A string representation of a URL.
+     * @param cached The cache entry to revalidate, may be null.
+     * @return The connected HttpURLConnection.
+     * @throws java.io.IOException
+     */
+    private HttpURLConnection openConnection(String urlString, DataCache.Entry cached) throws IOException {
+        URL url = new URL(urlString);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setReadTimeout(10000 /* milliseconds */);
+        conn.setConnectTimeout(15000 /* milliseconds */);
+        conn.setRequestMethod("GET");
+        conn.setRequestProperty("Accept", ColumnarFormat.MIME_TYPE + ", application/json;q=0.9");
+        // setting this ourselves turns off the transparent gzip of HttpURLConnection,
+        // from now on decode() is in charge
+        conn.setRequestProperty("Accept-Encoding", compression ? ACCEPT_ENCODING : "identity");
+        if (cached != null && cached.getEtag() != null)
+            conn.setRequestProperty("If-None-Match", cached.getEtag());
+        if (cached != null && cached.getLastModified() != null)
+            conn.setRequestProperty("If-Modified-Since", cached.getLastModified());
+        conn.setDoInput(true);
+        // Start the query
+        conn.connect();
+        return conn;
+    }
+
+    /**
+     * The whole response body in memory. A body of the expected length is read without
+     * copying it, only a longer one grows the array.
+     */
+    private static class Body extends ByteArrayOutputStream {
+        // json inflates to about this many times its compressed length
+        private static final int JSON_COMPRESSION = 3;
+
+        /**
+         * @param contentLength the Content-Length, or -1 if not known.
+         * @param compressedJson whether the Content-Length is the one of compressed json.
+         */
+        Body(int contentLength, boolean compressedJson) {
+            super(contentLength <= 0 ? 64 * 1024
+                    : compressedJson ? (int) Math.min(Integer.MAX_VALUE - 8, (long) JSON_COMPRESSION * contentLength)
+                    : contentLength);
+        }
+
+        void readFrom(InputStream in) throws IOException {
+            while (true) {
+                if (count == buf.length) {
+                    // only grow if the body does not end right here
+                    int b = in.read();
+                    if (b < 0)
+                        return;
+                    buf = Arrays.copyOf(buf, buf.length + (buf.length >> 1));
+                    buf[count++] = (byte) b;
+                }
+                int n = in.read(buf, count, buf.length - count);
+                if (n < 0)
+                    return;
+                count += n;
+            }
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    /**
+     * Wraps the response body into a stream inflating it according to its Content-Encoding.
+     */
+    static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if (contentEncoding == null || contentEncoding.equalsIgnoreCase("identity"))
+            return body;
+        if (contentEncoding.equalsIgnoreCase("gzip") || contentEncoding.equalsIgnoreCase("x-gzip"))
+            return new GZIPInputStream(body, 64 * 1024);
+        if (contentEncoding.equalsIgnoreCase("deflate")) {
+            // HTTP says zlib wrapped, but some servers send raw deflate; the zlib header tells
+            BufferedInputStream in = new BufferedInputStream(body, 64 * 1024);
+            in.mark(2);
+            int cmf = in.read();
+            int flg = in.read();
+            in.reset();
+            boolean zlib = (cmf & 0x0F) == 8 && flg >= 0 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(in, new Inflater(!zlib), 64 * 1024);
+        }
+        throw new IOException("Unsupported Content-Encoding " + contentEncoding);
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.thomann.plotvr;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.FloatBuffer;
+
+/**
+ * A change of some samples, sent instead of reloading all of the data.
+ * <p/>
+ * <p>Deltas come as json objects over the WebSocket:
+ * <pre>
+ *   {"op": "append", "data": [[x,y,z,c],...]}
+ *   {"op": "update", "from": 17, "data": [[x,y,z,c],...]}
+ *   {"op": "delete", "from": 17, "count": 3}
+ *   {"op": "recolor", "from": 17, "colors": [c,...]}
+ *   {"op": "recolor", "from": 17, "count": 3, "color": c}
+ * </pre>
+ * Indices refer to the samples as loaded; deleting keeps the indices of all other samples.
+ */
+public class Delta {
+
+    public static final int APPEND = 1;
+    public static final int UPDATE = 2;
+    public static final int DELETE = 3;
+    public static final int RECOLOR = 4;
+
+    int op;
+    int from;
+    int count = -1;
+    PointTable samples;
+    float color;
+    FloatBuffer colors;
+
+    /**
+     * @param op one of {@link #APPEND}, {@link #UPDATE}, {@link #DELETE} and {@link #RECOLOR}.
+     */
+    public Delta(int op) {
+        this.op = op;
+    }
+
+    public static boolean isDelta(String message) {
+        return message.startsWith("{");
+    }
+
+    public static Delta parse(String message) throws IOException {
+        Delta delta = new JsonDataScanner(new StringReader(message), Math.max(16, message.length())).readDelta();
+        delta.validate();
+        return delta;
+    }
+
+    void validate() throws IOException {
+        switch (op) {
+            case APPEND:
+            case UPDATE:
+                if (samples == null)
+                    throw new IOException("Delta without data");
+                count = samples.size();
+                break;
+            case DELETE:
+                if (count < 0)
+                    throw new IOException("Delete without count");
+                break;
+            case RECOLOR:
+                if (colors != null)
+                    count = colors.limit();
+                else if (count < 0)
+                    throw new IOException("Recolor without colors or count");
+                break;
+            default:
+                throw new IOException("Unknown delta op " + op);
+        }
+    }
+
+    public int getOp() {
+        return op;
+    }
+
+    /**
+     * @return the index of the first changed sample, once applied.
+     */
+    public int getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the number of changed samples.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Changes the table in place.
+     *
+     * @return the changed table; for appends to an empty data this is a new one.
+     */
+    public PointTable applyTo(PointTable table) {
+        if (op == APPEND) {
+            if (table == null) {
+                from = 0;
+                return samples;
+            }
+            from = table.size();
+            table.append(samples);
+            return table;
+        }
+        int size = table == null ? 0 : table.size();
+        if (from < 0 || count < 0 || from + count > size)
+            throw new IndexOutOfBoundsException("Delta on " + from + ".." + (from + count) + " of " + size + " samples");
+        for (int i = 0; i < count; i++) {
+            switch (op) {
+                case UPDATE:
+                    table.set(from + i, samples.getX(i), samples.getY(i), samples.getZ(i), samples.getColor(i));
+                    break;
+                case RECOLOR:
+                    table.setColor(from + i, colors != null ? colors.get(i) : color);
+                    break;
+            }
+        }
+        if (op == DELETE && count > 0)
+            table.delete(from, from + count);
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return "{ Delta: op=" + op + ", from=" + from + ", count=" + count + " }";
+    }
+}
@@ -4,21 +4,23 @@ import android.os.AsyncTask;
 import android.util.Log;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 
 /**
  * Created by pht on 08.11.15.
  */
-public class DownloadTask extends AsyncTask<String, Void, Data> {
+public class DownloadTask extends AsyncTask<String, DownloadTask.Chunk, Data> {
     public static final String TAG = DownloadTask.class.getSimpleName();
 
+    /** Samples are handed to the renderer in chunks of this size while still loading. */
+    public static final int CHUNK_SAMPLES = 64 * 1024;
+
     private PlotVRActivity plotVRActivity;
+    private DataLoader loader;
 
     public DownloadTask(PlotVRActivity dataVRActivity) {
         this.plotVRActivity = dataVRActivity;
+        this.loader = new DataLoader(dataVRActivity.getDataCache(), dataVRActivity.getData());
+        loader.setParser(dataVRActivity.getParallelParser());
     }
 
     @Override
@@ -46,6 +48,15 @@ public class DownloadTask extends AsyncTask<String, Void, Data> {
      * @see #publishProgress
      */
 
+    @Override
+    protected void onProgressUpdate(Chunk... chunks) {
+        for (int i = 0; i < chunks.length; i++) {
+            plotVRActivity.appendData(chunks[i].data, chunks[i].table, chunks[i].offset);
+            // the renderer holds the samples until they are appended, see Renderer.appendData
+            chunks[i] = null;
+        }
+    }
+
     /**
      * Uses the logging framework to display the output of the fetch
      * operation in the log fragment.
@@ -54,6 +65,13 @@ public class DownloadTask extends AsyncTask<String, Void, Data> {
     protected void onPostExecute(Data result) {
         Log.i(PlotVRActivity.TAG, "Loaded json");
         plotVRActivity.setData(result);
+        // shown first, written to the cache afterwards
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                loader.putInCache();
+            }
+        });
 //            try {
 //                Log.i(TAG, "Loading "+result);
 //                if(result != null)
@@ -66,43 +84,26 @@ public class DownloadTask extends AsyncTask<String, Void, Data> {
 
     /** Initiates the fetch operation. */
     private Data loadFromNetwork(String urlString) throws IOException {
-        InputStream stream = null;
-        String str ="";
-
-        try {
-            Log.i(TAG,"Loading "+urlString);
-            stream = downloadUrl(urlString);
-            //str = readIt(stream, 100000);
-            return new Data().readJson(new InputStreamReader(stream));
-        } finally {
-            if (stream != null) {
-                stream.close();
+        return loader.load(urlString, new Data.ChunkListener() {
+            @Override
+            public void onChunk(Data data, PointTable chunk, int offset) {
+                publishProgress(new Chunk(data, chunk, offset));
             }
-        }
+        }, CHUNK_SAMPLES);
     }
 
     /**
-     * Given a string representation of a URL, sets up a connection and gets
-     * an input stream.
-     * @param urlString A string representation of a URL.
-     * @return An InputStream retrieved from a successful HttpURLConnection.
-     * @throws java.io.IOException
+     * Samples published while the download is running.
      */
-    private static InputStream downloadUrl(String urlString) throws IOException {
-        // BEGIN_INCLUDE(get_inputstream)
-        URL url = new URL(urlString);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setReadTimeout(10000 /* milliseconds */);
-        conn.setConnectTimeout(15000 /* milliseconds */);
-        conn.setRequestMethod("GET");
-        conn.setDoInput(true);
-        // Start the query
-        conn.connect();
-        InputStream stream = conn.getInputStream();
-        return stream;
-        // END_INCLUDE(get_inputstream)
-    }
-
-
+    static class Chunk {
+        final Data data;
+        final PointTable table;
+        final int offset;
 
+        Chunk(Data data, PointTable table, int offset) {
+            this.data = data;
+            this.table = table;
+            this.offset = offset;
+        }
+    }
 }
@@ -0,0 +1,97 @@
+package io.github.thomann.plotvr;
+
+import android.util.Log;
+
+/**
+ * Measures the CPU time the renderer spends per frame, summed over the sections between
+ * {@link #begin()} and {@link #end()}, and logs average and maximum every some frames.
+ * Time spent in GVR itself, e.g. for distortion, and on the GPU is not included.
+ * <p/>
+ * <p>Building the log line allocates, which the frame loop otherwise does not, so it is only
+ * logged after {@code adb shell setprop log.tag.FrameTimer DEBUG}.
+ * <p/>
+ * <p>The log line names the mode it was measured in, so that runs before and after a change
+ * can be told apart in the log.
+ */
+class FrameTimer {
+    private static final String TAG = "FrameTimer";
+
+    private final int framesPerReport;
+    private String mode = "";
+
+    private long sectionStart = -1;
+    private long frameNanos = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+    private int frames = 0;
+
+    /**
+     * @param framesPerReport the number of frames over which to average before logging.
+     */
+    FrameTimer(int framesPerReport) {
+        this.framesPerReport = framesPerReport;
+    }
+
+    /**
+     * Names what is measured from now on; starts a new report.
+     */
+    void setMode(String mode) {
+        if (mode.equals(this.mode))
+            return;
+        this.mode = mode;
+        reset();
+    }
+
+    void begin() {
+        sectionStart = System.nanoTime();
+    }
+
+    void end() {
+        if (sectionStart < 0)
+            return;
+        add(System.nanoTime() - sectionStart);
+        sectionStart = -1;
+    }
+
+    void add(long nanos) {
+        frameNanos += nanos;
+    }
+
+    /**
+     * Ends the frame, and logs once enough frames were measured.
+     *
+     * @return whether a report was complete, logged or not.
+     */
+    boolean endFrame() {
+        totalNanos += frameNanos;
+        maxNanos = Math.max(maxNanos, frameNanos);
+        frameNanos = 0;
+        frames++;
+        if (frames < framesPerReport)
+            return false;
+        if (Log.isLoggable(TAG, Log.DEBUG))
+            Log.d(TAG, toString());
+        reset();
+        return true;
+    }
+
+    private void reset() {
+        totalNanos = 0;
+        maxNanos = 0;
+        frames = 0;
+    }
+
+    float getAverageMillis() {
+        return frames == 0 ? 0f : totalNanos / 1e6f / frames;
+    }
+
+    float getMaxMillis() {
+        return maxNanos / 1e6f;
+    }
+
+    @Override
+    public String toString() {
+        return "{ FrameTimer: " + mode + ", frames=" + frames + ", avg=" + getAverageMillis()
+                + " ms, max=" + getMaxMillis() + " ms }";
+    }
+}
@@ -0,0 +1,206 @@
+package io.github.thomann.plotvr;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps built geometry on disk, ready to be uploaded, so that reopening a large dataset
+ * needs no rebuild. Keyed by the content hash of the data, the layout of the geometry
+ * and the version of the file format.
+ * <p/>
+ * <p>A file is a header, the {@link Octree} if any and the vertices, all in native byte order.
+ * Reading maps the file privately: the vertices are paged in while they are uploaded, never
+ * copied to the heap, and deltas written to them later do not reach the file.
+ * The least recently used files are deleted once the cache grows beyond its size budget.
+ */
+public class GeometryCache {
+    private static final String TAG = "GeometryCache";
+
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+    // change whenever the layout of the file or of the vertices changes
+    static final int FORMAT_VERSION = 2;
+
+    private static final int MAGIC = 0x50565247; // PVRG
+    private static final int HEADER_BYTES = 64;
+    private static final int FLAG_PER_SAMPLE = 1;
+    private static final int FLAG_QUANTIZED = 2;
+    private static final int FLAG_CONTINUOUS_COLORS = 4;
+    private static final String SUFFIX = ".geom";
+
+    private final File dir;
+    private final long maxBytes;
+
+    public GeometryCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    static String key(String contentHash, boolean perSample, boolean quantize, boolean continuousColors) {
+        return contentHash + "-" + (perSample ? "s" : "c") + (quantize ? "q" : "f")
+                + (continuousColors ? "l" : "i") + "-v" + FORMAT_VERSION;
+    }
+
+    /**
+     * Maps the cached geometry of the data, and marks it as recently used.
+     *
+     * @param samples the number of samples the data has now.
+     * @return null if there is none, or it does not fit the data.
+     */
+    synchronized CubeGeometry get(String contentHash, int samples, int generation, boolean perSample,
+                                  boolean quantize, boolean continuousColors) {
+        File file = new File(dir, key(contentHash, perSample, quantize, continuousColors) + SUFFIX);
+        if (!file.isFile())
+            return null;
+        try {
+            CubeGeometry geometry = map(file, generation, perSample, quantize, continuousColors);
+            if (geometry.getCount() != samples)
+                throw new IOException(geometry.getCount() + " cubes for " + samples + " samples");
+            if (!file.setLastModified(System.currentTimeMillis()))
+                Log.w(TAG, "Cannot touch " + file);
+            return geometry;
+        } catch (IOException e) {
+            Log.w(TAG, "Deleting " + file + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    private static CubeGeometry map(File file, int generation, boolean perSample, boolean quantize,
+                                    boolean continuousColors) throws IOException {
+        // a private mapping needs a channel open for writing, though it never writes the file
+        RandomAccessFile in = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Too large to map: " + channel.size() + " bytes");
+            // private, since deltas write to the vertices
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size());
+            ByteBuffer bytes = mapping.order(ByteOrder.nativeOrder());
+            if (bytes.limit() < HEADER_BYTES || bytes.getInt(0) != MAGIC)
+                throw new IOException("Not a geometry file of this byte order");
+            if (bytes.getInt(4) != FORMAT_VERSION)
+                throw new IOException("Unknown version " + bytes.getInt(4));
+            int flags = bytes.getInt(8);
+            if (((flags & FLAG_PER_SAMPLE) != 0) != perSample || ((flags & FLAG_QUANTIZED) != 0) != quantize
+                    || ((flags & FLAG_CONTINUOUS_COLORS) != 0) != continuousColors)
+                throw new IOException("Other layout " + flags);
+            int vertexBytes = bytes.getInt(12);
+            int octreeBytes = bytes.getInt(16);
+            if (vertexBytes < 0 || octreeBytes < 0 || (long) HEADER_BYTES + octreeBytes + vertexBytes != bytes.limit())
+                throw new IOException("Truncated");
+            Quantization quantization = null;
+            if (quantize) {
+                float[] min = new float[Quantization.AXES];
+                float[] max = new float[Quantization.AXES];
+                for (int axis = 0; axis < Quantization.AXES; axis++) {
+                    min[axis] = bytes.getFloat(20 + 4 * axis);
+                    max[axis] = bytes.getFloat(32 + 4 * axis);
+                }
+                quantization = new Quantization(min, max);
+            }
+            float[] colorRange = null;
+            if (continuousColors)
+                colorRange = new float[]{bytes.getFloat(44), bytes.getFloat(48)};
+            Octree octree = null;
+            if (octreeBytes > 0) {
+                bytes.position(HEADER_BYTES);
+                octree = Octree.read(bytes);
+            }
+            bytes.position(HEADER_BYTES + octreeBytes);
+            ByteBuffer vertices = bytes.slice().order(ByteOrder.nativeOrder());
+            bytes.position(0);
+            return CubeGeometry.wrap(generation, perSample, vertices, quantization, colorRange, octree);
+        } finally {
+            // the mapping stays valid
+            in.close();
+        }
+    }
+
+    /**
+     * Stores the geometry of the data, replacing any former file. The geometry must not change
+     * meanwhile.
+     */
+    synchronized void put(String contentHash, CubeGeometry geometry) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Cannot create " + dir);
+            return;
+        }
+        String key = key(contentHash, geometry.isPerSample(), geometry.isQuantized(), geometry.isContinuousColors());
+        File file = new File(dir, key + SUFFIX);
+        File tmp = new File(dir, key + SUFFIX + ".tmp");
+        long start = System.nanoTime();
+        ByteBuffer scratch = BufferPool.getDefault().acquire(64 * 1024);
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                write(out.getChannel(), geometry, scratch);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file))
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot cache geometry of " + contentHash, e);
+            tmp.delete();
+            return;
+        } finally {
+            BufferPool.getDefault().release(scratch);
+        }
+        Log.i(TAG, "Cached " + file.length() + " bytes of geometry in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        evict();
+    }
+
+    private static void write(FileChannel channel, CubeGeometry geometry, ByteBuffer scratch) throws IOException {
+        Octree octree = geometry.getOctree();
+        // padded, so that the vertices are aligned for any of their values
+        long octreeBytes = octree == null ? 0 : (octree.getByteSize() + 7) & ~7L;
+        long vertexBytes = (long) geometry.getCount() * geometry.getCubeBytes();
+        if (HEADER_BYTES + octreeBytes + vertexBytes > Integer.MAX_VALUE)
+            throw new IOException("Too large to map: " + (HEADER_BYTES + octreeBytes + vertexBytes) + " bytes");
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+        header.putInt(MAGIC).putInt(FORMAT_VERSION)
+                .putInt((geometry.isPerSample() ? FLAG_PER_SAMPLE : 0) | (geometry.isQuantized() ? FLAG_QUANTIZED : 0)
+                        | (geometry.isContinuousColors() ? FLAG_CONTINUOUS_COLORS : 0))
+                .putInt((int) vertexBytes).putInt((int) octreeBytes);
+        Quantization quantization = geometry.getQuantization();
+        for (int axis = 0; axis < Quantization.AXES; axis++)
+            header.putFloat(quantization == null ? 0f : quantization.getOffset(axis));
+        for (int axis = 0; axis < Quantization.AXES; axis++)
+            header.putFloat(quantization == null ? 0f : quantization.getMax(axis));
+        float[] colorRange = geometry.getColorRange();
+        header.putFloat(colorRange == null ? 0f : colorRange[0]).putFloat(colorRange == null ? 0f : colorRange[1]);
+        header.position(0);
+        while (header.hasRemaining())
+            channel.write(header);
+        if (octree != null) {
+            octree.write(channel, scratch.order(ByteOrder.nativeOrder()));
+            ByteBuffer padding = ByteBuffer.allocate((int) (octreeBytes - octree.getByteSize()));
+            while (padding.hasRemaining())
+                channel.write(padding);
+        }
+        if (vertexBytes > 0) {
+            ByteBuffer vertices = geometry.getVertices().duplicate();
+            vertices.position(0).limit((int) vertexBytes);
+            while (vertices.hasRemaining())
+                channel.write(vertices);
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the cache fits into its budget.
+     */
+    synchronized void evict() {
+        CacheFiles.evict(dir, maxBytes, TAG, SUFFIX);
+    }
+}
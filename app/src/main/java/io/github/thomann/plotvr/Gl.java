@@ -0,0 +1,93 @@
+package io.github.thomann.plotvr;
+
+import java.nio.Buffer;
+
+/**
+ * The calls of OpenGL ES the renderer makes, so that it can draw without a GL context.
+ * <p/>
+ * <p>The methods are those of {@link android.opengl.GLES20} and {@link android.opengl.GLES30}
+ * with the same names and arguments, and the constants are theirs as well. {@link AndroidGl}
+ * passes them on to the GPU; {@link RecordingGl} only counts them, to run the renderer in local
+ * unit tests and to measure its CPU cost per frame. All methods must be called on the GL thread.
+ */
+interface Gl {
+
+    void glActiveTexture(int texture);
+
+    void glAttachShader(int program, int shader);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBindTexture(int target, int texture);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    void glClear(int mask);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glCompileShader(int shader);
+
+    int glCreateProgram();
+
+    int glCreateShader(int type);
+
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+
+    void glDeleteShader(int shader);
+
+    void glDrawArrays(int mode, int first, int count);
+
+    /**
+     * GLES 3 only.
+     */
+    void glDrawArraysInstanced(int mode, int first, int count, int instanceCount);
+
+    void glEnable(int cap);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glGenTextures(int n, int[] textures, int offset);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetError();
+
+    String glGetShaderInfoLog(int shader);
+
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+    String glGetString(int name);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glLinkProgram(int program);
+
+    void glShaderSource(int shader, String string);
+
+    void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                      int format, int type, Buffer pixels);
+
+    void glTexParameteri(int target, int pname, int param);
+
+    void glUniform1f(int location, float x);
+
+    void glUniform1i(int location, int x);
+
+    void glUniform3fv(int location, int count, float[] v, int offset);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    void glUseProgram(int program);
+
+    /**
+     * GLES 3 only.
+     */
+    void glVertexAttribDivisor(int index, int divisor);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+}
@@ -0,0 +1,487 @@
+package io.github.thomann.plotvr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.FloatBuffer;
+
+/**
+ * A hand-written scanner for data.json, specialised on the "data": [[x,y,z,c],...] array.
+ * <p/>
+ * <p>Numbers are parsed directly out of a reused char buffer into a {@link PointTable.Builder},
+ * so there is no String and no array per token or sample. Keys other than "data" and "speed"
+ * are skipped like {@link android.util.JsonReader#skipValue()} would.
+ * Only numbers with more than 15 significant digits or exponents beyond +-22 fall back to
+ * {@link Double#parseDouble(String)}.
+ */
+public class JsonDataScanner {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final char[] KEY_DATA = "data".toCharArray();
+    private static final char[] KEY_SPEED = "speed".toCharArray();
+    private static final char[] KEY_OP = "op".toCharArray();
+    private static final char[] KEY_FROM = "from".toCharArray();
+    private static final char[] KEY_COUNT = "count".toCharArray();
+    private static final char[] KEY_COLOR = "color".toCharArray();
+    private static final char[] KEY_COLORS = "colors".toCharArray();
+
+    // indexed by the op codes of Delta
+    private static final char[][] DELTA_OPS = {null, "append".toCharArray(), "update".toCharArray(),
+            "delete".toCharArray(), "recolor".toCharArray()};
+
+    // exactly representable powers of ten, see the fast path in toDouble()
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final Reader in;
+    private final char[] buffer;
+    private int pos = 0;
+    private int limit = 0;
+
+    // the key currently read, reused for every key
+    private char[] key = new char[32];
+    private int keyLength;
+
+    // the current number, kept for the slow path only
+    private final char[] number = new char[64];
+    private int numberLength;
+
+    private Data.ChunkListener chunkListener = null;
+    private int chunkSize;
+
+    public JsonDataScanner(Reader in) {
+        this(in, BUFFER_SIZE);
+    }
+
+    public JsonDataScanner(Reader in, int bufferSize) {
+        this.in = in;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Hands out the samples every chunkSize samples while reading.
+     * The chunks share their arrays with the table being read rather than copying them, so the
+     * peak memory is still that of the whole table, proportional to the size of the data. A chunk
+     * keeps the arrays it was cut from alive after the table grew out of them, so listeners
+     * should drop it as soon as it is appended.
+     */
+    public void setChunkListener(Data.ChunkListener listener, int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        this.chunkListener = listener;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Reads the top level object and fills data from it.
+     */
+    public Data read(Data data) throws IOException {
+        expect('{');
+        if (peekToken() == '}') {
+            pos++;
+            return data;
+        }
+        while (true) {
+            readKey();
+            expect(':');
+            if (isKey(KEY_DATA)) {
+                PointTable.Builder builder = new PointTable.Builder();
+                readSamples(data, builder);
+                data.setTable(builder.build());
+            } else if (isKey(KEY_SPEED)) {
+                data.setSpeed(readDouble());
+            } else {
+                skipValue();
+            }
+            int c = nextToken();
+            if (c == '}')
+                return data;
+            if (c != ',')
+                throw syntaxError("Expected ',' or '}'");
+        }
+    }
+
+    /**
+     * Reads a {@link Delta} object.
+     */
+    Delta readDelta() throws IOException {
+        Delta delta = new Delta(0);
+        expect('{');
+        if (peekToken() == '}')
+            throw syntaxError("Empty delta");
+        while (true) {
+            readKey();
+            expect(':');
+            if (isKey(KEY_OP)) {
+                // the value is a string, compared the same way as keys
+                readKey();
+                for (int op = 1; op < DELTA_OPS.length; op++)
+                    if (isKey(DELTA_OPS[op]))
+                        delta.op = op;
+            } else if (isKey(KEY_FROM)) {
+                delta.from = (int) readDouble();
+            } else if (isKey(KEY_COUNT)) {
+                delta.count = (int) readDouble();
+            } else if (isKey(KEY_COLOR)) {
+                delta.color = (float) readDouble();
+            } else if (isKey(KEY_COLORS)) {
+                delta.colors = FloatBuffer.wrap(readFloats());
+            } else if (isKey(KEY_DATA)) {
+                PointTable.Builder builder = new PointTable.Builder(16);
+                readSamples(null, builder);
+                delta.samples = builder.build();
+            } else {
+                skipValue();
+            }
+            int c = nextToken();
+            if (c == '}')
+                return delta;
+            if (c != ',')
+                throw syntaxError("Expected ',' or '}'");
+        }
+    }
+
+    private float[] readFloats() throws IOException {
+        float[] values = new float[16];
+        int n = 0;
+        expect('[');
+        if (peekToken() == ']') {
+            pos++;
+            return new float[0];
+        }
+        while (true) {
+            if (n == values.length) {
+                float[] larger = new float[2 * n];
+                System.arraycopy(values, 0, larger, 0, n);
+                values = larger;
+            }
+            values[n++] = (float) readDouble();
+            int c = nextToken();
+            if (c == ']')
+                break;
+            if (c != ',')
+                throw syntaxError("Expected ',' or ']'");
+        }
+        float[] result = new float[n];
+        System.arraycopy(values, 0, result, 0, n);
+        return result;
+    }
+
+    /**
+     * Reads an array of samples [[x,y,z,c],...]. Missing values are 0, surplus values are skipped.
+     */
+    void readSamples(Data data, PointTable.Builder builder) throws IOException {
+        expect('[');
+        if (peekToken() == ']') {
+            pos++;
+            return;
+        }
+        int published = 0;
+        while (true) {
+            expect('[');
+            float x = 0f, y = 0f, z = 0f, color = 0f;
+            int i = 0;
+            if (peekToken() == ']') {
+                pos++;
+            } else {
+                while (true) {
+                    switch (i++) {
+                        case 0:
+                            x = (float) readDouble();
+                            break;
+                        case 1:
+                            y = (float) readDouble();
+                            break;
+                        case 2:
+                            z = (float) readDouble();
+                            break;
+                        case 3:
+                            color = (float) readDouble();
+                            break;
+                        default:
+                            skipValue();
+                    }
+                    int c = nextToken();
+                    if (c == ']')
+                        break;
+                    if (c != ',')
+                        throw syntaxError("Expected ',' or ']' in sample");
+                }
+            }
+            builder.add(x, y, z, color);
+            if (chunkListener != null && builder.size() - published == chunkSize) {
+                chunkListener.onChunk(data, builder.view(published, builder.size()), published);
+                published = builder.size();
+            }
+
+            int c = nextToken();
+            if (c == ']') {
+                if (chunkListener != null && builder.size() > published)
+                    chunkListener.onChunk(data, builder.view(published, builder.size()), published);
+                return;
+            }
+            if (c != ',')
+                throw syntaxError("Expected ',' or ']' after sample");
+        }
+    }
+
+    /**
+     * Parses a json number; null is read as NaN.
+     */
+    double readDouble() throws IOException {
+        int c = peekToken();
+        if (c == 'n') {
+            skipLiteral();
+            return Double.NaN;
+        }
+        numberLength = 0;
+        boolean negative = false;
+        if (c == '-') {
+            negative = true;
+            append(c);
+            pos++;
+            c = peek();
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        while (c >= '0' && c <= '9') {
+            any = true;
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0)
+                    digits++;
+            } else {
+                exponent++;
+                digits++;
+            }
+            append(c);
+            pos++;
+            c = peek();
+        }
+        if (c == '.') {
+            append(c);
+            pos++;
+            c = peek();
+            while (c >= '0' && c <= '9') {
+                any = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    exponent--;
+                    if (mantissa != 0)
+                        digits++;
+                } else {
+                    digits++;
+                }
+                append(c);
+                pos++;
+                c = peek();
+            }
+        }
+        if (!any)
+            throw syntaxError("Expected a number");
+        if (c == 'e' || c == 'E') {
+            append(c);
+            pos++;
+            c = peek();
+            boolean negativeExponent = false;
+            if (c == '-' || c == '+') {
+                negativeExponent = c == '-';
+                append(c);
+                pos++;
+                c = peek();
+            }
+            int e = 0;
+            boolean anyExponent = false;
+            while (c >= '0' && c <= '9') {
+                anyExponent = true;
+                if (e < 100000)
+                    e = e * 10 + (c - '0');
+                append(c);
+                pos++;
+                c = peek();
+            }
+            if (!anyExponent)
+                throw syntaxError("Expected digits in exponent");
+            exponent += negativeExponent ? -e : e;
+        }
+        return toDouble(negative, mantissa, digits, exponent);
+    }
+
+    private double toDouble(boolean negative, long mantissa, int digits, int exponent) {
+        double value;
+        if (mantissa == 0) {
+            value = 0d;
+        } else if (digits <= 15 && exponent >= -22 && exponent <= 22) {
+            // the mantissa and the power of ten are exact doubles, hence one correctly
+            // rounded operation gives the correctly rounded result
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+                    : mantissa * POWERS_OF_TEN[exponent];
+        } else if (numberLength <= number.length) {
+            return Double.parseDouble(new String(number, 0, numberLength));
+        } else {
+            // absurdly long number, 18 significant digits are plenty for a float anyway
+            value = mantissa * Math.pow(10, exponent);
+        }
+        return negative ? -value : value;
+    }
+
+    private void append(int c) {
+        if (numberLength < number.length)
+            number[numberLength] = (char) c;
+        numberLength++;
+    }
+
+    /**
+     * Skips one value of any kind.
+     */
+    void skipValue() throws IOException {
+        int c = peekToken();
+        switch (c) {
+            case '"':
+                skipString();
+                break;
+            case '[':
+            case '{':
+                skipContainer();
+                break;
+            case 't':
+            case 'f':
+            case 'n':
+                skipLiteral();
+                break;
+            default:
+                readDouble();
+        }
+    }
+
+    private void skipContainer() throws IOException {
+        int depth = 0;
+        do {
+            int c = next();
+            switch (c) {
+                case '[':
+                case '{':
+                    depth++;
+                    break;
+                case ']':
+                case '}':
+                    depth--;
+                    break;
+                case '"':
+                    pos--;
+                    skipString();
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        while (true) {
+            int c = next();
+            if (c == '\\')
+                next();
+            else if (c == '"')
+                return;
+        }
+    }
+
+    private void skipLiteral() throws IOException {
+        int c = peek();
+        while (c >= 'a' && c <= 'z') {
+            pos++;
+            c = peek();
+        }
+    }
+
+    private void readKey() throws IOException {
+        expect('"');
+        keyLength = 0;
+        while (true) {
+            int c = next();
+            if (c == '"')
+                return;
+            if (c == '\\')
+                c = next();
+            if (keyLength == key.length) {
+                char[] larger = new char[key.length * 2];
+                System.arraycopy(key, 0, larger, 0, keyLength);
+                key = larger;
+            }
+            key[keyLength++] = (char) c;
+        }
+    }
+
+    private boolean isKey(char[] name) {
+        if (keyLength != name.length)
+            return false;
+        for (int i = 0; i < keyLength; i++)
+            if (key[i] != name[i])
+                return false;
+        return true;
+    }
+
+    private void expect(char expected) throws IOException {
+        if (nextToken() != expected)
+            throw syntaxError("Expected '" + expected + "'");
+    }
+
+    /**
+     * @return the next character that is not whitespace, consuming it.
+     */
+    private int nextToken() throws IOException {
+        int c = peekToken();
+        if (c < 0)
+            throw new EOFException("Unexpected end of json");
+        pos++;
+        return c;
+    }
+
+    /**
+     * @return the next character that is not whitespace, without consuming it, or -1 at the end.
+     */
+    private int peekToken() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t')
+                pos++;
+            else
+                return c;
+        }
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        if (c < 0)
+            throw new EOFException("Unexpected end of json");
+        pos++;
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (pos < limit)
+            return buffer[pos];
+        return fill() ? buffer[pos] : -1;
+    }
+
+    private boolean fill() throws IOException {
+        pos = 0;
+        limit = 0;
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) == 0) {
+            // a Reader may return 0, try again
+        }
+        if (read < 0)
+            return false;
+        limit = read;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " in json");
+    }
+}
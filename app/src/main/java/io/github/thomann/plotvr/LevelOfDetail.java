@@ -0,0 +1,223 @@
+package io.github.thomann.plotvr;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits the samples by their distance to the camera: near ones are drawn as lit cubes,
+ * far ones as points, and the ones beyond that would be smaller than a pixel are skipped.
+ * <p/>
+ * <p>The samples are records of one position and color index each, as written for instances
+ * and points: either four uint16 in the quantization box or four float32, see
+ * {@link Renderer}. The selection copies the records of the near and far samples into
+ * buffers of their own, which are drawn like the complete geometry. These start at the budget
+ * and grow with the selection, so that they take as much memory as the samples selected
+ * rather than as all of them.
+ * <p/>
+ * <p>Selecting is incremental: every frame goes on with at most a budget of samples, and only
+ * once all samples are done the new selection replaces the one that is drawn meanwhile.
+ * A new pass starts when the camera moved by a fraction of the near distance, or the samples
+ * changed. Must only be used from the GL thread.
+ */
+class LevelOfDetail {
+
+    // the camera may move by this fraction of the near distance before we select again
+    private static final float MOVE_TOLERANCE = 0.1f;
+
+    // what is drawn: the result of the last complete pass
+    private ByteBuffer near;
+    private ByteBuffer far;
+    private int nearCount = 0;
+    private int farCount = 0;
+    private boolean hasSelection = false;
+
+    // the pass in progress
+    private ByteBuffer nextNear;
+    private ByteBuffer nextFar;
+    private int nextNearCount;
+    private int nextFarCount;
+    private int cursor = -1;
+    private final float[] passEye = new float[3];
+    private float passNear;
+    private float passFar;
+
+    // where the camera was for the last complete pass, and whether the samples changed since
+    private final float[] selectedEye = new float[3];
+    private boolean changed = true;
+
+    /**
+     * Drops the selection, e.g. because the samples were replaced or quantized again.
+     * Until the next pass is complete there is nothing to draw from here.
+     */
+    void reset() {
+        hasSelection = false;
+        nearCount = 0;
+        farCount = 0;
+        cursor = -1;
+        changed = true;
+    }
+
+    /**
+     * Starts a new pass after some samples changed, drawing the former selection meanwhile.
+     */
+    void restart() {
+        cursor = -1;
+        changed = true;
+    }
+
+    /**
+     * Goes on selecting, starting a new pass if needed.
+     *
+     * @param samples      the records of the samples.
+     * @param count        the number of samples.
+     * @param quantization the box of quantized records, null if they are float32.
+     * @param eye          the camera position in the coordinates of the samples.
+     * @param nearDistance up to this distance samples are cubes.
+     * @param farDistance  up to this distance samples are points, beyond they are skipped.
+     * @param budget       the largest number of samples to look at now.
+     * @return whether a pass is complete, so that the selection changed.
+     */
+    boolean update(ByteBuffer samples, int count, Quantization quantization, float[] eye,
+                   float nearDistance, float farDistance, int budget) {
+        if (cursor < 0) {
+            if (!changed && distanceSquared(eye, selectedEye) < square(MOVE_TOLERANCE * nearDistance))
+                return false;
+            startPass(count, quantization, eye, nearDistance, farDistance, budget);
+        }
+        int recordBytes = quantization != null ? 8 : 16;
+        float nearSquared = square(passNear);
+        float farSquared = square(passFar);
+        int end = (int) Math.min((long) cursor + budget, count);
+        for (int i = cursor; i < end; i++) {
+            int offset = i * recordBytes;
+            float x, y, z;
+            if (quantization != null) {
+                if ((samples.getShort(offset + 6) & 0xFFFF) == CubeGeometry.DELETED_QUANTIZED)
+                    continue;
+                x = quantization.dequantize(0, samples.getShort(offset));
+                y = quantization.dequantize(1, samples.getShort(offset + 2));
+                z = quantization.dequantize(2, samples.getShort(offset + 4));
+            } else {
+                if (samples.getFloat(offset + 12) == CubeGeometry.DELETED_FLOAT)
+                    continue;
+                x = samples.getFloat(offset);
+                y = samples.getFloat(offset + 4);
+                z = samples.getFloat(offset + 8);
+            }
+            float dx = x - passEye[0];
+            float dy = y - passEye[1];
+            float dz = z - passEye[2];
+            float d = dx * dx + dy * dy + dz * dz;
+            if (d <= nearSquared) {
+                nextNear = ensureRoom(nextNear, nextNearCount * recordBytes, recordBytes, count * recordBytes);
+                copy(samples, offset, nextNear, nextNearCount++ * recordBytes, recordBytes);
+            } else if (d <= farSquared) {
+                nextFar = ensureRoom(nextFar, nextFarCount * recordBytes, recordBytes, count * recordBytes);
+                copy(samples, offset, nextFar, nextFarCount++ * recordBytes, recordBytes);
+            }
+        }
+        cursor = end;
+        if (cursor < count)
+            return false;
+        finishPass();
+        return true;
+    }
+
+    private void startPass(int count, Quantization quantization, float[] eye, float nearDistance, float farDistance,
+                           int budget) {
+        int recordBytes = quantization != null ? 8 : 16;
+        int bytes = Math.max(Math.min(count, budget), 1) * recordBytes;
+        int maxBytes = Math.max(count, 1) * recordBytes;
+        nextNear = fit(nextNear, bytes, maxBytes);
+        nextFar = fit(nextFar, bytes, maxBytes);
+        nextNearCount = 0;
+        nextFarCount = 0;
+        System.arraycopy(eye, 0, passEye, 0, 3);
+        passNear = nearDistance;
+        passFar = farDistance;
+        changed = false;
+        cursor = 0;
+    }
+
+    private void finishPass() {
+        ByteBuffer swap = near;
+        near = nextNear;
+        nextNear = swap;
+        swap = far;
+        far = nextFar;
+        nextFar = swap;
+        nearCount = nextNearCount;
+        farCount = nextFarCount;
+        System.arraycopy(passEye, 0, selectedEye, 0, 3);
+        hasSelection = true;
+        cursor = -1;
+    }
+
+    /**
+     * @return the buffer, or one of at least the bytes instead if it is smaller or larger than
+     * the records of all samples, e.g. of other data.
+     */
+    private static ByteBuffer fit(ByteBuffer buffer, int bytes, int maxBytes) {
+        if (buffer != null && buffer.capacity() >= bytes && buffer.capacity() <= BufferPool.classBytes(maxBytes))
+            return buffer;
+        BufferPool.getDefault().release(buffer);
+        return BufferPool.getDefault().acquire(bytes);
+    }
+
+    /**
+     * @return the buffer, or one twice as large, at most of the records of all samples, with
+     * the same first bytes if it has no room for more.
+     */
+    private static ByteBuffer ensureRoom(ByteBuffer buffer, int used, int more, int maxBytes) {
+        if (used + more <= buffer.capacity())
+            return buffer;
+        ByteBuffer larger = BufferPool.getDefault().acquire((int) Math.min(2L * buffer.capacity(), maxBytes));
+        copy(buffer, 0, larger, 0, used);
+        BufferPool.getDefault().release(buffer);
+        return larger;
+    }
+
+    private static void copy(ByteBuffer from, int fromOffset, ByteBuffer to, int toOffset, int bytes) {
+        for (int b = 0; b < bytes; b += 8)
+            to.putLong(toOffset + b, from.getLong(fromOffset + b));
+    }
+
+    private static float distanceSquared(float[] a, float[] b) {
+        float dx = a[0] - b[0];
+        float dy = a[1] - b[1];
+        float dz = a[2] - b[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static float square(float value) {
+        return value * value;
+    }
+
+    /**
+     * @return whether a pass was completed since the last reset.
+     */
+    boolean hasSelection() {
+        return hasSelection;
+    }
+
+    /**
+     * @return the records of the near samples; the buffer changes with every pass.
+     */
+    ByteBuffer getNear() {
+        return near;
+    }
+
+    int getNearCount() {
+        return nearCount;
+    }
+
+    /**
+     * @return the records of the far samples; the buffer changes with every pass.
+     */
+    ByteBuffer getFar() {
+        return far;
+    }
+
+    int getFarCount() {
+        return farCount;
+    }
+}
@@ -0,0 +1,383 @@
+package io.github.thomann.plotvr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A spatial index of the samples, to draw only those in the view frustum.
+ * <p/>
+ * <p>Every node splits its box into eight octants until a node has at most a leaf size of
+ * samples. The samples are ordered depth first, so every node covers a contiguous range of
+ * slots: the geometry is written in this order, and a visible node is drawn with one call,
+ * fully visible subtrees and neighbouring leaves even together. Samples appended later
+ * than the index was built keep their own index as slot, behind all others.
+ * <p/>
+ * <p>The bounds of a node are the tight bounds of its samples. When a sample moves,
+ * {@link #include(int, float, float, float)} grows the bounds of its leaf and their parents,
+ * so it is never culled wrongly.
+ * <p/>
+ * <p>An index can be written next to the geometry and read back from a mapping of that file,
+ * see {@link GeometryCache}; then the slots stay in the mapping instead of the heap.
+ */
+class Octree {
+
+    // deep enough for any float coordinates, and ends splitting of identical positions
+    private static final int MAX_DEPTH = 20;
+    private static final int OCTANTS = 8;
+
+    private final int size;
+    // the slot of every sample, and the leaf it is in
+    private final IntBuffer slots;
+    private final IntBuffer leaves;
+
+    private int nodeCount = 0;
+    private float[] bounds = new float[6 * 64];
+    private int[] first = new int[64];
+    private int[] count = new int[64];
+    private int[] firstChild = new int[64];
+    private int[] childCount = new int[64];
+    private int[] parent = new int[64];
+
+    // the ranges of slots to draw, see cull()
+    private int[] rangeFirst = new int[16];
+    private int[] rangeCount = new int[16];
+    private int ranges = 0;
+    private final float[] planes = new float[6 * 4];
+
+    private Octree(int size) {
+        this(size, IntBuffer.wrap(new int[size]), IntBuffer.wrap(new int[size]));
+    }
+
+    private Octree(int size, IntBuffer slots, IntBuffer leaves) {
+        this.size = size;
+        this.slots = slots;
+        this.leaves = leaves;
+    }
+
+    /**
+     * Builds the index over all samples of the table.
+     *
+     * @param leafSize the largest number of samples in a leaf, unless they are too close to split.
+     */
+    static Octree build(PointTable table, int leafSize) {
+        int n = table.size();
+        Octree tree = new Octree(n);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        float[] min = new float[3];
+        float[] max = new float[3];
+        if (!Quantization.bounds(table, 0, n, min, max)) {
+            Arrays.fill(min, 0f);
+            Arrays.fill(max, 0f);
+        }
+        tree.addNode(-1, 0, n);
+        tree.split(table, 0, order, new int[n], leafSize, 0, min, max);
+        for (int s = 0; s < n; s++)
+            tree.slots.put(order[s], s);
+        return tree;
+    }
+
+    private int addNode(int parentNode, int from, int samples) {
+        if (nodeCount == first.length) {
+            int capacity = 2 * nodeCount;
+            bounds = Arrays.copyOf(bounds, 6 * capacity);
+            first = Arrays.copyOf(first, capacity);
+            count = Arrays.copyOf(count, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            childCount = Arrays.copyOf(childCount, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+        }
+        int node = nodeCount++;
+        first[node] = from;
+        count[node] = samples;
+        firstChild[node] = -1;
+        childCount[node] = 0;
+        parent[node] = parentNode;
+        emptyBounds(node);
+        return node;
+    }
+
+    private void split(PointTable table, int node, int[] order, int[] temp, int leafSize, int depth,
+                       float[] min, float[] max) {
+        int from = first[node];
+        int to = from + count[node];
+        if (count[node] <= leafSize || depth >= MAX_DEPTH) {
+            for (int s = from; s < to; s++) {
+                int i = order[s];
+                leaves.put(i, node);
+                if (!table.isDeleted(i))
+                    includeInNode(node, table.getX(i), table.getY(i), table.getZ(i));
+            }
+            return;
+        }
+        float cx = (min[0] + max[0]) / 2;
+        float cy = (min[1] + max[1]) / 2;
+        float cz = (min[2] + max[2]) / 2;
+
+        // a counting sort of the range by octant
+        int[] octantStart = new int[OCTANTS + 1];
+        for (int s = from; s < to; s++)
+            octantStart[octant(table, order[s], cx, cy, cz) + 1]++;
+        for (int o = 0; o < OCTANTS; o++)
+            octantStart[o + 1] += octantStart[o];
+        int[] next = Arrays.copyOf(octantStart, OCTANTS);
+        for (int s = from; s < to; s++) {
+            int i = order[s];
+            temp[from + next[octant(table, i, cx, cy, cz)]++] = i;
+        }
+        System.arraycopy(temp, from, order, from, to - from);
+
+        // the children first, so that they are next to each other
+        int[] children = new int[OCTANTS];
+        firstChild[node] = nodeCount;
+        for (int o = 0; o < OCTANTS; o++) {
+            int samples = octantStart[o + 1] - octantStart[o];
+            children[o] = samples == 0 ? -1 : addNode(node, from + octantStart[o], samples);
+        }
+        childCount[node] = nodeCount - firstChild[node];
+        float[] childMin = new float[3];
+        float[] childMax = new float[3];
+        for (int o = 0; o < OCTANTS; o++) {
+            if (children[o] < 0)
+                continue;
+            childMin[0] = (o & 1) == 0 ? min[0] : cx;
+            childMax[0] = (o & 1) == 0 ? cx : max[0];
+            childMin[1] = (o & 2) == 0 ? min[1] : cy;
+            childMax[1] = (o & 2) == 0 ? cy : max[1];
+            childMin[2] = (o & 4) == 0 ? min[2] : cz;
+            childMax[2] = (o & 4) == 0 ? cz : max[2];
+            split(table, children[o], order, temp, leafSize, depth + 1, childMin, childMax);
+            includeNode(node, children[o]);
+        }
+    }
+
+    private static int octant(PointTable table, int i, float cx, float cy, float cz) {
+        return (table.getX(i) >= cx ? 1 : 0) | (table.getY(i) >= cy ? 2 : 0) | (table.getZ(i) >= cz ? 4 : 0);
+    }
+
+    private void emptyBounds(int node) {
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[6 * node + axis] = Float.POSITIVE_INFINITY;
+            bounds[6 * node + 3 + axis] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * @return whether the bounds grew.
+     */
+    private boolean includeInNode(int node, float x, float y, float z) {
+        boolean grew = includeOnAxis(node, 0, x);
+        grew |= includeOnAxis(node, 1, y);
+        grew |= includeOnAxis(node, 2, z);
+        return grew;
+    }
+
+    private boolean includeOnAxis(int node, int axis, float value) {
+        boolean grew = false;
+        // NaN is neither smaller nor larger, hence never widens the box
+        if (value < bounds[6 * node + axis]) {
+            bounds[6 * node + axis] = value;
+            grew = true;
+        }
+        if (value > bounds[6 * node + 3 + axis]) {
+            bounds[6 * node + 3 + axis] = value;
+            grew = true;
+        }
+        return grew;
+    }
+
+    private void includeNode(int node, int child) {
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[6 * node + axis] = Math.min(bounds[6 * node + axis], bounds[6 * child + axis]);
+            bounds[6 * node + 3 + axis] = Math.max(bounds[6 * node + 3 + axis], bounds[6 * child + 3 + axis]);
+        }
+    }
+
+    /**
+     * Grows the bounds for a sample that moved to the given position.
+     */
+    void include(int sample, float x, float y, float z) {
+        if (sample >= size)
+            return;
+        int node = leaves.get(sample);
+        while (node >= 0 && includeInNode(node, x, y, z))
+            node = parent[node];
+    }
+
+    /**
+     * @return the number of samples in the index.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot of the sample in the geometry; appended samples keep their index.
+     */
+    int getSlot(int sample) {
+        return sample < size ? slots.get(sample) : sample;
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the bytes {@link #write} writes.
+     */
+    long getByteSize() {
+        return 4L * (2 + 11L * nodeCount + 2L * size);
+    }
+
+    /**
+     * Writes the index in native byte order: size and node count, the nodes, the slots and
+     * the leaves of the samples.
+     *
+     * @param scratch a buffer in native order for the values on their way to the channel.
+     */
+    void write(WritableByteChannel channel, ByteBuffer scratch) throws IOException {
+        scratch.clear();
+        scratch.putInt(size).putInt(nodeCount);
+        for (int i = 0; i < 6 * nodeCount; i++)
+            scratch = putInt(channel, scratch, Float.floatToRawIntBits(bounds[i]));
+        int[][] nodes = {first, count, firstChild, childCount, parent};
+        for (int[] values : nodes)
+            for (int node = 0; node < nodeCount; node++)
+                scratch = putInt(channel, scratch, values[node]);
+        for (int i = 0; i < size; i++)
+            scratch = putInt(channel, scratch, slots.get(i));
+        for (int i = 0; i < size; i++)
+            scratch = putInt(channel, scratch, leaves.get(i));
+        scratch.flip();
+        while (scratch.hasRemaining())
+            channel.write(scratch);
+    }
+
+    private static ByteBuffer putInt(WritableByteChannel channel, ByteBuffer scratch, int value) throws IOException {
+        if (scratch.remaining() < 4) {
+            scratch.flip();
+            while (scratch.hasRemaining())
+                channel.write(scratch);
+            scratch.clear();
+        }
+        return scratch.putInt(value);
+    }
+
+    /**
+     * Reads an index as written by {@link #write}. The slots and leaves are views of the bytes.
+     *
+     * @param bytes the index from its position on, in native byte order.
+     */
+    static Octree read(ByteBuffer bytes) throws IOException {
+        IntBuffer ints = bytes.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+        int size = ints.get();
+        int nodeCount = ints.get();
+        if (size < 0 || nodeCount < 0 || 2 + 11L * nodeCount + 2L * size > ints.capacity())
+            throw new IOException("Truncated octree of " + size + " samples and " + nodeCount + " nodes");
+        float[] bounds = new float[Math.max(6 * nodeCount, 6)];
+        for (int i = 0; i < 6 * nodeCount; i++)
+            bounds[i] = Float.intBitsToFloat(ints.get());
+        int[][] nodes = new int[5][Math.max(nodeCount, 1)];
+        for (int[] values : nodes)
+            ints.get(values, 0, nodeCount);
+        IntBuffer slots = ints.slice();
+        slots.limit(size);
+        ints.position(ints.position() + size);
+        IntBuffer leaves = ints.slice();
+        leaves.limit(size);
+
+        Octree tree = new Octree(size, slots, leaves);
+        tree.nodeCount = nodeCount;
+        tree.bounds = bounds;
+        tree.first = nodes[0];
+        tree.count = nodes[1];
+        tree.firstChild = nodes[2];
+        tree.childCount = nodes[3];
+        tree.parent = nodes[4];
+        return tree;
+    }
+
+    /**
+     * Finds the ranges of slots with samples in the view frustum, see {@link #getRangeFirst()}.
+     *
+     * @param mvp    the model view projection matrix of the samples, column-major.
+     * @param margin how far the geometry of a sample reaches beyond its position.
+     * @return the number of ranges.
+     */
+    int cull(float[] mvp, float margin) {
+        // the planes of the frustum: the fourth row of the matrix plus or minus each other row
+        for (int p = 0; p < 6; p++) {
+            int row = p / 2;
+            float sign = p % 2 == 0 ? 1f : -1f;
+            for (int column = 0; column < 4; column++)
+                planes[4 * p + column] = mvp[4 * column + 3] + sign * mvp[4 * column + row];
+        }
+        ranges = 0;
+        if (size > 0)
+            cullNode(0, margin);
+        return ranges;
+    }
+
+    private void cullNode(int node, float margin) {
+        boolean inside = true;
+        int b = 6 * node;
+        if (bounds[b] > bounds[b + 3])
+            return; // nothing drawn in here
+        for (int p = 0; p < 6; p++) {
+            float a = planes[4 * p];
+            float bb = planes[4 * p + 1];
+            float c = planes[4 * p + 2];
+            float d = planes[4 * p + 3];
+            // the corners farthest in front of and behind the plane
+            float far = a * (a > 0 ? bounds[b + 3] + margin : bounds[b] - margin)
+                    + bb * (bb > 0 ? bounds[b + 4] + margin : bounds[b + 1] - margin)
+                    + c * (c > 0 ? bounds[b + 5] + margin : bounds[b + 2] - margin) + d;
+            if (far < 0)
+                return;
+            float near = a * (a > 0 ? bounds[b] - margin : bounds[b + 3] + margin)
+                    + bb * (bb > 0 ? bounds[b + 1] - margin : bounds[b + 4] + margin)
+                    + c * (c > 0 ? bounds[b + 2] - margin : bounds[b + 5] + margin) + d;
+            if (near < 0)
+                inside = false;
+        }
+        if (inside || childCount[node] == 0) {
+            addRange(first[node], count[node]);
+            return;
+        }
+        for (int child = firstChild[node]; child < firstChild[node] + childCount[node]; child++)
+            cullNode(child, margin);
+    }
+
+    private void addRange(int from, int samples) {
+        if (ranges > 0 && rangeFirst[ranges - 1] + rangeCount[ranges - 1] == from) {
+            rangeCount[ranges - 1] += samples;
+            return;
+        }
+        if (ranges == rangeFirst.length) {
+            rangeFirst = Arrays.copyOf(rangeFirst, 2 * ranges);
+            rangeCount = Arrays.copyOf(rangeCount, 2 * ranges);
+        }
+        rangeFirst[ranges] = from;
+        rangeCount[ranges] = samples;
+        ranges++;
+    }
+
+    /**
+     * @return the first slots of the ranges found by the last {@link #cull(float[], float)}.
+     */
+    int[] getRangeFirst() {
+        return rangeFirst;
+    }
+
+    /**
+     * @return the number of slots of the ranges found by the last {@link #cull(float[], float)}.
+     */
+    int[] getRangeCount() {
+        return rangeCount;
+    }
+}
@@ -0,0 +1,345 @@
+package io.github.thomann.plotvr;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses data that is completely in memory on several cores.
+ * <p/>
+ * <p>The "data" array of the json is split into chunks at sample boundaries. In a first pass every
+ * worker counts the samples of its chunk, so that every chunk gets its own range of the final
+ * columns. In a second pass the workers parse their chunks right into these ranges, hence the
+ * chunks need not be concatenated afterwards. Everything outside of the "data" array is read
+ * by a {@link JsonDataScanner} as usual.
+ * <p/>
+ * <p>Chunk boundaries are found by looking for "]," which assumes that samples are flat
+ * arrays of numbers. Whenever this does not hold, or anything else goes wrong, the input
+ * is parsed again sequentially, so the result is always the same as the one of
+ * {@link Data#readJson(Reader)}.
+ * <p/>
+ * <p>The binary column format needs no parsing at all: its columns are copied in one go each.
+ */
+public class ParallelParser {
+    private static final String TAG = "ParallelParser";
+
+    // below this, splitting costs more than it gains
+    private static final int MIN_CHUNK_BYTES = 64 * 1024;
+    // more chunks than threads, so that a slow chunk does not keep the others waiting
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int threads;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param threads the number of worker threads; they are started on demand and end when idle.
+     */
+    public ParallelParser(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Threads must be positive: " + threads);
+        this.threads = threads;
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ParallelParser-" + ++count);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Parses the first length bytes, either the binary column format or json.
+     *
+     * @param contentType the content type of the bytes, may be null for json.
+     */
+    public Data parse(byte[] bytes, int length, String contentType) throws IOException {
+        if (ColumnarFormat.isColumnar(contentType))
+            return new Data().readColumns(ByteBuffer.wrap(bytes, 0, length));
+        Data data = new Data();
+        if (threads > 1 && length >= 2 * MIN_CHUNK_BYTES) {
+            try {
+                if (parseJson(bytes, length, data))
+                    return data;
+            } catch (IOException e) {
+                Log.i(TAG, "Parsing again sequentially: " + e.getMessage());
+            }
+        }
+        return data.readJson(utf8Reader(bytes, 0, length));
+    }
+
+    /**
+     * @return false if the json has no data array to split.
+     */
+    private boolean parseJson(final byte[] bytes, int length, Data data) throws IOException {
+        int start = findDataArray(bytes, length);
+        if (start < 0)
+            return false;
+        // the samples lie between the brackets at start and the end of the last chunk
+        int[] boundaries = findBoundaries(bytes, start + 1, length);
+        final int chunks = boundaries.length - 1;
+
+        // the last chunk runs up to the end of the array, which its counter finds
+        final int[] end = new int[1];
+        List<Callable<Integer>> counters = new ArrayList<Callable<Integer>>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            final int from = boundaries[c];
+            final int to = boundaries[c + 1];
+            final boolean last = c == chunks - 1;
+            counters.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    return countSamples(bytes, from, to, last ? end : null);
+                }
+            });
+        }
+        List<Integer> counts = invokeAll(counters);
+        boundaries[chunks] = end[0];
+
+        int total = 0;
+        for (int count : counts)
+            total += count;
+        final PointTable.Builder builder = new PointTable.Builder(total);
+        List<Callable<Integer>> parsers = new ArrayList<Callable<Integer>>(chunks);
+        int offset = 0;
+        for (int c = 0; c < chunks; c++) {
+            final int from = boundaries[c];
+            // without the comma behind the last sample or the closing bracket of the array
+            final int to = c == chunks - 1 ? boundaries[c + 1] : boundaries[c + 1] - 1;
+            final int count = counts.get(c);
+            final PointTable.Builder part = builder.part(offset, offset + count);
+            offset += count;
+            parsers.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    new JsonDataScanner(new AsciiReader(bytes, from, to)).readSamples(null, part);
+                    if (part.size() != count)
+                        throw new IOException("Counted " + count + " samples but parsed " + part.size());
+                    return count;
+                }
+            });
+        }
+        invokeAll(parsers);
+
+        // everything but the samples: the json with an empty data array
+        Reader rest = new InputStreamReader(new SequenceInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(bytes, 0, start),
+                        new ByteArrayInputStream(new byte[]{'[', ']'})),
+                new ByteArrayInputStream(bytes, end[0] + 1, length - end[0] - 1)), UTF8);
+        data.readJson(rest);
+        data.setTable(builder.build());
+        Log.i(TAG, "Read " + total + " samples in " + chunks + " chunks");
+        return true;
+    }
+
+    private List<Integer> invokeAll(List<Callable<Integer>> tasks) throws IOException {
+        List<Integer> results = new ArrayList<Integer>(tasks.size());
+        try {
+            for (Future<Integer> future : executor.invokeAll(tasks))
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(String.valueOf(e.getCause()));
+        }
+        return results;
+    }
+
+    /**
+     * @return the index of the '[' of the data array of the top level object, or -1 if there is none.
+     */
+    static int findDataArray(byte[] bytes, int length) throws IOException {
+        int depth = 0;
+        int keyStart = -1;
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (b == '"') {
+                int stringStart = i;
+                i = skipString(bytes, i, length);
+                if (depth == 1)
+                    keyStart = stringStart;
+            } else if (b == '{' || b == '[') {
+                if (depth == 1 && b == '[' && isDataKey(bytes, keyStart, i))
+                    return i;
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+                if (depth == 0)
+                    return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDataKey(byte[] bytes, int keyStart, int value) {
+        if (keyStart < 0 || keyStart + 6 > value)
+            return false;
+        if (bytes[keyStart + 1] != 'd' || bytes[keyStart + 2] != 'a' || bytes[keyStart + 3] != 't'
+                || bytes[keyStart + 4] != 'a' || bytes[keyStart + 5] != '"')
+            return false;
+        // only white space and the colon between key and value
+        for (int i = keyStart + 6; i < value; i++)
+            if (bytes[i] != ':' && bytes[i] != ' ' && bytes[i] != '\t' && bytes[i] != '\n' && bytes[i] != '\r')
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the index of the closing quote of the string starting at i.
+     */
+    private static int skipString(byte[] bytes, int i, int length) throws IOException {
+        for (i++; i < length; i++) {
+            if (bytes[i] == '\\')
+                i++;
+            else if (bytes[i] == '"')
+                return i;
+        }
+        throw new IOException("Unterminated string");
+    }
+
+    /**
+     * Splits the samples starting at from into chunks of roughly equal size. Each chunk but the
+     * first starts right behind the comma after a sample. The last boundary is left to be set
+     * to the end of the array once it is known.
+     */
+    private int[] findBoundaries(byte[] bytes, int from, int length) {
+        int chunks = Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, (length - from) / MIN_CHUNK_BYTES));
+        int[] boundaries = new int[chunks + 1];
+        boundaries[0] = from;
+        int n = 1;
+        for (int c = 1; c < chunks; c++) {
+            int i = Math.max(from + (int) ((long) (length - from) * c / chunks), boundaries[n - 1]);
+            while (i < length && !(bytes[i] == ',' && isAfterSample(bytes, i)))
+                i++;
+            if (i >= length)
+                break;
+            boundaries[n++] = i + 1;
+        }
+        if (n < chunks) {
+            int[] fewer = new int[n + 1];
+            System.arraycopy(boundaries, 0, fewer, 0, n);
+            boundaries = fewer;
+        }
+        boundaries[n] = length;
+        return boundaries;
+    }
+
+    private static boolean isAfterSample(byte[] bytes, int comma) {
+        for (int i = comma - 1; i >= 0; i--) {
+            byte b = bytes[i];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r')
+                return b == ']';
+        }
+        return false;
+    }
+
+    /**
+     * Counts the samples between from and to, starting between two samples of the data array.
+     *
+     * @param end if not null, the data array ends in this range and the index of its closing
+     *            bracket is stored here.
+     */
+    static int countSamples(byte[] bytes, int from, int to, int[] end) throws IOException {
+        int depth = 1;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b == '[' || b == '{') {
+                depth++;
+            } else if (b == ']' || b == '}') {
+                depth--;
+                if (depth == 1) {
+                    count++;
+                } else if (depth == 0) {
+                    if (end == null)
+                        throw new IOException("Data array ends at " + i + " in the middle of a chunk");
+                    end[0] = i;
+                    return count;
+                }
+            } else if (b == '"') {
+                i = skipString(bytes, i, to);
+            }
+        }
+        if (end != null)
+            throw new IOException("Data array does not end");
+        if (depth != 1)
+            throw new IOException("Chunk ends in the middle of a sample");
+        return count;
+    }
+
+    private static Reader utf8Reader(byte[] bytes, int from, int length) {
+        return new InputStreamReader(new ByteArrayInputStream(bytes, from, length), UTF8);
+    }
+
+    /**
+     * Reads the samples of a chunk as chars, enclosed in brackets. Numbers are ASCII, so there
+     * is no need to decode UTF-8; other characters only occur in skipped strings, if at all.
+     */
+    static class AsciiReader extends Reader {
+        private final byte[] bytes;
+        private final int to;
+        private int pos;
+        private boolean opened = false;
+        private boolean closed = false;
+
+        AsciiReader(byte[] bytes, int from, int to) {
+            this.bytes = bytes;
+            this.pos = from;
+            this.to = to;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!opened) {
+                opened = true;
+                cbuf[off] = '[';
+                return 1;
+            }
+            if (pos < to) {
+                int n = Math.min(len, to - pos);
+                for (int i = 0; i < n; i++)
+                    cbuf[off + i] = (char) (bytes[pos + i] & 0xFF);
+                pos += n;
+                return n;
+            }
+            if (!closed) {
+                closed = true;
+                cbuf[off] = ']';
+                return 1;
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
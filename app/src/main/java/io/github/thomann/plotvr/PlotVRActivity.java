@@ -33,6 +33,7 @@ import com.google.vr.sdk.base.GvrView;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -41,6 +42,7 @@ import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 /**
  * PlotVR - walk through your data using Google VR
@@ -57,7 +59,12 @@ public class PlotVRActivity extends GvrActivity {
     private String host = "amarna:9454";
     private String dataUrl = null;
 
+    // only used on the UI thread; messages of the WebSocket are handed over to it
     private Data data;
+    private DataCache dataCache;
+    private GeometryCache geometryCache;
+    // null unless parsing on several threads is configured
+    private ParallelParser parallelParser;
 
 
     // at the moment we do not use VR-Audio, but maybe eventually...
@@ -87,6 +94,19 @@ public class PlotVRActivity extends GvrActivity {
         Intent intent = getIntent();
         Uri uri = intent.getData();
         SharedPreferences sharedPref = getPreferences(Context.MODE_PRIVATE);
+        dataCache = new DataCache(new File(getCacheDir(), "datasets"),
+                sharedPref.getLong("cache.max.bytes", DataCache.DEFAULT_MAX_BYTES));
+        geometryCache = new GeometryCache(new File(getCacheDir(), "geometry"),
+                sharedPref.getLong("cache.geometry.max.bytes", GeometryCache.DEFAULT_MAX_BYTES));
+        renderer.setQuantizePositions(sharedPref.getBoolean("render.quantize", false));
+        renderer.setPointSprites(sharedPref.getBoolean("render.points", false));
+        renderer.setColorMap(sharedPref.getString("render.colormap", "palette"));
+        renderer.setLevelOfDetail(sharedPref.getBoolean("render.lod", false));
+        renderer.setShareCulling(sharedPref.getBoolean("render.cull.shared", true));
+        // parsing in parallel needs the whole download first, so by default we render while loading
+        int parseThreads = sharedPref.getInt("parse.threads", 1);
+        if (parseThreads > 1)
+            parallelParser = new ParallelParser(parseThreads);
         if (OPEN_LAST_URI_ON_DEFAULT && uri == null) {
             String preferredUri = sharedPref.getString("preferred.uri", null);
             if (preferredUri != null) {
@@ -139,6 +159,13 @@ public class PlotVRActivity extends GvrActivity {
         gvrAudioEngine.resume();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // the idle buffers are only there to be reused by the next reload
+        BufferPool.getDefault().trim();
+    }
+
     public void setDataHost(Uri uri) {
         Log.i(TAG, "Initial intent data: " + uri);
         if (uri.getLastPathSegment()==null || !uri.getLastPathSegment().equals("data.json"))
@@ -200,10 +227,16 @@ public class PlotVRActivity extends GvrActivity {
 
             @Override
             public void onMessage(String message) {
-                Log.i(TAG, "Websocket Got Message: " + message);
+                if (!Delta.isDelta(message))
+                    Log.i(TAG, "Websocket Got Message: " + message);
                 handle_char(message);
             }
 
+            @Override
+            public void onMessage(ByteBuffer bytes) {
+                handle_binary(bytes);
+            }
+
             @Override
             public void onClose(int i, String s, boolean b) {
                 Log.i(TAG, "Websocket Closed " + s);
@@ -248,7 +281,49 @@ public class PlotVRActivity extends GvrActivity {
         }
     }
 
+    void handle_binary(ByteBuffer bytes) {
+        BinaryMessage message;
+        try {
+            message = BinaryMessage.decode(bytes);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot decode binary message: " + e.getMessage());
+            return;
+        }
+        switch (message.getType()) {
+            case BinaryMessage.POINTS:
+                final Data points = new Data();
+                points.setTable(message.getTable());
+                // handed over on the UI thread, like downloaded data by DownloadTask
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // streamed at frame rate, so not logged like downloaded data
+                        data = points;
+                        renderer.setData(points);
+                    }
+                });
+                break;
+            case BinaryMessage.DELTA:
+                renderer.applyDelta(message.getDelta());
+                break;
+            case BinaryMessage.POSE:
+                renderer.setCamera(message);
+                break;
+            case BinaryMessage.CONTROL:
+                handle_char(message.getControl());
+                break;
+        }
+    }
+
     void handle_char(String msg) {
+        if (Delta.isDelta(msg)) {
+            try {
+                renderer.applyDelta(Delta.parse(msg));
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot parse delta: " + e.getMessage());
+            }
+            return;
+        }
         // by interning, we can use == ;-)
         msg = msg.intern();
         if (msg == "r") {
@@ -263,6 +338,12 @@ public class PlotVRActivity extends GvrActivity {
         } else if (msg == "f") {
             renderer.toggleDrawFloor();
             //toggleFullscreen();
+        } else if (msg == "p") {
+            renderer.togglePointSprites();
+        } else if (msg == "m") {
+            renderer.cycleColorMap();
+        } else if (msg == "l") {
+            renderer.toggleLevelOfDetail();
 /*      }else if(msg == "c"){
         if(connected){
           device_controls.disconnect();
@@ -271,8 +352,6 @@ public class PlotVRActivity extends GvrActivity {
         }
         connected = !connected;*/
         } else if (renderer.doTrackHead) {
-            float[] vector = new float[3];
-            float ALPHA_ROT = 0.1f;
             switch (msg) {
                 case "a":
                 case "Left":
@@ -307,7 +386,13 @@ public class PlotVRActivity extends GvrActivity {
     }
 
     private void refreshData() {
-        new DownloadTask(this).execute(getDataUrl());
+        // also asked for by messages of the WebSocket, but the task starts on the UI thread
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                new DownloadTask(PlotVRActivity.this).execute(getDataUrl());
+            }
+        });
     }
 
     private String getDataUrl() {
@@ -326,9 +411,25 @@ public class PlotVRActivity extends GvrActivity {
         return data;
     }
 
+    public DataCache getDataCache() {
+        return dataCache;
+    }
+
+    public GeometryCache getGeometryCache() {
+        return geometryCache;
+    }
+
+    public ParallelParser getParallelParser() {
+        return parallelParser;
+    }
+
     public void setData(Data data) {
         Log.i(TAG, "Got Data: " + data);
         this.data = data;
         renderer.setData(data);
     }
+
+    public void appendData(Data data, PointTable chunk, int offset) {
+        renderer.appendData(data, chunk, offset);
+    }
 }
@@ -0,0 +1,325 @@
+package io.github.thomann.plotvr;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The samples of a plot stored column by column.
+ * <p/>
+ * <p>Every column is one flat primitive buffer: either a heap buffer wrapping a float[]
+ * (when built from json) or a direct buffer (when read from the binary format).
+ * Reading a sample is an absolute get on each column, so passes over all samples neither
+ * allocate nor chase pointers.
+ * Besides the plot columns x, y, z and color a table can carry additional typed columns.
+ * <p/>
+ * <p>Tables can be changed in place by {@link Delta}s: samples can be set, appended
+ * (into spare capacity of the columns if there is some) and deleted. Deleted samples keep
+ * their index, so that later deltas can still address the samples behind them.
+ */
+public class PointTable {
+
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int Z = 2;
+    public static final int COLOR = 3;
+    public static final int PLOT_COLUMNS = 4;
+
+    private int size;
+    private FloatBuffer x;
+    private FloatBuffer y;
+    private FloatBuffer z;
+    private FloatBuffer color;
+
+    private final Map<String, Buffer> extraColumns = new LinkedHashMap<String, Buffer>();
+    private final BitSet deleted = new BitSet();
+
+    public PointTable(FloatBuffer x, FloatBuffer y, FloatBuffer z, FloatBuffer color) {
+        this.size = x.limit();
+        if (y.limit() != size || z.limit() != size || color.limit() != size)
+            throw new IllegalArgumentException("Columns differ in length: "
+                    + size + ", " + y.limit() + ", " + z.limit() + ", " + color.limit());
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.color = color;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float getX(int i) {
+        return x.get(i);
+    }
+
+    public float getY(int i) {
+        return y.get(i);
+    }
+
+    public float getZ(int i) {
+        return z.get(i);
+    }
+
+    public float getColor(int i) {
+        return color.get(i);
+    }
+
+    public int getColorIndex(int i) {
+        return (int) color.get(i);
+    }
+
+    public boolean isDeleted(int i) {
+        return deleted.get(i);
+    }
+
+    public void set(int i, float x, float y, float z, float color) {
+        checkIndex(i);
+        this.x.put(i, x);
+        this.y.put(i, y);
+        this.z.put(i, z);
+        this.color.put(i, color);
+        deleted.clear(i);
+    }
+
+    public void setColor(int i, float color) {
+        checkIndex(i);
+        this.color.put(i, color);
+    }
+
+    /**
+     * Marks the samples from (inclusive) to to (exclusive) as deleted.
+     */
+    public void delete(int from, int to) {
+        checkIndex(from);
+        checkIndex(to - 1);
+        deleted.set(from, to);
+    }
+
+    /**
+     * Appends all samples of the other table; extra columns are padded with 0.
+     */
+    public void append(PointTable other) {
+        int n = other.size();
+        ensureCapacity(size + n);
+        int oldSize = size;
+        size += n;
+        x.limit(size);
+        y.limit(size);
+        z.limit(size);
+        color.limit(size);
+        for (Map.Entry<String, Buffer> entry : extraColumns.entrySet())
+            entry.getValue().limit(size);
+        for (int i = 0; i < n; i++) {
+            x.put(oldSize + i, other.getX(i));
+            y.put(oldSize + i, other.getY(i));
+            z.put(oldSize + i, other.getZ(i));
+            color.put(oldSize + i, other.getColor(i));
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (x.capacity() >= capacity && y.capacity() >= capacity
+                && z.capacity() >= capacity && color.capacity() >= capacity)
+            return;
+        int newCapacity = Math.max(capacity, size + (size >> 1));
+        x = growColumn(x, newCapacity);
+        y = growColumn(y, newCapacity);
+        z = growColumn(z, newCapacity);
+        color = growColumn(color, newCapacity);
+        for (Map.Entry<String, Buffer> entry : extraColumns.entrySet()) {
+            Buffer column = entry.getValue();
+            if (column.capacity() >= capacity)
+                continue;
+            if (column instanceof FloatBuffer) {
+                entry.setValue(growColumn((FloatBuffer) column, newCapacity));
+            } else {
+                IntBuffer grown = IntBuffer.allocate(newCapacity);
+                IntBuffer old = ((IntBuffer) column).duplicate();
+                old.position(0).limit(size);
+                grown.put(old).position(0);
+                grown.limit(size);
+                entry.setValue(grown);
+            }
+        }
+    }
+
+    private FloatBuffer growColumn(FloatBuffer column, int capacity) {
+        FloatBuffer grown = FloatBuffer.allocate(capacity);
+        FloatBuffer old = column.duplicate();
+        old.position(0).limit(size);
+        grown.put(old).position(0);
+        grown.limit(size);
+        return grown;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Sample " + i + " of " + size);
+    }
+
+    /**
+     * @param column one of {@link #X}, {@link #Y}, {@link #Z} and {@link #COLOR}.
+     */
+    public FloatBuffer getColumn(int column) {
+        switch (column) {
+            case X:
+                return x;
+            case Y:
+                return y;
+            case Z:
+                return z;
+            case COLOR:
+                return color;
+            default:
+                throw new IndexOutOfBoundsException("No plot column " + column);
+        }
+    }
+
+    public void addColumn(String name, FloatBuffer column) {
+        addExtraColumn(name, column);
+    }
+
+    public void addColumn(String name, IntBuffer column) {
+        addExtraColumn(name, column);
+    }
+
+    private void addExtraColumn(String name, Buffer column) {
+        if (column.limit() != size)
+            throw new IllegalArgumentException("Column " + name + " has " + column.limit()
+                    + " values, expected " + size);
+        extraColumns.put(name, column);
+    }
+
+    public Set<String> getExtraColumnNames() {
+        return Collections.unmodifiableSet(extraColumns.keySet());
+    }
+
+    /**
+     * @return the float column of that name or null if there is none.
+     */
+    public FloatBuffer getFloatColumn(String name) {
+        Buffer column = extraColumns.get(name);
+        return column instanceof FloatBuffer ? (FloatBuffer) column : null;
+    }
+
+    /**
+     * @return the int column of that name or null if there is none.
+     */
+    public IntBuffer getIntColumn(String name) {
+        Buffer column = extraColumns.get(name);
+        return column instanceof IntBuffer ? (IntBuffer) column : null;
+    }
+
+    @Override
+    public String toString() {
+        return "{ PointTable: samples: " + size + ", extra columns: " + extraColumns.keySet() + " }";
+    }
+
+    /**
+     * Collects samples one by one into growing float arrays, as needed when parsing json.
+     */
+    public static class Builder {
+        private float[] x;
+        private float[] y;
+        private float[] z;
+        private float[] color;
+        private int size = 0;
+        // parts fill the range start..end of the arrays of their parent, and cannot grow
+        private int start = 0;
+        private int end;
+        private boolean part = false;
+
+        public Builder() {
+            this(1024);
+        }
+
+        public Builder(int initialCapacity) {
+            initialCapacity = Math.max(initialCapacity, 16);
+            x = new float[initialCapacity];
+            y = new float[initialCapacity];
+            z = new float[initialCapacity];
+            color = new float[initialCapacity];
+            end = initialCapacity;
+        }
+
+        private Builder(Builder parent, int from, int to) {
+            x = parent.x;
+            y = parent.y;
+            z = parent.z;
+            color = parent.color;
+            start = from;
+            size = from;
+            end = to;
+            part = true;
+        }
+
+        /**
+         * Reserves the samples from (inclusive) to to (exclusive) of this builder, to be filled
+         * by the returned part. Parts of one builder may be filled by different threads at the same
+         * time; the samples end up in place, so there is nothing to concatenate afterwards.
+         */
+        public Builder part(int from, int to) {
+            if (part || from < size || to < from || to > x.length)
+                throw new IndexOutOfBoundsException("Part " + from + ".." + to + " of " + size
+                        + " samples with capacity " + x.length);
+            size = to;
+            return new Builder(this, from, to);
+        }
+
+        public void add(float x, float y, float z, float color) {
+            if (size == end)
+                grow();
+            this.x[size] = x;
+            this.y[size] = y;
+            this.z[size] = z;
+            this.color[size] = color;
+            size++;
+        }
+
+        public int size() {
+            return size - start;
+        }
+
+        private void grow() {
+            if (part)
+                throw new IllegalStateException("Part of " + (end - start) + " samples is full");
+            int capacity = x.length + (x.length >> 1);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            z = Arrays.copyOf(z, capacity);
+            color = Arrays.copyOf(color, capacity);
+            end = capacity;
+        }
+
+        /**
+         * The table wraps the arrays of this builder, so do not add anything afterwards.
+         */
+        public PointTable build() {
+            return view(0, size());
+        }
+
+        /**
+         * A table of the samples from (inclusive) to to (exclusive), sharing the arrays of this builder.
+         * It stays valid while more samples are added, since growing copies to new arrays; meanwhile
+         * it keeps the old arrays alive, so drop it once done with it.
+         */
+        public PointTable view(int from, int to) {
+            if (from < 0 || to > size() || from > to)
+                throw new IndexOutOfBoundsException("View " + from + ".." + to + " of " + size() + " samples");
+            from += start;
+            to += start;
+            return new PointTable(wrap(x, from, to), wrap(y, from, to), wrap(z, from, to), wrap(color, from, to));
+        }
+
+        private static FloatBuffer wrap(float[] column, int from, int to) {
+            return FloatBuffer.wrap(column, from, to - from).slice();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package io.github.thomann.plotvr;
+
+/**
+ * Maps positions in a bounding box to unsigned 16 bit integers and back.
+ * <p/>
+ * <p>Every axis is divided into {@link #LEVELS} steps; a quantized value q stands for
+ * offset + q * scale. Rounding to the nearest step, the error is at most half a step,
+ * i.e. the extent of the box divided by 131070, see {@link #getMaxError()}. So the error grows
+ * with the box: below 0.001 for a box of 100 units, but already half the size of a cube
+ * for a box of 13000 units.
+ * <p/>
+ * <p>The shader undoes the quantization with the scale and offset of the box as uniforms.
+ */
+public class Quantization {
+
+    public static final int LEVELS = 65535;
+    public static final int AXES = 3;
+
+    private final float[] offset = new float[AXES];
+    private final float[] scale = new float[AXES];
+    private final double[] inverseScale = new double[AXES];
+
+    /**
+     * @param min the lower corner of the box.
+     * @param max the upper corner of the box.
+     */
+    public Quantization(float[] min, float[] max) {
+        for (int axis = 0; axis < AXES; axis++) {
+            // a flat box still needs a positive scale
+            float extent = Math.max(max[axis] - min[axis], Math.ulp(Math.abs(min[axis])) + Float.MIN_NORMAL);
+            offset[axis] = min[axis];
+            scale[axis] = extent / LEVELS;
+            inverseScale[axis] = LEVELS / (double) extent;
+        }
+    }
+
+    /**
+     * The bounding box of the samples, grown by margin on every side.
+     *
+     * @return null if there are no samples.
+     */
+    public static Quantization of(PointTable table, float margin) {
+        float[] min = new float[AXES];
+        float[] max = new float[AXES];
+        if (table == null || !bounds(table, 0, table.size(), min, max))
+            return null;
+        for (int axis = 0; axis < AXES; axis++) {
+            min[axis] -= margin;
+            max[axis] += margin;
+        }
+        return new Quantization(min, max);
+    }
+
+    /**
+     * Finds the bounding box of the samples from (inclusive) to to (exclusive) that are not deleted.
+     *
+     * @return false if there are no such samples.
+     */
+    public static boolean bounds(PointTable table, int from, int to, float[] min, float[] max) {
+        for (int axis = 0; axis < AXES; axis++) {
+            min[axis] = Float.POSITIVE_INFINITY;
+            max[axis] = Float.NEGATIVE_INFINITY;
+        }
+        for (int i = from; i < to; i++) {
+            if (table.isDeleted(i))
+                continue;
+            include(min, max, PointTable.X, table.getX(i));
+            include(min, max, PointTable.Y, table.getY(i));
+            include(min, max, PointTable.Z, table.getZ(i));
+        }
+        return min[0] <= max[0];
+    }
+
+    private static void include(float[] min, float[] max, int axis, float value) {
+        // NaN is neither smaller nor larger, hence never widens the box
+        if (value < min[axis])
+            min[axis] = value;
+        if (value > max[axis])
+            max[axis] = value;
+    }
+
+    /**
+     * @return whether the box from min to max grown by margin lies inside this box.
+     */
+    public boolean contains(float[] min, float[] max, float margin) {
+        for (int axis = 0; axis < AXES; axis++)
+            if (min[axis] - margin < offset[axis] || max[axis] + margin > getMax(axis))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the upper end of the box.
+     */
+    public float getMax(int axis) {
+        return offset[axis] + LEVELS * scale[axis];
+    }
+
+    /**
+     * @return the nearest step, as unsigned value in a short; positions outside the box are clamped.
+     */
+    public short quantize(int axis, float value) {
+        // in double, so that rounding to the step is not disturbed by float rounding
+        double q = (value - (double) offset[axis]) * inverseScale[axis] + 0.5;
+        if (!(q >= 0))
+            return 0;
+        if (q >= LEVELS)
+            return (short) LEVELS;
+        return (short) (int) q;
+    }
+
+    public float dequantize(int axis, short quantized) {
+        return offset[axis] + (quantized & 0xFFFF) * scale[axis];
+    }
+
+    /**
+     * @return the largest possible difference between a position in the box and its dequantized value.
+     */
+    public float getMaxError(int axis) {
+        return scale[axis] / 2;
+    }
+
+    /**
+     * @return the largest possible error on any axis.
+     */
+    public float getMaxError() {
+        return Math.max(getMaxError(0), Math.max(getMaxError(1), getMaxError(2)));
+    }
+
+    public float getOffset(int axis) {
+        return offset[axis];
+    }
+
+    public float getScale(int axis) {
+        return scale[axis];
+    }
+
+    /**
+     * Copies the offsets of all axes, as needed for the shader uniform.
+     */
+    public void getOffset(float[] offset, int index) {
+        System.arraycopy(this.offset, 0, offset, index, AXES);
+    }
+
+    /**
+     * Copies the scales of all axes, as needed for the shader uniform.
+     */
+    public void getScale(float[] scale, int index) {
+        System.arraycopy(this.scale, 0, scale, index, AXES);
+    }
+
+    @Override
+    public String toString() {
+        return "{ Quantization: offset=" + offset[0] + "," + offset[1] + "," + offset[2]
+                + ", scale=" + scale[0] + "," + scale[1] + "," + scale[2] + " }";
+    }
+}
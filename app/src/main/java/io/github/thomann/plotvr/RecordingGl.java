@@ -0,0 +1,353 @@
+package io.github.thomann.plotvr;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Draws nothing, but counts what the renderer asks for: draw calls, vertices, bytes uploaded and
+ * changes of state. With it the renderer runs without a GL context, in local unit tests or to
+ * measure the CPU cost of a frame on its own.
+ * <p/>
+ * <p>Names of programs, shaders, buffers and textures are handed out in sequence, shaders always
+ * compile, and locations of attributes and uniforms are simply numbered. Like GL it reports
+ * misuse through {@link #glGetError()}: uploading to no buffer or beyond its size, drawing
+ * without a program, and calls of GLES 3 on GLES 2. Not thread safe, like a GL context.
+ */
+class RecordingGl implements Gl {
+
+    private final boolean gles3;
+    private int nextName = 1;
+    private int nextLocation = 0;
+    private int error = GLES20.GL_NO_ERROR;
+
+    private int arrayBuffer = 0;
+    private int program = 0;
+    // the bytes of the live buffer objects
+    private final Map<Integer, Integer> bufferSizes = new HashMap<Integer, Integer>();
+
+    private int programs = 0;
+    private long drawCalls = 0;
+    private long vertices = 0;
+    private long bytesUploaded = 0;
+    private long bufferAllocations = 0;
+    private long programSwitches = 0;
+    private long bindings = 0;
+    private long uniforms = 0;
+
+    /**
+     * @param gles3 whether to be a context of GLES 3, with instanced drawing, or of GLES 2.
+     */
+    RecordingGl(boolean gles3) {
+        this.gles3 = gles3;
+    }
+
+    /**
+     * Sets the counts of calls back to 0, e.g. before a frame. Objects and errors stay.
+     */
+    void resetCounts() {
+        drawCalls = 0;
+        vertices = 0;
+        bytesUploaded = 0;
+        bufferAllocations = 0;
+        programSwitches = 0;
+        bindings = 0;
+        uniforms = 0;
+    }
+
+    private void setError(int code) {
+        // like GL, the first error sticks until it is read
+        if (error == GLES20.GL_NO_ERROR)
+            error = code;
+    }
+
+    private void requireGles3() {
+        if (!gles3)
+            setError(GLES20.GL_INVALID_OPERATION);
+    }
+
+    /**
+     * @return the programs linked so far.
+     */
+    int getPrograms() {
+        return programs;
+    }
+
+    /**
+     * @return the buffer objects generated and not deleted.
+     */
+    int getLiveBuffers() {
+        return bufferSizes.size();
+    }
+
+    long getDrawCalls() {
+        return drawCalls;
+    }
+
+    /**
+     * @return the vertices drawn, counting every instance.
+     */
+    long getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return the bytes sent to buffers and textures.
+     */
+    long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /**
+     * @return how often the store of a buffer object was allocated anew.
+     */
+    long getBufferAllocations() {
+        return bufferAllocations;
+    }
+
+    /**
+     * @return how often another program was made current.
+     */
+    long getProgramSwitches() {
+        return programSwitches;
+    }
+
+    /**
+     * @return the bindings of buffers and textures.
+     */
+    long getBindings() {
+        return bindings;
+    }
+
+    /**
+     * @return the uniforms set.
+     */
+    long getUniforms() {
+        return uniforms;
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        bindings++;
+        if (target == GLES20.GL_ARRAY_BUFFER)
+            arrayBuffer = buffer;
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        bindings++;
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        if (target != GLES20.GL_ARRAY_BUFFER || arrayBuffer == 0) {
+            setError(GLES20.GL_INVALID_OPERATION);
+            return;
+        }
+        bufferSizes.put(arrayBuffer, size);
+        bufferAllocations++;
+        if (data != null)
+            bytesUploaded += size;
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        if (target != GLES20.GL_ARRAY_BUFFER || arrayBuffer == 0) {
+            setError(GLES20.GL_INVALID_OPERATION);
+            return;
+        }
+        Integer capacity = bufferSizes.get(arrayBuffer);
+        if (offset < 0 || size < 0 || capacity == null || (long) offset + size > capacity) {
+            setError(GLES20.GL_INVALID_VALUE);
+            return;
+        }
+        bytesUploaded += size;
+    }
+
+    @Override
+    public void glClear(int mask) {
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return nextName++;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return nextName++;
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            bufferSizes.remove(buffers[offset + i]);
+            if (arrayBuffer == buffers[offset + i])
+                arrayBuffer = 0;
+        }
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        if (program == 0) {
+            setError(GLES20.GL_INVALID_OPERATION);
+            return;
+        }
+        drawCalls++;
+        vertices += count;
+    }
+
+    @Override
+    public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount) {
+        requireGles3();
+        if (program == 0) {
+            setError(GLES20.GL_INVALID_OPERATION);
+            return;
+        }
+        drawCalls++;
+        vertices += (long) count * instanceCount;
+    }
+
+    @Override
+    public void glEnable(int cap) {
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = nextName++;
+            bufferSizes.put(buffers[offset + i], 0);
+        }
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        for (int i = 0; i < n; i++)
+            textures[offset + i] = nextName++;
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return nextLocation++;
+    }
+
+    @Override
+    public int glGetError() {
+        int code = error;
+        error = GLES20.GL_NO_ERROR;
+        return code;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return "";
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        params[offset] = pname == GLES20.GL_COMPILE_STATUS ? 1 : 0;
+    }
+
+    @Override
+    public String glGetString(int name) {
+        if (name != GLES20.GL_VERSION)
+            return null;
+        return gles3 ? "OpenGL ES 3.0 recording" : "OpenGL ES 2.0 recording";
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return nextLocation++;
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        programs++;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                             int format, int type, Buffer pixels) {
+        // RGBA bytes, the only format the renderer uploads
+        if (pixels != null)
+            bytesUploaded += 4L * width * height;
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        uniforms++;
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        uniforms++;
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        uniforms++;
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        uniforms++;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        if (program != this.program)
+            programSwitches++;
+        this.program = program;
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        requireGles3();
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+    }
+
+    @Override
+    public String toString() {
+        return "{ RecordingGl: " + (gles3 ? "GLES 3" : "GLES 2") + ", drawCalls=" + drawCalls
+                + ", vertices=" + vertices + ", bytesUploaded=" + bytesUploaded
+                + ", bufferAllocations=" + bufferAllocations + ", programSwitches=" + programSwitches
+                + ", bindings=" + bindings + ", uniforms=" + uniforms + " }";
+    }
+}
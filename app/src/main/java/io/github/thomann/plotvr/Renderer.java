@@ -20,7 +20,18 @@ import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
@@ -33,6 +44,7 @@ public class Renderer implements StereoRenderer {
     private static final String TAG = "Renderer";
 
     private PlotVRActivity plotVr;
+    private final Gl gl;
 
     private Vibrator vibrator;
 
@@ -56,20 +68,161 @@ public class Renderer implements StereoRenderer {
     private FloatBuffer floorColors;
     private FloatBuffer floorNormals;
 
-    private FloatBuffer cubeVertices;
-    private FloatBuffer cubeColors;
-    private FloatBuffer cubeNormals;
+    // the GPU copies of the buffers, uploaded once when they change instead of for every eye
+    private final VertexBuffer floorVertexBuffer = new VertexBuffer(GLES20.GL_STATIC_DRAW);
+    private final VertexBuffer floorColorBuffer = new VertexBuffer(GLES20.GL_STATIC_DRAW);
+    private final VertexBuffer floorNormalBuffer = new VertexBuffer(GLES20.GL_STATIC_DRAW);
+    private final VertexBuffer cubeVertexBuffer = new VertexBuffer(GLES20.GL_STATIC_DRAW);
+    private final VertexBuffer cubeMeshVertexBuffer = new VertexBuffer(GLES20.GL_STATIC_DRAW);
+    private final VertexBuffer cubeMeshNormalBuffer = new VertexBuffer(GLES20.GL_STATIC_DRAW);
+    private final VertexBuffer nearVertexBuffer = new VertexBuffer(GLES20.GL_DYNAMIC_DRAW);
+    private final VertexBuffer farVertexBuffer = new VertexBuffer(GLES20.GL_DYNAMIC_DRAW);
+    private final VertexBuffer[] vertexBuffers = {floorVertexBuffer, floorColorBuffer, floorNormalBuffer,
+            cubeVertexBuffer, cubeMeshVertexBuffer, cubeMeshNormalBuffer, nearVertexBuffer, farVertexBuffer};
+
+    private static final int[] COLOR_PALETTE = {Color.BLACK, Color.RED, Color.GREEN, Color.BLUE, Color.CYAN, Color.MAGENTA, Color.YELLOW, Color.GRAY};
+    private static final ColorMap[] COLOR_MAPS = {ColorMap.palette("palette", COLOR_PALETTE),
+            ColorMap.VIRIDIS, ColorMap.MAGMA};
+    // the colors of the color levels of the geometry, as a texture for all programs
+    private ColorMap colorMap = COLOR_MAPS[0];
+    private final float[] colorLookup = new float[3];
+    private int colorMapTexture = 0;
+
+    // the cubes of all samples, replaced as a whole by one built in the background
+    private CubeGeometry geometry = new CubeGeometry(0, false, true, false);
+    private static final int CUBE_VERTICES = 36;
+    // the rebuild we wait for, older ones are thrown away when they come in
+    private int buildGeneration = 0;
+    private boolean building = false;
+    private final AtomicReference<CubeGeometry> builtGeometry = new AtomicReference<CubeGeometry>();
+    // deltas coming in while building, applied once the new geometry is there and written
+    private final List<Delta> pendingDeltas = new ArrayList<Delta>();
+    // whether the builder is writing the geometry it handed over to the GeometryCache, which
+    // must not change nor go back to the pool meanwhile
+    private volatile boolean caching = false;
+    private final ExecutorService geometryBuilder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "GeometryBuilder");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // write the ranges of a rebuild, started on demand and ending when idle
+    private final int geometryThreads = Runtime.getRuntime().availableProcessors();
+    private final ThreadPoolExecutor geometryWorkers = new ThreadPoolExecutor(geometryThreads, geometryThreads,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "GeometryWorker-" + ++count);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // on GLES 3 every cube is an instance of one mesh, otherwise we write 36 vertices per cube
+    private boolean instanced = false;
+    private FloatBuffer cubeMeshVertices;
+    private FloatBuffer cubeMeshNormals;
+
+    private static final float SCALE_CUBE = CubeGeometry.SCALE_CUBE;
+
+    // draws every sample as one point shaded like a sphere instead of a cube,
+    // with the same per sample geometry as instances
+    private boolean pointSprites = false;
+    private int surfaceHeight = 1;
+    // the size of a point in pixels at distance 1, for the current eye
+    private float pointScale;
+
+    // near samples are drawn as cubes, far ones as points, and those smaller than a pixel not at all
+    private boolean levelOfDetail = false;
+    private final LevelOfDetail lod = new LevelOfDetail();
+    // cubes smaller than this many pixels become points
+    private static final float LOD_CUBE_PIXELS = 6f;
+    private static final float LOD_MIN_PIXELS = 1f;
+    // samples looked at per frame while selecting
+    private static final int LOD_BUDGET = 100000;
+    private final float[] lodMatrix = new float[16];
+    private final float[] lodInverse = new float[16];
+    private final float[] eyeInModel = new float[3];
+
+    // positions are quantized to 16 bit in the box of the geometry, these undo it in the shaders
+    private boolean quantizePositions = false;
+    private final float[] positionScale = {1f, 1f, 1f};
+    private final float[] positionOffset = new float[3];
+    private static final float[] NO_SCALE = {1f, 1f, 1f};
+    private static final float[] NO_OFFSET = new float[3];
+
+    // the cubes are ordered by an octree, if there are enough of them to cull any
+    private static final int OCTREE_LEAF_SIZE = 1024;
+    // smaller geometry is built faster than read from the geometry cache
+    static final int GEOMETRY_CACHE_MIN_SAMPLES = 100000;
+    // the ranges of cubes in the view frustum of the current eye
+    private int[] drawFirst = new int[16];
+    private int[] drawCount = new int[16];
+    private int drawRanges = 0;
+    // a single range, for the selections of the level of detail
+    private final int[] singleFirst = {0};
+    private final int[] singleCount = new int[1];
+
+    // cull once per frame in onNewFrame for a frustum holding the frusta of both eyes
+    private boolean shareCulling = true;
+    private boolean culledForFrame = false;
+    // the eyes are at most this far from the head, so this much more around a cube may be visible
+    private static final float EYE_OFFSET = 0.05f;
+    private final float[][] eyesPerspectives = new float[3][16];
+    private final boolean[] hasEyePerspective = new boolean[3];
+    private final float[] cullHeadView = new float[16];
+    private final float[] cullProjection = new float[16];
+    private final float[] cullModelView = new float[16];
+    private final float[] cullModelViewProjection = new float[16];
+
+    private final FrameTimer frameTimer = new FrameTimer(300);
+
+    // data changes are handed over to the GL thread, see runOnGlThread()
+    private final Queue<Runnable> glThreadTasks = new ConcurrentLinkedQueue<Runnable>();
 
     private int cubeProgram;
     private int floorProgram;
+    private int instancedProgram;
+    private int pointProgram;
 
     private int cubePositionParam;
     private int cubeNormalParam;
     private int cubeColorParam;
-    private int cubeModelParam;
+    private int cubeColorLookupParam;
+    private int cubeColorMapParam;
     private int cubeModelViewParam;
     private int cubeModelViewProjectionParam;
     private int cubeLightPosParam;
+    private int cubePositionScaleParam;
+    private int cubePositionOffsetParam;
+
+    private int instancedPositionParam;
+    private int instancedNormalParam;
+    private int instancedInstanceParam;
+    private int instancedModelViewParam;
+    private int instancedModelViewProjectionParam;
+    private int instancedLightPosParam;
+    private int instancedPositionScaleParam;
+    private int instancedPositionOffsetParam;
+    private int instancedCubeSizeParam;
+    private int instancedDeletedParam;
+    private int instancedColorLookupParam;
+    private int instancedColorMapParam;
+
+    private int pointInstanceParam;
+    private int pointModelViewParam;
+    private int pointModelViewProjectionParam;
+    private int pointLightPosParam;
+    private int pointPositionScaleParam;
+    private int pointPositionOffsetParam;
+    private int pointScaleParam;
+    private int pointDeletedParam;
+    private int pointColorLookupParam;
+    private int pointColorMapParam;
 
     private int floorPositionParam;
     private int floorNormalParam;
@@ -78,6 +231,8 @@ public class Renderer implements StereoRenderer {
     private int floorModelViewParam;
     private int floorModelViewProjectionParam;
     private int floorLightPosParam;
+    private int floorPositionScaleParam;
+    private int floorPositionOffsetParam;
 
     private float[] modelCube;
     private float[] camera;
@@ -89,11 +244,23 @@ public class Renderer implements StereoRenderer {
 
     private float[] headPreView;
     private float[] lastOkHeadView;
+    // the latest camera pose from the server, taken over at the next frame
+    private final float[] pendingCamera = new float[16];
+    private boolean hasPendingCamera = false;
     public boolean doTrackHead = true;
     private float[][] eyesViews = new float[3][16];
 
     float[][] vectorTriangle = new float[3][4];
 
+    // scratch space of the input handlers, so that neither moving nor turning allocates;
+    // they may run on other threads than the GL thread, so each has its own
+    private final float[] trackHeadView = new float[16];
+    private final float[] trackHeadInverse = new float[16];
+    private final float[] hideRotation = new float[16];
+    private final float[] hidePosition = new float[4];
+    private final float[] lookPosition = new float[4];
+    private static final float[] ORIGIN = {0, 0, 0, 1.0f};
+
     private float objectDistance = 12f;
     private float floorDepth = 20f;
 
@@ -102,11 +269,18 @@ public class Renderer implements StereoRenderer {
     private boolean doWalking = false;
     private boolean doDrawFloor = true;
 
-    private static final int[] COLOR_PALETTE = {Color.BLACK, Color.RED, Color.GREEN, Color.BLUE, Color.CYAN, Color.MAGENTA, Color.YELLOW, Color.GRAY};
-    private float[][] colorsMatrix;
-
     public Renderer(PlotVRActivity plotVr) {
+        this(plotVr, new AndroidGl());
+    }
+
+    /**
+     * @param plotVr may be null to run without the app, e.g. on a {@link RecordingGl} in tests:
+     *               the shaders are empty, and there is no vibration and no geometry cache.
+     * @param gl     the calls of all drawing go there.
+     */
+    Renderer(PlotVRActivity plotVr, Gl gl) {
         this.plotVr = plotVr;
+        this.gl = gl;
         modelCube = new float[16];
         camera = new float[16];
         view = new float[16];
@@ -114,7 +288,8 @@ public class Renderer implements StereoRenderer {
         modelView = new float[16];
         modelFloor = new float[16];
         headView = new float[16];
-        vibrator = (Vibrator) plotVr.getSystemService(Context.VIBRATOR_SERVICE);
+        vibrator = plotVr == null ? null : (Vibrator) plotVr.getSystemService(Context.VIBRATOR_SERVICE);
+        geometryWorkers.allowCoreThreadTimeOut(true);
 
         headPreView = new float[16];
         lastOkHeadView = new float[16];
@@ -125,11 +300,14 @@ public class Renderer implements StereoRenderer {
     @Override
     public void onRendererShutdown() {
         Log.i(Renderer.TAG, "onRendererShutdown");
+        for (VertexBuffer buffer : vertexBuffers)
+            buffer.release();
     }
 
     @Override
     public void onSurfaceChanged(int width, int height) {
         Log.i(Renderer.TAG, "onSurfaceChanged");
+        surfaceHeight = height;
     }
 
     /**
@@ -143,9 +321,20 @@ public class Renderer implements StereoRenderer {
     @Override
     public void onSurfaceCreated(EGLConfig config) {
         Log.i(Renderer.TAG, "onSurfaceCreated");
-        GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
-
-        makeCubes();
+        gl.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
+
+        // Android hands out the highest version compatible with GLES 2, so we may get GLES 3
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        instanced = version != null && version.startsWith("OpenGL ES ") && !version.startsWith("OpenGL ES 2");
+        Log.i(Renderer.TAG, version + ", drawing cubes " + (instanced ? "instanced" : "as triangles"));
+        // a new context, maybe after losing the former one with all its buffers
+        for (VertexBuffer buffer : vertexBuffers)
+            buffer.create(gl);
+        // the geometry is kept and uploaded again, just the cubes in use, unless it does not fit
+        // this context
+        cubeVertexBuffer.discard();
+        if (geometry.isPerSample() != isPerSample())
+            rebuildGeometry();
 
         // make a floor
         ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COORDS.length * 4);
@@ -168,54 +357,66 @@ public class Renderer implements StereoRenderer {
 
         int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
         int gridShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.grid_fragment);
-        int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
+        int cubeShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.cube_vertex);
+        int colorMapShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.colormap_fragment);
+
+        makeColorMapTexture();
 
-        cubeProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(cubeProgram, vertexShader);
-        GLES20.glAttachShader(cubeProgram, passthroughShader);
-        GLES20.glLinkProgram(cubeProgram);
-        GLES20.glUseProgram(cubeProgram);
+        cubeProgram = gl.glCreateProgram();
+        gl.glAttachShader(cubeProgram, cubeShader);
+        gl.glAttachShader(cubeProgram, colorMapShader);
+        gl.glLinkProgram(cubeProgram);
+        gl.glUseProgram(cubeProgram);
 
         checkGLError("Cube program");
 
-        cubePositionParam = GLES20.glGetAttribLocation(cubeProgram, "a_Position");
-        cubeNormalParam = GLES20.glGetAttribLocation(cubeProgram, "a_Normal");
-        cubeColorParam = GLES20.glGetAttribLocation(cubeProgram, "a_Color");
+        cubePositionParam = gl.glGetAttribLocation(cubeProgram, "a_Position");
+        cubeNormalParam = gl.glGetAttribLocation(cubeProgram, "a_Normal");
+        cubeColorParam = gl.glGetAttribLocation(cubeProgram, "a_ColorLevel");
 
-        cubeModelParam = GLES20.glGetUniformLocation(cubeProgram, "u_Model");
-        cubeModelViewParam = GLES20.glGetUniformLocation(cubeProgram, "u_MVMatrix");
-        cubeModelViewProjectionParam = GLES20.glGetUniformLocation(cubeProgram, "u_MVP");
-        cubeLightPosParam = GLES20.glGetUniformLocation(cubeProgram, "u_LightPos");
+        cubeModelViewParam = gl.glGetUniformLocation(cubeProgram, "u_MVMatrix");
+        cubeModelViewProjectionParam = gl.glGetUniformLocation(cubeProgram, "u_MVP");
+        cubeLightPosParam = gl.glGetUniformLocation(cubeProgram, "u_LightPos");
+        cubePositionScaleParam = gl.glGetUniformLocation(cubeProgram, "u_PositionScale");
+        cubePositionOffsetParam = gl.glGetUniformLocation(cubeProgram, "u_PositionOffset");
+        cubeColorLookupParam = gl.glGetUniformLocation(cubeProgram, "u_ColorLookup");
+        cubeColorMapParam = gl.glGetUniformLocation(cubeProgram, "u_ColorMap");
 
-        GLES20.glEnableVertexAttribArray(cubePositionParam);
-        GLES20.glEnableVertexAttribArray(cubeNormalParam);
-        GLES20.glEnableVertexAttribArray(cubeColorParam);
+        gl.glEnableVertexAttribArray(cubePositionParam);
+        gl.glEnableVertexAttribArray(cubeNormalParam);
+        gl.glEnableVertexAttribArray(cubeColorParam);
 
         checkGLError("Cube program params");
 
-        floorProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(floorProgram, vertexShader);
-        GLES20.glAttachShader(floorProgram, gridShader);
-        GLES20.glLinkProgram(floorProgram);
-        GLES20.glUseProgram(floorProgram);
+        floorProgram = gl.glCreateProgram();
+        gl.glAttachShader(floorProgram, vertexShader);
+        gl.glAttachShader(floorProgram, gridShader);
+        gl.glLinkProgram(floorProgram);
+        gl.glUseProgram(floorProgram);
 
         checkGLError("Floor program");
 
-        floorModelParam = GLES20.glGetUniformLocation(floorProgram, "u_Model");
-        floorModelViewParam = GLES20.glGetUniformLocation(floorProgram, "u_MVMatrix");
-        floorModelViewProjectionParam = GLES20.glGetUniformLocation(floorProgram, "u_MVP");
-        floorLightPosParam = GLES20.glGetUniformLocation(floorProgram, "u_LightPos");
+        floorModelParam = gl.glGetUniformLocation(floorProgram, "u_Model");
+        floorModelViewParam = gl.glGetUniformLocation(floorProgram, "u_MVMatrix");
+        floorModelViewProjectionParam = gl.glGetUniformLocation(floorProgram, "u_MVP");
+        floorLightPosParam = gl.glGetUniformLocation(floorProgram, "u_LightPos");
+        floorPositionScaleParam = gl.glGetUniformLocation(floorProgram, "u_PositionScale");
+        floorPositionOffsetParam = gl.glGetUniformLocation(floorProgram, "u_PositionOffset");
 
-        floorPositionParam = GLES20.glGetAttribLocation(floorProgram, "a_Position");
-        floorNormalParam = GLES20.glGetAttribLocation(floorProgram, "a_Normal");
-        floorColorParam = GLES20.glGetAttribLocation(floorProgram, "a_Color");
+        floorPositionParam = gl.glGetAttribLocation(floorProgram, "a_Position");
+        floorNormalParam = gl.glGetAttribLocation(floorProgram, "a_Normal");
+        floorColorParam = gl.glGetAttribLocation(floorProgram, "a_Color");
 
-        GLES20.glEnableVertexAttribArray(floorPositionParam);
-        GLES20.glEnableVertexAttribArray(floorNormalParam);
-        GLES20.glEnableVertexAttribArray(floorColorParam);
+        gl.glEnableVertexAttribArray(floorPositionParam);
+        gl.glEnableVertexAttribArray(floorNormalParam);
+        gl.glEnableVertexAttribArray(floorColorParam);
 
         checkGLError("Floor program params");
 
+        if (instanced)
+            makeInstancedProgram(colorMapShader);
+        makePointProgram();
+
         // Object first appears directly in front of user.
         Matrix.setIdentityM(modelCube, 0);
         Matrix.translateM(modelCube, 0, 0, 0, -objectDistance);
@@ -253,100 +454,278 @@ public class Renderer implements StereoRenderer {
         checkGLError("onSurfaceCreated");
     }
 
-    public float[] getColorsMatrix(int col_index) {
-        if (colorsMatrix == null) {
-            int length = WorldLayoutData.CUBE_COLORS.length;
-            colorsMatrix = new float[COLOR_PALETTE.length][length];
-            for (int c = 0; c < COLOR_PALETTE.length; c++) {
-                float r = Color.red(COLOR_PALETTE[c]) / 256f;
-                float g = Color.green(COLOR_PALETTE[c]) / 256f;
-                float b = Color.blue(COLOR_PALETTE[c]) / 256f;
-                for (int i = 0; i < length; i += 4) {
-                    colorsMatrix[c][i + 0] = r;
-                    colorsMatrix[c][i + 1] = g;
-                    colorsMatrix[c][i + 2] = b;
-                    colorsMatrix[c][i + 3] = 1f;
-                }
-            }
-        }
-        if (col_index > colorsMatrix.length)
-            col_index = col_index % colorsMatrix.length;
-        return colorsMatrix[col_index];
+    private void makeInstancedProgram(int colorMapShader) {
+        cubeMeshVertices = newFloatBuffer(WorldLayoutData.CUBE_COORDS);
+        cubeMeshNormals = newFloatBuffer(WorldLayoutData.CUBE_NORMALS);
+
+        int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.instanced_vertex);
+        instancedProgram = gl.glCreateProgram();
+        gl.glAttachShader(instancedProgram, vertexShader);
+        gl.glAttachShader(instancedProgram, colorMapShader);
+        gl.glLinkProgram(instancedProgram);
+        gl.glUseProgram(instancedProgram);
+
+        checkGLError("Instanced program");
+
+        instancedPositionParam = gl.glGetAttribLocation(instancedProgram, "a_Position");
+        instancedNormalParam = gl.glGetAttribLocation(instancedProgram, "a_Normal");
+        instancedInstanceParam = gl.glGetAttribLocation(instancedProgram, "a_Instance");
+
+        instancedModelViewParam = gl.glGetUniformLocation(instancedProgram, "u_MVMatrix");
+        instancedModelViewProjectionParam = gl.glGetUniformLocation(instancedProgram, "u_MVP");
+        instancedLightPosParam = gl.glGetUniformLocation(instancedProgram, "u_LightPos");
+        instancedPositionScaleParam = gl.glGetUniformLocation(instancedProgram, "u_PositionScale");
+        instancedPositionOffsetParam = gl.glGetUniformLocation(instancedProgram, "u_PositionOffset");
+        instancedCubeSizeParam = gl.glGetUniformLocation(instancedProgram, "u_CubeSize");
+        instancedDeletedParam = gl.glGetUniformLocation(instancedProgram, "u_Deleted");
+        instancedColorLookupParam = gl.glGetUniformLocation(instancedProgram, "u_ColorLookup");
+        instancedColorMapParam = gl.glGetUniformLocation(instancedProgram, "u_ColorMap");
+
+        gl.glEnableVertexAttribArray(instancedPositionParam);
+        gl.glEnableVertexAttribArray(instancedNormalParam);
+        gl.glEnableVertexAttribArray(instancedInstanceParam);
+
+        checkGLError("Instanced program params");
     }
 
-    private void makeCubes() {
+    private void makePointProgram() {
+        int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.point_vertex);
+        int fragmentShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.point_fragment);
+        pointProgram = gl.glCreateProgram();
+        gl.glAttachShader(pointProgram, vertexShader);
+        gl.glAttachShader(pointProgram, fragmentShader);
+        gl.glLinkProgram(pointProgram);
+        gl.glUseProgram(pointProgram);
 
-        if (getmData() == null)
-            return;
+        checkGLError("Point program");
 
-        float SCALE_CUBE = 0.1f;
+        pointInstanceParam = gl.glGetAttribLocation(pointProgram, "a_Instance");
 
-        float[] CUBE_COORDS = WorldLayoutData.CUBE_COORDS;
-        float[] data_coords = new float[getmData().length * CUBE_COORDS.length];
-        float[] CUBE_COLORS = WorldLayoutData.CUBE_COLORS;
-        float[] data_colors = new float[getmData().length * CUBE_COLORS.length];
-        float[] CUBE_NORMALS = WorldLayoutData.CUBE_NORMALS;
-        float[] data_normals = new float[getmData().length * CUBE_NORMALS.length];
+        pointModelViewParam = gl.glGetUniformLocation(pointProgram, "u_MVMatrix");
+        pointModelViewProjectionParam = gl.glGetUniformLocation(pointProgram, "u_MVP");
+        pointLightPosParam = gl.glGetUniformLocation(pointProgram, "u_LightPos");
+        pointPositionScaleParam = gl.glGetUniformLocation(pointProgram, "u_PositionScale");
+        pointPositionOffsetParam = gl.glGetUniformLocation(pointProgram, "u_PositionOffset");
+        pointScaleParam = gl.glGetUniformLocation(pointProgram, "u_PointScale");
+        pointDeletedParam = gl.glGetUniformLocation(pointProgram, "u_Deleted");
+        pointColorLookupParam = gl.glGetUniformLocation(pointProgram, "u_ColorLookup");
+        pointColorMapParam = gl.glGetUniformLocation(pointProgram, "u_ColorMap");
+
+        gl.glEnableVertexAttribArray(pointInstanceParam);
+
+        checkGLError("Point program params");
+    }
 
-        float[] t = new float[16];
+    /**
+     * Creates the texture of the color map in the current context.
+     */
+    private void makeColorMapTexture() {
+        int[] textures = new int[1];
+        gl.glGenTextures(1, textures, 0);
+        colorMapTexture = textures[0];
+        uploadColorMap();
+    }
 
-        for (int i = 0; i < getmData().length; i++) {
-            float[] sample = getmData()[i];
-            int color_index = (int) sample[3];
-            int offset;
+    /**
+     * Replaces the texels of the color map texture: interpolated for continuous colors,
+     * exact for a palette. Must run on the GL thread.
+     */
+    private void uploadColorMap() {
+        colorMap.getLookup(colorLookup);
+        if (colorMapTexture == 0)
+            return;
+        int filter = colorMap.isContinuous() ? GLES20.GL_LINEAR : GLES20.GL_NEAREST;
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, colorMapTexture);
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, filter);
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, filter);
+        // palettes need not have a power of two colors
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, colorMap.getTexels(), 1, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, ByteBuffer.wrap(colorMap.getTexture()));
+        checkGLError("Color map");
+    }
 
-            // first the vertices
-            offset = i * CUBE_COORDS.length;
-            int j = 0;
-            for (int v = 0; v < CUBE_COORDS.length; v++) {
-                data_coords[offset + v] = SCALE_CUBE * CUBE_COORDS[v] + sample[v % 3];
+    /**
+     * Binds the color map texture to unit 0 and sets the uniforms of the color lookup.
+     */
+    private void bindColorMap(int colorMapParam, int colorLookupParam) {
+        gl.glActiveTexture(GLES20.GL_TEXTURE0);
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, colorMapTexture);
+        gl.glUniform1i(colorMapParam, 0);
+        gl.glUniform3fv(colorLookupParam, 1, colorLookup, 0);
+    }
+
+    private static FloatBuffer newFloatBuffer(float[] values) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(values);
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * Builds the cubes of all samples anew in the background. The current geometry is drawn
+     * until the new one is complete, see {@link #takeBuiltGeometry()}. Must run on the GL thread.
+     */
+    private void rebuildGeometry() {
+        final int generation = ++buildGeneration;
+        final PointTable table = getmData();
+        final boolean perSample = isPerSample();
+        final boolean quantize = quantizePositions;
+        final boolean continuousColors = colorMap.isContinuous();
+        final GeometryCache cache = getGeometryCache();
+        final String contentHash = table == null || table.size() < GEOMETRY_CACHE_MIN_SAMPLES
+                ? null : data.getContentHash();
+        building = true;
+        geometryBuilder.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                CubeGeometry built = null;
+                if (cache != null && contentHash != null)
+                    built = cache.get(contentHash, table.size(), generation, perSample, quantize, continuousColors);
+                if (built != null) {
+                    Log.i(TAG, "Mapped " + built.getCount() + " cached cubes in "
+                            + (System.nanoTime() - start) / 1000000 + " ms");
+                } else {
+                    try {
+                        built = CubeGeometry.build(generation, table, perSample, quantize,
+                                continuousColors, OCTREE_LEAF_SIZE, geometryWorkers, geometryThreads);
+                    } catch (IllegalArgumentException e) {
+                        // e.g. too many samples to draw as triangles; the build is over nevertheless
+                        Log.e(TAG, "Cannot build the cubes: " + e.getMessage());
+                        built = new CubeGeometry(generation, perSample, quantize, continuousColors);
+                    }
+                    Log.i(TAG, "Built " + built.getCount() + " cubes in "
+                            + (System.nanoTime() - start) / 1000000 + " ms");
+                    // written after handing it over, so that drawing it does not wait for the disk
+                    if (cache != null && contentHash != null && built.getCount() > 0)
+                        caching = true;
+                }
+                CubeGeometry stale = builtGeometry.getAndSet(built);
+                if (stale != null)
+                    stale.release();
+                if (caching) {
+                    try {
+                        cache.put(contentHash, built);
+                    } finally {
+                        caching = false;
+                    }
+                }
             }
-            // now the colors
-            offset = i * CUBE_COLORS.length;
-            System.arraycopy(getColorsMatrix(color_index), 0, data_colors, offset, CUBE_COLORS.length);
-//            for(int v=0; v<CUBE_COLORS.length; v+=4){
-//                int col = COLOR_PALETTE[color_index];
-//                data_colors[offset+v+0] = Color.red(col)/256f;
-//                data_colors[offset+v+1] = Color.green(col)/256f;
-//                data_colors[offset+v+2] = Color.blue(col)/256f;
-//                data_colors[offset+v+3] = 1f;
-//            }
-            // finally the normals
-            offset = i * CUBE_NORMALS.length;
-            System.arraycopy(CUBE_NORMALS, 0, data_normals, offset, CUBE_NORMALS.length);
+        });
+    }
+
+    /**
+     * @return the cache of built geometry, null if there is none.
+     */
+    GeometryCache getGeometryCache() {
+        return plotVr == null ? null : plotVr.getGeometryCache();
+    }
+
+    /**
+     * Replaces the geometry by the one built in the background, if it is there and still
+     * wanted. The old one is dropped once the new one is uploaded in its place.
+     * Must run on the GL thread.
+     */
+    private void takeBuiltGeometry() {
+        CubeGeometry built = builtGeometry.getAndSet(null);
+        if (built == null)
+            return;
+        if (built.getGeneration() != buildGeneration) {
+            release(built);
+            return;
         }
+        replaceGeometry(built);
+        building = false;
+        Log.i(TAG, "Swapped in " + built.getCount() + " cubes, " + BufferPool.getDefault());
+    }
 
-//        data_coords = CUBE_COORDS;
-//        data_colors = CUBE_COLORS;
-//        data_normals = CUBE_NORMALS;
+    /**
+     * Applies the deltas that came in while the geometry was built or written to the cache,
+     * once it is neither. Must run on the GL thread.
+     */
+    private void applyPendingDeltas() {
+        if (pendingDeltas.isEmpty() || building || caching)
+            return;
+        for (int i = 0; i < pendingDeltas.size(); i++)
+            applyDeltaNow(pendingDeltas.get(i));
+        pendingDeltas.clear();
+        rebuildIfTooCoarse();
+    }
 
-//        for(int i=0; i<CUBE_COORDS.length; i++)
-//            if(CUBE_COORDS[i] != data_coords[i])
-//                Log.w(TAG, "Not the same: "+i+": "+CUBE_COORDS[i] +" vs. "+ data_coords[i]);
-//        for(int i=0; i<CUBE_COLORS.length; i++)
-//            if(CUBE_COLORS[i] != data_colors[i])
-//                Log.w(TAG, "Not the same: "+i+": "+CUBE_COLORS[i] +" vs. "+ data_colors[i]);
-//        for(int i=0; i<CUBE_NORMALS.length; i++)
-//            if(CUBE_NORMALS[i] != data_normals[i])
-//                Log.w(TAG, "Not the same: "+i+": "+CUBE_NORMALS[i] +" vs. "+ data_normals[i]);
+    /**
+     * Gives the vertices of a geometry back to the pool, after the builder is done writing
+     * it to the cache if it still is. Must run on the GL thread.
+     */
+    private void release(final CubeGeometry old) {
+        if (!caching) {
+            old.release();
+            return;
+        }
+        // runs after the write, on the same thread
+        geometryBuilder.execute(new Runnable() {
+            @Override
+            public void run() {
+                old.release();
+            }
+        });
+    }
 
-        ByteBuffer bbVertices = ByteBuffer.allocateDirect(data_coords.length * 4);
-        bbVertices.order(ByteOrder.nativeOrder());
-        cubeVertices = bbVertices.asFloatBuffer();
-        cubeVertices.put(data_coords);
-        cubeVertices.position(0);
+    /**
+     * Builds the geometry anew, unquantized, if deltas grew the box of its quantized positions
+     * so far that the error is too large. Must run on the GL thread.
+     */
+    private void rebuildIfTooCoarse() {
+        if (!geometry.isQuantized() || !geometry.isTooCoarse())
+            return;
+        Log.i(TAG, "Quantization too coarse for " + geometry.getQuantization());
+        rebuildGeometry();
+    }
 
-        ByteBuffer bbColors = ByteBuffer.allocateDirect(data_colors.length * 4);
-        bbColors.order(ByteOrder.nativeOrder());
-        this.cubeColors = bbColors.asFloatBuffer();
-        this.cubeColors.put(data_colors);
-        this.cubeColors.position(0);
+    /**
+     * Starts over with an empty geometry right away, for data streamed in chunks.
+     * Drops any rebuild under way. Must run on the GL thread.
+     */
+    private void clearGeometry() {
+        buildGeneration++;
+        building = false;
+        pendingDeltas.clear();
+        replaceGeometry(new CubeGeometry(buildGeneration, isPerSample(), quantizePositions, colorMap.isContinuous()));
+    }
 
-        ByteBuffer bbNormals = ByteBuffer.allocateDirect(data_normals.length * 4);
-        bbNormals.order(ByteOrder.nativeOrder());
-        this.cubeNormals = bbNormals.asFloatBuffer();
-        this.cubeNormals.put(data_normals);
-        this.cubeNormals.position(0);
+    private void replaceGeometry(CubeGeometry replacement) {
+        // nothing refers to the old vertices any more, the GPU has its own copy
+        release(geometry);
+        geometry = replacement;
+        lod.reset();
+        cubeVertexBuffer.discard();
+        geometry.clearDirty();
+    }
+
+    /**
+     * @return whether geometry is being built in the background, to be swapped in by a later frame.
+     * Must run on the GL thread.
+     */
+    boolean isBuilding() {
+        return building;
+    }
+
+    /**
+     * @return whether the geometry has the layout the current settings ask for.
+     */
+    private boolean isGeometryUpToDate() {
+        return geometry.isPerSample() == isPerSample()
+                && geometry.isQuantized() == (quantizePositions && !geometry.isTooCoarse())
+                && geometry.isContinuousColors() == colorMap.isContinuous();
+    }
+
+    /**
+     * @return whether there is one position and color index per sample instead of 36 vertices,
+     * for instances, points or the level of detail.
+     */
+    private boolean isPerSample() {
+        return instanced || pointSprites || levelOfDetail;
     }
 
     /**
@@ -356,6 +735,21 @@ public class Renderer implements StereoRenderer {
      */
     @Override
     public void onNewFrame(HeadTransform headTransform) {
+        frameTimer.setMode(shareCulling ? "culling once per frame" : "culling per eye");
+        frameTimer.begin();
+        Runnable task;
+        while ((task = glThreadTasks.poll()) != null)
+            task.run();
+        takeBuiltGeometry();
+        applyPendingDeltas();
+        uploadGeometry();
+        synchronized (pendingCamera) {
+            if (hasPendingCamera) {
+                System.arraycopy(pendingCamera, 0, camera, 0, 16);
+                hasPendingCamera = false;
+            }
+        }
+
         // Build the Model part of the ModelView matrix.
         //Matrix.rotateM(modelCube, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
 
@@ -375,6 +769,11 @@ public class Renderer implements StereoRenderer {
         if (isDoWalking() && doTrackHead) {
             Matrix.translateM(camera, 0, vectorTriangle[2][0] * TIME_DELTA, vectorTriangle[2][1] * TIME_DELTA, -vectorTriangle[2][2] * TIME_DELTA);
         }
+        if (doTrackHead)
+            System.arraycopy(headView, 0, cullHeadView, 0, 16);
+        culledForFrame = shareCulling && cullForBothEyes();
+        selectLevelOfDetail();
+        frameTimer.end();
 
 //        // Update the 3d audio engine with the most recent head rotation.
 //        headTransform.getQuaternion(headRotation, 0);
@@ -395,8 +794,9 @@ public class Renderer implements StereoRenderer {
      */
     @Override
     public void onDrawEye(Eye eye) {
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        frameTimer.begin();
+        gl.glEnable(GLES20.GL_DEPTH_TEST);
+        gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
         checkGLError("colorParam");
 
@@ -418,6 +818,12 @@ public class Renderer implements StereoRenderer {
         float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
         Matrix.multiplyMM(modelView, 0, view, 0, modelCube, 0);
         Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+        // a cube of size 2 * SCALE_CUBE at distance 1 covers this many pixels
+        pointScale = SCALE_CUBE * perspective[5] * surfaceHeight;
+        System.arraycopy(perspective, 0, eyesPerspectives[eye.getType()], 0, 16);
+        hasEyePerspective[eye.getType()] = true;
+        if (!culledForFrame)
+            cull(modelViewProjection, SCALE_CUBE);
         drawCube();
 
         // Set modelView for the floor, so we draw floor in the correct location
@@ -426,10 +832,12 @@ public class Renderer implements StereoRenderer {
                 modelView, 0);
         if (isDoDrawFloor())
             drawFloor();
+        frameTimer.end();
     }
 
     @Override
     public void onFinishFrame(Viewport viewport) {
+        frameTimer.endFrame();
     }
 
     /**
@@ -438,31 +846,260 @@ public class Renderer implements StereoRenderer {
      * <p>We've set all of our transformation matrices. Now we simply pass them into the shader.
      */
     public void drawCube() {
-        if (getmData() == null || cubeVertices == null || cubeColors == null || cubeNormals == null)
+        // the geometry may still be the one for former settings, while the new one is built
+        if (geometry.isPerSample() && levelOfDetail && lod.hasSelection()) {
+            singleCount[0] = lod.getNearCount();
+            if (instanced && !pointSprites)
+                drawInstancedCubes(nearVertexBuffer, singleFirst, singleCount, 1);
+            else
+                drawPoints(nearVertexBuffer, singleFirst, singleCount, 1);
+            singleCount[0] = lod.getFarCount();
+            drawPoints(farVertexBuffer, singleFirst, singleCount, 1);
             return;
-        GLES20.glUseProgram(cubeProgram);
-
-        GLES20.glUniform3fv(cubeLightPosParam, 1, lightPosInEyeSpace, 0);
+        }
+        if (geometry.isPerSample()) {
+            if (instanced && !pointSprites)
+                drawInstancedCubes(cubeVertexBuffer, drawFirst, drawCount, drawRanges);
+            else
+                drawPoints(cubeVertexBuffer, drawFirst, drawCount, drawRanges);
+            return;
+        }
+        if (drawRanges == 0)
+            return;
+        gl.glUseProgram(cubeProgram);
 
-        // Set the Model in the shader, used to calculate lighting
-        GLES20.glUniformMatrix4fv(cubeModelParam, 1, false, modelCube, 0);
+        gl.glUniform3fv(cubeLightPosParam, 1, lightPosInEyeSpace, 0);
 
         // Set the ModelView in the shader, used to calculate lighting
-        GLES20.glUniformMatrix4fv(cubeModelViewParam, 1, false, modelView, 0);
+        gl.glUniformMatrix4fv(cubeModelViewParam, 1, false, modelView, 0);
 
-        // Set the position of the cube
-        GLES20.glVertexAttribPointer(cubePositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
-                false, 0, cubeVertices);
+        // Set the position of the cube, quantized or not
+        gl.glUniform3fv(cubePositionScaleParam, 1, positionScale, 0);
+        gl.glUniform3fv(cubePositionOffsetParam, 1, positionOffset, 0);
 
         // Set the ModelViewProjection matrix in the shader.
-        GLES20.glUniformMatrix4fv(cubeModelViewProjectionParam, 1, false, modelViewProjection, 0);
+        gl.glUniformMatrix4fv(cubeModelViewProjectionParam, 1, false, modelViewProjection, 0);
+
+        bindColorMap(cubeColorMapParam, cubeColorLookupParam);
+
+        // Position, normal and color level are interleaved in one buffer object
+        int stride = geometry.getVertexBytes();
+        int normalOffset = stride - 8;
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeVertexBuffer.getId());
+        gl.glVertexAttribPointer(cubePositionParam, COORDS_PER_VERTEX,
+                geometry.isQuantized() ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_FLOAT, false, stride, 0);
+        gl.glVertexAttribPointer(cubeNormalParam, 3, GLES20.GL_BYTE, true, stride, normalOffset);
+        gl.glVertexAttribPointer(cubeColorParam, 1, GLES20.GL_FLOAT, false, stride, normalOffset + 4);
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        for (int r = 0; r < drawRanges; r++)
+            gl.glDrawArrays(GLES20.GL_TRIANGLES, CUBE_VERTICES * drawFirst[r], CUBE_VERTICES * drawCount[r]);
+        checkGLError("Drawing cube");
+    }
 
-        // Set the normal positions of the cube, again for shading
-        GLES20.glVertexAttribPointer(cubeNormalParam, 3, GLES20.GL_FLOAT, false, 0, cubeNormals);
-        GLES20.glVertexAttribPointer(cubeColorParam, 4, GLES20.GL_FLOAT, false, 0, cubeColors);
+    /**
+     * Brings the GPU buffers up to date with the geometry, once per frame before drawing both eyes.
+     */
+    private void uploadGeometry() {
+        floorVertexBuffer.upload(floorVertices);
+        floorColorBuffer.upload(floorColors);
+        floorNormalBuffer.upload(floorNormals);
+        if (geometry.isDirty()) {
+            cubeVertexBuffer.invalidate(geometry.getDirtyFrom(), geometry.getDirtyTo());
+            geometry.clearDirty();
+            if (geometry.takeRequantized())
+                // the selected samples are still quantized for the old box
+                lod.reset();
+            else
+                lod.restart();
+        }
+        cubeVertexBuffer.upload(geometry.getVertices(), geometry.getCount() * geometry.getCubeBytes());
+        setPositionUniforms(geometry.getQuantization());
+        if (instanced) {
+            cubeMeshVertexBuffer.upload(cubeMeshVertices);
+            cubeMeshNormalBuffer.upload(cubeMeshNormals);
+        }
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 36 * getmData().length);
-        checkGLError("Drawing cube");
+    private void setPositionUniforms(Quantization quantization) {
+        if (quantization == null) {
+            System.arraycopy(NO_SCALE, 0, positionScale, 0, 3);
+            System.arraycopy(NO_OFFSET, 0, positionOffset, 0, 3);
+        } else {
+            quantization.getScale(positionScale, 0);
+            quantization.getOffset(positionOffset, 0);
+        }
+    }
+
+    /**
+     * Culls once for both eyes, with the head between them: the projection spans the frusta
+     * of the perspectives of both eyes from the last frame, and the cubes are grown by the
+     * distance of the eyes from the head, which together holds everything either eye sees.
+     *
+     * @return false before the perspectives of the eyes are known.
+     */
+    private boolean cullForBothEyes() {
+        float left = Float.POSITIVE_INFINITY;
+        float right = Float.NEGATIVE_INFINITY;
+        float bottom = Float.POSITIVE_INFINITY;
+        float top = Float.NEGATIVE_INFINITY;
+        boolean known = false;
+        for (int type = 0; type < eyesPerspectives.length; type++) {
+            if (!hasEyePerspective[type])
+                continue;
+            // the edges of the frustum at distance 1, from the matrix of Matrix.frustumM
+            float[] p = eyesPerspectives[type];
+            left = Math.min(left, (p[8] - 1) / p[0]);
+            right = Math.max(right, (p[8] + 1) / p[0]);
+            bottom = Math.min(bottom, (p[9] - 1) / p[5]);
+            top = Math.max(top, (p[9] + 1) / p[5]);
+            known = true;
+        }
+        if (!known)
+            return false;
+        Matrix.frustumM(cullProjection, 0, left * Z_NEAR, right * Z_NEAR, bottom * Z_NEAR, top * Z_NEAR,
+                Z_NEAR, Z_FAR);
+        // the view of the head first, as temporary
+        Matrix.multiplyMM(cullModelViewProjection, 0, cullHeadView, 0, camera, 0);
+        Matrix.multiplyMM(cullModelView, 0, cullModelViewProjection, 0, modelCube, 0);
+        Matrix.multiplyMM(cullModelViewProjection, 0, cullProjection, 0, cullModelView, 0);
+        cull(cullModelViewProjection, SCALE_CUBE + EYE_OFFSET);
+        return true;
+    }
+
+    /**
+     * Finds the ranges of cubes in the view frustum of the given model view projection.
+     * Without an octree that is all of them.
+     *
+     * @param margin how far the geometry of a sample reaches beyond its position.
+     */
+    private void cull(float[] mvp, float margin) {
+        drawRanges = 0;
+        Octree octree = geometry.getOctree();
+        int cubeCount = geometry.getCount();
+        if (octree == null) {
+            addDrawRange(0, cubeCount);
+            return;
+        }
+        int ranges = octree.cull(mvp, margin);
+        int[] first = octree.getRangeFirst();
+        int[] count = octree.getRangeCount();
+        for (int r = 0; r < ranges; r++)
+            addDrawRange(first[r], count[r]);
+        // appended since the octree was built
+        addDrawRange(octree.size(), cubeCount - octree.size());
+    }
+
+    private void addDrawRange(int first, int count) {
+        if (count <= 0)
+            return;
+        if (drawRanges == drawFirst.length) {
+            drawFirst = Arrays.copyOf(drawFirst, 2 * drawRanges);
+            drawCount = Arrays.copyOf(drawCount, 2 * drawRanges);
+        }
+        drawFirst[drawRanges] = first;
+        drawCount[drawRanges] = count;
+        drawRanges++;
+    }
+
+    /**
+     * Goes on selecting near and far samples for the current camera, and uploads the selection
+     * once it is complete. Must run on the GL thread.
+     */
+    private void selectLevelOfDetail() {
+        // the size of the cubes on screen is known after the first frame
+        if (!levelOfDetail || pointScale == 0 || !geometry.isPerSample() || geometry.getVertices() == null)
+            return;
+        // the camera in the coordinates of the samples, the eyes are close enough to it
+        Matrix.multiplyMM(lodMatrix, 0, camera, 0, modelCube, 0);
+        if (!Matrix.invertM(lodInverse, 0, lodMatrix, 0))
+            return;
+        System.arraycopy(lodInverse, 12, eyeInModel, 0, 3);
+        if (!lod.update(geometry.getVertices(), geometry.getCount(), geometry.getQuantization(), eyeInModel,
+                pointScale / LOD_CUBE_PIXELS, pointScale / LOD_MIN_PIXELS, LOD_BUDGET))
+            return;
+        int recordBytes = geometry.getCubeBytes();
+        nearVertexBuffer.invalidate(0, lod.getNearCount() * recordBytes);
+        farVertexBuffer.invalidate(0, lod.getFarCount() * recordBytes);
+        nearVertexBuffer.upload(lod.getNear(), lod.getNearCount() * recordBytes);
+        farVertexBuffer.upload(lod.getFar(), lod.getFarCount() * recordBytes);
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Points the attribute to the start of the buffer object.
+     */
+    private void bindAttribute(int attribute, VertexBuffer buffer, int size, int type) {
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer.getId());
+        gl.glVertexAttribPointer(attribute, size, type, false, 0, 0);
+    }
+
+    /**
+     * Draws cubes as instances of one cube mesh, with one call per range.
+     *
+     * @param instances holds the position and color index of each cube.
+     */
+    private void drawInstancedCubes(VertexBuffer instances, int[] first, int[] count, int ranges) {
+        if (ranges == 0)
+            return;
+        gl.glUseProgram(instancedProgram);
+
+        gl.glUniform3fv(instancedLightPosParam, 1, lightPosInEyeSpace, 0);
+        gl.glUniformMatrix4fv(instancedModelViewParam, 1, false, modelView, 0);
+        gl.glUniformMatrix4fv(instancedModelViewProjectionParam, 1, false, modelViewProjection, 0);
+        gl.glUniform3fv(instancedPositionScaleParam, 1, positionScale, 0);
+        gl.glUniform3fv(instancedPositionOffsetParam, 1, positionOffset, 0);
+        gl.glUniform1f(instancedCubeSizeParam, SCALE_CUBE);
+        gl.glUniform1f(instancedDeletedParam, geometry.isQuantized()
+                ? CubeGeometry.DELETED_QUANTIZED : CubeGeometry.DELETED_FLOAT);
+        bindColorMap(instancedColorMapParam, instancedColorLookupParam);
+
+        bindAttribute(instancedPositionParam, cubeMeshVertexBuffer, COORDS_PER_VERTEX, GLES20.GL_FLOAT);
+        bindAttribute(instancedNormalParam, cubeMeshNormalBuffer, 3, GLES20.GL_FLOAT);
+        gl.glVertexAttribDivisor(instancedInstanceParam, 1);
+        // there is no first instance in GLES 3.0, so every range starts the attribute anew
+        int type = geometry.isQuantized() ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_FLOAT;
+        int instanceBytes = geometry.getCubeBytes();
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, instances.getId());
+        for (int r = 0; r < ranges; r++) {
+            gl.glVertexAttribPointer(instancedInstanceParam, 4, type, false, 0, first[r] * instanceBytes);
+            gl.glDrawArraysInstanced(GLES20.GL_TRIANGLES, 0, CUBE_VERTICES, count[r]);
+        }
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        // the other programs may use the same attribute index
+        gl.glVertexAttribDivisor(instancedInstanceParam, 0);
+        checkGLError("Drawing instanced cubes");
+    }
+
+    /**
+     * Draws samples as one point each, which the fragment shader turns into a sphere.
+     * Points are limited to the largest point size of the GPU, which only matters up close.
+     *
+     * @param points holds the position and color index of each sample.
+     */
+    private void drawPoints(VertexBuffer points, int[] first, int[] count, int ranges) {
+        if (ranges == 0)
+            return;
+        gl.glUseProgram(pointProgram);
+
+        gl.glUniform3fv(pointLightPosParam, 1, lightPosInEyeSpace, 0);
+        gl.glUniformMatrix4fv(pointModelViewParam, 1, false, modelView, 0);
+        gl.glUniformMatrix4fv(pointModelViewProjectionParam, 1, false, modelViewProjection, 0);
+        gl.glUniform3fv(pointPositionScaleParam, 1, positionScale, 0);
+        gl.glUniform3fv(pointPositionOffsetParam, 1, positionOffset, 0);
+        gl.glUniform1f(pointScaleParam, pointScale);
+        gl.glUniform1f(pointDeletedParam, geometry.isQuantized()
+                ? CubeGeometry.DELETED_QUANTIZED : CubeGeometry.DELETED_FLOAT);
+        bindColorMap(pointColorMapParam, pointColorLookupParam);
+
+        bindAttribute(pointInstanceParam, points, 4,
+                geometry.isQuantized() ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_FLOAT);
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        for (int r = 0; r < ranges; r++)
+            gl.glDrawArrays(GLES20.GL_POINTS, first[r], count[r]);
+        checkGLError("Drawing points");
     }
 
     /**
@@ -473,21 +1110,22 @@ public class Renderer implements StereoRenderer {
      * look strange.
      */
     public void drawFloor() {
-        GLES20.glUseProgram(floorProgram);
+        gl.glUseProgram(floorProgram);
 
         // Set ModelView, MVP, position, normals, and color.
-        GLES20.glUniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
-        GLES20.glUniformMatrix4fv(floorModelParam, 1, false, modelFloor, 0);
-        GLES20.glUniformMatrix4fv(floorModelViewParam, 1, false, modelView, 0);
-        GLES20.glUniformMatrix4fv(floorModelViewProjectionParam, 1, false,
+        gl.glUniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
+        gl.glUniformMatrix4fv(floorModelParam, 1, false, modelFloor, 0);
+        gl.glUniformMatrix4fv(floorModelViewParam, 1, false, modelView, 0);
+        gl.glUniformMatrix4fv(floorModelViewProjectionParam, 1, false,
                 modelViewProjection, 0);
-        GLES20.glVertexAttribPointer(floorPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
-                false, 0, floorVertices);
-        GLES20.glVertexAttribPointer(floorNormalParam, 3, GLES20.GL_FLOAT, false, 0,
-                floorNormals);
-        GLES20.glVertexAttribPointer(floorColorParam, 4, GLES20.GL_FLOAT, false, 0, floorColors);
+        gl.glUniform3fv(floorPositionScaleParam, 1, NO_SCALE, 0);
+        gl.glUniform3fv(floorPositionOffsetParam, 1, NO_OFFSET, 0);
+        bindAttribute(floorPositionParam, floorVertexBuffer, COORDS_PER_VERTEX, GLES20.GL_FLOAT);
+        bindAttribute(floorNormalParam, floorNormalBuffer, 3, GLES20.GL_FLOAT);
+        bindAttribute(floorColorParam, floorColorBuffer, 4, GLES20.GL_FLOAT);
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6);
+        gl.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6);
 
         checkGLError("drawing floor");
     }
@@ -501,8 +1139,8 @@ public class Renderer implements StereoRenderer {
      * <p>We'll rotate it around the Y-axis so it's out of sight, and then up or down by a little bit.
      */
     private void hideObject() {
-        float[] rotationMatrix = new float[16];
-        float[] posVec = new float[4];
+        float[] rotationMatrix = hideRotation;
+        float[] posVec = hidePosition;
 
         // First rotate in XZ plane, between 90 and 270 deg away, and scale so that we vary
         // the object's distance from the user.
@@ -534,12 +1172,14 @@ public class Renderer implements StereoRenderer {
         if (System.currentTimeMillis() - lastTrigger < 300) {
             // This is a double click!
 
-            plotVr.doubleClick();
+            if (plotVr != null)
+                plotVr.doubleClick();
 
         }
 
         // Always give user feedback.
-        vibrator.vibrate(50);
+        if (vibrator != null)
+            vibrator.vibrate(50);
         lastTrigger = System.currentTimeMillis();
     }
 
@@ -549,12 +1189,11 @@ public class Renderer implements StereoRenderer {
      * @return true if the user is looking at the object.
      */
     private boolean isLookingAtObject() {
-        float[] initVec = {0, 0, 0, 1.0f};
-        float[] objPositionVec = new float[4];
+        float[] objPositionVec = lookPosition;
 
         // Convert object space to camera space. Use the headView from onNewFrame.
         Matrix.multiplyMM(modelView, 0, headView, 0, modelCube, 0);
-        Matrix.multiplyMV(objPositionVec, 0, modelView, 0, initVec, 0);
+        Matrix.multiplyMV(objPositionVec, 0, modelView, 0, ORIGIN, 0);
 
         float pitch = (float) Math.atan2(objPositionVec[1], -objPositionVec[2]);
         float yaw = (float) Math.atan2(objPositionVec[0], -objPositionVec[2]);
@@ -572,7 +1211,9 @@ public class Renderer implements StereoRenderer {
         float[] vec2 = vectorTriangle[direction];
         Matrix.translateM(camera, 0, vec2[0] * SCALE, vec2[1] * SCALE, -vec2[2] * SCALE);
 
-        Log.i(Renderer.TAG, "Camera now " + Arrays.toString(Arrays.copyOfRange(camera, 12, 16)));
+        // on every keypress, so only built when asked for with setprop log.tag.Renderer DEBUG
+        if (Log.isLoggable(TAG, Log.DEBUG))
+            Log.d(TAG, "Camera now " + Arrays.toString(Arrays.copyOfRange(camera, 12, 16)));
 
 //        float[] vec1 = { 1,0,0,1 };
 //        vec2 = new float[4];
@@ -589,8 +1230,8 @@ public class Renderer implements StereoRenderer {
         doTrackHead = !doTrackHead;
         if (doTrackHead) {
             // we now track the head again:
-            float[] tmp = new float[16];
-            float[] tmp2 = new float[16];
+            float[] tmp = trackHeadView;
+            float[] tmp2 = trackHeadInverse;
             Matrix.multiplyMM(tmp, 0, lastOkHeadView, 0, camera, 0);
             boolean ok = Matrix.invertM(tmp2, 0, headView, 0);
             if (!ok) {
@@ -609,8 +1250,8 @@ public class Renderer implements StereoRenderer {
         setDoDrawFloor(!isDoDrawFloor());
     }
 
-    public float[][] getmData() {
-        return getData().getTheData();
+    public PointTable getmData() {
+        return getData().getTable();
     }
 
     public double getSpeed() {
@@ -641,13 +1282,271 @@ public class Renderer implements StereoRenderer {
         return data;
     }
 
-    public void setData(Data data) {
+    public void setData(final Data data) {
         if(data==null){
             Log.e(TAG, "Data is null!");
             return;
         }
-        this.data = data;
-        makeCubes();
+        runOnGlThread(new Runnable() {
+            @Override
+            public void run() {
+                // deltas clear the hash of the data they change, see applyDeltaNow
+                boolean unchanged = Renderer.this.data == data
+                        || (data.getContentHash() != null
+                        && data.getContentHash().equals(Renderer.this.data.getContentHash()));
+                if (unchanged && !building && geometry.getCount() == data.getSampleCount()) {
+                    // all there already, from appendData or a former download of the same content
+                    Renderer.this.data = data;
+                    // but loaded in chunks there is no octree yet, which needs all samples
+                    if (!isGeometryUpToDate()
+                            || (geometry.getOctree() == null && geometry.getCount() > OCTREE_LEAF_SIZE))
+                        rebuildGeometry();
+                    return;
+                }
+                Renderer.this.data = data;
+                pendingDeltas.clear();
+                rebuildGeometry();
+            }
+        });
+    }
+
+    /**
+     * Adds samples of data that is still being loaded, so they show up right away.
+     * The first chunk of new data replaces the old data.
+     */
+    public void appendData(final Data data, PointTable chunk, final int offset) {
+        final PointTable[] samples = {chunk};
+        runOnGlThread(new Runnable() {
+            @Override
+            public void run() {
+                // the chunk is a view on the arrays of the table being read, which it keeps
+                // alive after the table grew; released once appended
+                PointTable appended = samples[0];
+                samples[0] = null;
+                // streamed chunks go right into the current geometry, rebuilt once all are there
+                if (Renderer.this.data != data || offset == 0 || building || caching) {
+                    Renderer.this.data = data;
+                    clearGeometry();
+                }
+                if (offset != geometry.getCount()) {
+                    Log.w(TAG, "Chunk at " + offset + " does not follow " + geometry.getCount() + " cubes");
+                    return;
+                }
+                if (offset + appended.size() > geometry.getMaxCubes()) {
+                    Log.w(TAG, "Dropping the chunk at " + offset + ": at most " + geometry.getMaxCubes()
+                            + " cubes fit into a buffer");
+                    return;
+                }
+                geometry.append(appended);
+            }
+        });
+    }
+
+    /**
+     * Applies a change of some samples to the data and rewrites only the cubes of those samples.
+     */
+    public void applyDelta(final Delta delta) {
+        runOnGlThread(new Runnable() {
+            @Override
+            public void run() {
+                if (building || caching || !pendingDeltas.isEmpty()) {
+                    pendingDeltas.add(delta);
+                } else {
+                    applyDeltaNow(delta);
+                    rebuildIfTooCoarse();
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the delta to the data and to the current geometry. Must run on the GL thread.
+     */
+    private void applyDeltaNow(Delta delta) {
+        PointTable table = data.getTable();
+        if (geometry.getCount() != (table == null ? 0 : table.size())) {
+            Log.w(TAG, "Dropping " + delta + " while data is still loading");
+            return;
+        }
+        if (delta.getOp() == Delta.APPEND && (long) geometry.getCount() + delta.getCount() > geometry.getMaxCubes()) {
+            Log.w(TAG, "Dropping " + delta + ": at most " + geometry.getMaxCubes() + " cubes fit into a buffer");
+            return;
+        }
+        // the samples are no longer the downloaded ones: a reload must not take them for the
+        // server's, nor the geometry cache for the geometry of the download. Cleared first, so
+        // that DataCache.put, which may be writing them, notices
+        data.setContentHash(null);
+        try {
+            data.setTable(delta.applyTo(table));
+        } catch (IndexOutOfBoundsException e) {
+            Log.w(TAG, "Cannot apply " + delta + ": " + e.getMessage());
+            return;
+        }
+        table = data.getTable();
+        if (delta.getOp() == Delta.APPEND) {
+            geometry.appendFrom(table);
+        } else {
+            geometry.update(table, delta.getFrom(), delta.getFrom() + delta.getCount());
+            if (delta.getOp() == Delta.UPDATE)
+                geometry.moved(table, delta.getFrom(), delta.getFrom() + delta.getCount());
+        }
+    }
+
+    public boolean isQuantizePositions() {
+        return quantizePositions;
+    }
+
+    /**
+     * Whether to keep the positions of the cubes as 16 bit integers in the bounding box of the data,
+     * which halves their memory. Off by default. The error grows with the box, see
+     * {@link Quantization}; data spanning too large a box stays unquantized.
+     */
+    public void setQuantizePositions(final boolean quantizePositions) {
+        runOnGlThread(new Runnable() {
+            @Override
+            public void run() {
+                if (Renderer.this.quantizePositions == quantizePositions)
+                    return;
+                Renderer.this.quantizePositions = quantizePositions;
+                rebuildGeometry();
+            }
+        });
+    }
+
+    public boolean isPointSprites() {
+        return pointSprites;
+    }
+
+    /**
+     * Whether to draw every sample as one point shaded like a sphere instead of a cube,
+     * which is much cheaper for large datasets.
+     */
+    public void setPointSprites(final boolean pointSprites) {
+        runOnGlThread(new Runnable() {
+            @Override
+            public void run() {
+                if (Renderer.this.pointSprites == pointSprites)
+                    return;
+                boolean wasPerSample = isPerSample();
+                Renderer.this.pointSprites = pointSprites;
+                Log.i(TAG, "Drawing samples as " + (pointSprites ? "points" : "cubes"));
+                if (wasPerSample == isPerSample())
+                    return;
+                rebuildGeometry();
+            }
+        });
+    }
+
+    public void togglePointSprites() {
+        setPointSprites(!isPointSprites());
+    }
+
+    public String getColorMap() {
+        return colorMap.getName();
+    }
+
+    /**
+     * Colors the samples by the named color map: "palette" for the color indices, or a
+     * continuous one like "viridis" for the values of the color column. Only switching between
+     * the two kinds builds the geometry again; otherwise just the texture changes.
+     */
+    public void setColorMap(final String name) {
+        runOnGlThread(new Runnable() {
+            @Override
+            public void run() {
+                ColorMap map = null;
+                for (ColorMap candidate : COLOR_MAPS)
+                    if (candidate.getName().equals(name))
+                        map = candidate;
+                if (map == null) {
+                    Log.w(TAG, "Unknown color map " + name);
+                    return;
+                }
+                if (map == colorMap)
+                    return;
+                boolean rebuild = map.isContinuous() != colorMap.isContinuous();
+                colorMap = map;
+                Log.i(TAG, "Coloring by " + map);
+                uploadColorMap();
+                if (rebuild)
+                    rebuildGeometry();
+            }
+        });
+    }
+
+    public void cycleColorMap() {
+        runOnGlThread(new Runnable() {
+            @Override
+            public void run() {
+                int next = (Arrays.asList(COLOR_MAPS).indexOf(colorMap) + 1) % COLOR_MAPS.length;
+                setColorMap(COLOR_MAPS[next].getName());
+            }
+        });
+    }
+
+    public boolean isLevelOfDetail() {
+        return levelOfDetail;
+    }
+
+    /**
+     * Whether to draw only samples near the camera as cubes, farther ones as points, and to skip
+     * those that would be smaller than a pixel. Without instancing near samples are points too.
+     */
+    public void setLevelOfDetail(final boolean levelOfDetail) {
+        runOnGlThread(new Runnable() {
+            @Override
+            public void run() {
+                if (Renderer.this.levelOfDetail == levelOfDetail)
+                    return;
+                boolean wasPerSample = isPerSample();
+                Renderer.this.levelOfDetail = levelOfDetail;
+                Log.i(TAG, "Level of detail " + (levelOfDetail ? "on" : "off"));
+                lod.reset();
+                if (wasPerSample == isPerSample())
+                    return;
+                rebuildGeometry();
+            }
+        });
+    }
+
+    public void toggleLevelOfDetail() {
+        setLevelOfDetail(!isLevelOfDetail());
+    }
+
+    public boolean isShareCulling() {
+        return shareCulling;
+    }
+
+    /**
+     * Whether to cull once per frame for both eyes instead of once for every eye.
+     * The frame times of both are logged, see {@link FrameTimer}.
+     */
+    public void setShareCulling(final boolean shareCulling) {
+        runOnGlThread(new Runnable() {
+            @Override
+            public void run() {
+                Renderer.this.shareCulling = shareCulling;
+            }
+        });
+    }
+
+    /**
+     * Sets the camera to a pose streamed by the server. Poses may come faster than frames,
+     * only the latest one is used.
+     */
+    public void setCamera(BinaryMessage pose) {
+        synchronized (pendingCamera) {
+            pose.getPose(pendingCamera, 0);
+            hasPendingCamera = true;
+        }
+    }
+
+    /**
+     * Geometry may only change between frames, hence all changes are queued and run
+     * at the start of the next frame.
+     */
+    private void runOnGlThread(Runnable task) {
+        glThreadTasks.add(task);
     }
 
     /**
@@ -657,6 +1556,8 @@ public class Renderer implements StereoRenderer {
      * @return The context of the text file, or null in case of error.
      */
     private String readRawTextFile(int resId) {
+        if (plotVr == null)
+            return "";
         InputStream inputStream = plotVr.getResources().openRawResource(resId);
         try {
             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
@@ -682,18 +1583,18 @@ public class Renderer implements StereoRenderer {
      */
     private int loadGLShader(int type, int resId) {
         String code = readRawTextFile(resId);
-        int shader = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(shader, code);
-        GLES20.glCompileShader(shader);
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, code);
+        gl.glCompileShader(shader);
 
         // Get the compilation status.
         final int[] compileStatus = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+        gl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
 
         // If the compilation failed, delete the shader.
         if (compileStatus[0] == 0) {
-            Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
+            Log.e(TAG, "Error compiling shader: " + gl.glGetShaderInfoLog(shader));
+            gl.glDeleteShader(shader);
             shader = 0;
         }
 
@@ -709,9 +1610,9 @@ public class Renderer implements StereoRenderer {
      *
      * @param label Label to report in case of error.
      */
-    private static void checkGLError(String label) {
+    private void checkGLError(String label) {
         int error;
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+        while ((error = gl.glGetError()) != GLES20.GL_NO_ERROR) {
             Log.e(TAG, label + ": glError " + error);
             throw new RuntimeException(label + ": glError " + error);
         }
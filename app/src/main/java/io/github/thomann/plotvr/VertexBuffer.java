@@ -0,0 +1,152 @@
+package io.github.thomann.plotvr;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A GL buffer object mirroring a client-side buffer, so that drawing only binds it instead of
+ * sending the vertices again for every eye.
+ * <p/>
+ * <p>Changes of the client-side buffer are marked with {@link #invalidate(int, int)} and uploaded
+ * by the next {@link #upload(Buffer, int)}. Only the bytes in use are sent, since a buffer of the
+ * {@link BufferPool} may be up to a quarter larger. The id belongs to the GL context it was
+ * created in: after the context is lost, {@link #create(Gl)} in the new context simply replaces it.
+ */
+class VertexBuffer {
+
+    // larger uploads are split, see uploadRange()
+    private static final int UPLOAD_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    private final int usage;
+    // the context of the buffer object
+    private Gl gl;
+    private int id = 0;
+    // bytes allocated on the GPU
+    private int capacity = 0;
+    // whether the next upload allocates anew for exactly the bytes in use, see discard()
+    private boolean discarded = false;
+    // bytes changed since the last upload
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = 0;
+
+    /**
+     * @param usage GL_STATIC_DRAW or GL_DYNAMIC_DRAW.
+     */
+    VertexBuffer(int usage) {
+        this.usage = usage;
+    }
+
+    /**
+     * Creates the buffer object in the current context; the former one belonged to a lost context.
+     * Must run on the GL thread.
+     */
+    void create(Gl gl) {
+        this.gl = gl;
+        int[] ids = new int[1];
+        gl.glGenBuffers(1, ids, 0);
+        id = ids[0];
+        capacity = 0;
+    }
+
+    /**
+     * Deletes the buffer object. Must run on the GL thread while the context is still there.
+     */
+    void release() {
+        if (id != 0) {
+            gl.glDeleteBuffers(1, new int[]{id}, 0);
+            id = 0;
+            capacity = 0;
+        }
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Marks the bytes from (inclusive) to to (exclusive) of the client-side buffer as changed.
+     */
+    void invalidate(int from, int to) {
+        dirtyFrom = Math.min(dirtyFrom, from);
+        dirtyTo = Math.max(dirtyTo, to);
+    }
+
+    /**
+     * Marks the client-side buffer as replaced as a whole, e.g. by a rebuilt geometry: the next
+     * upload allocates the buffer object anew, for exactly the bytes in use then.
+     */
+    void discard() {
+        discarded = true;
+    }
+
+    /**
+     * Uploads what changed in all of the client-side buffer, see {@link #upload(Buffer, int)}.
+     */
+    void upload(Buffer client) {
+        if (client != null)
+            upload(client, client.capacity() * elementBytes(client));
+    }
+
+    /**
+     * Uploads what changed in the bytes in use of the client-side buffer, all of them if the
+     * buffer was discarded or they outgrew the buffer object. Growing, the buffer object gets
+     * the capacity of the client-side buffer, so that appending samples does not allocate on the
+     * GPU every time. Leaves the buffer object bound to GL_ARRAY_BUFFER. Must run on the GL thread.
+     *
+     * @param client the buffer whose contents to mirror; may be null if there is nothing to draw.
+     * @param bytes  the bytes in use from the start of the client-side buffer.
+     */
+    void upload(Buffer client, int bytes) {
+        if (id == 0 || client == null)
+            return;
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, id);
+        int elementBytes = elementBytes(client);
+        bytes = Math.min(bytes, client.capacity() * elementBytes);
+        if (discarded || bytes > capacity) {
+            int allocate = discarded ? bytes : client.capacity() * elementBytes;
+            if (allocate == bytes && bytes <= UPLOAD_CHUNK_BYTES) {
+                client.position(0);
+                gl.glBufferData(GLES20.GL_ARRAY_BUFFER, bytes, client, usage);
+            } else {
+                gl.glBufferData(GLES20.GL_ARRAY_BUFFER, allocate, null, usage);
+                uploadRange(client, 0, bytes, elementBytes);
+            }
+            capacity = allocate;
+            discarded = false;
+        } else if (dirtyFrom < dirtyTo) {
+            int from = Math.min(dirtyFrom, bytes) / elementBytes * elementBytes;
+            int to = Math.min(dirtyTo, bytes);
+            if (from < to)
+                uploadRange(client, from, to, elementBytes);
+        }
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = 0;
+    }
+
+    /**
+     * Uploads the bytes from (inclusive) to to (exclusive) in chunks, so that a mapped client
+     * buffer is paged in bit by bit rather than all at once.
+     */
+    private void uploadRange(Buffer client, int from, int to, int elementBytes) {
+        int chunk = UPLOAD_CHUNK_BYTES / elementBytes * elementBytes;
+        for (int offset = from; offset < to; offset += chunk) {
+            client.position(offset / elementBytes);
+            gl.glBufferSubData(GLES20.GL_ARRAY_BUFFER, offset, Math.min(chunk, to - offset), client);
+        }
+        client.position(0);
+    }
+
+    private static int elementBytes(Buffer buffer) {
+        if (buffer instanceof ByteBuffer)
+            return 1;
+        if (buffer instanceof ShortBuffer)
+            return 2;
+        if (buffer instanceof FloatBuffer)
+            return 4;
+        throw new IllegalArgumentException("Unsupported buffer " + buffer);
+    }
+}
@@ -14,9 +14,15 @@
  * limitations under the License.
  */
 
+// Colors a cube by the color map, see cube_vertex and instanced_vertex.
+
 precision mediump float;
-varying vec4 v_Color;
+// the color map as one row of texels
+uniform sampler2D u_ColorMap;
+varying float v_ColorCoord;
+varying float v_Light;
 
 void main() {
-    gl_FragColor = v_Color;
+    vec4 color = texture2D(u_ColorMap, vec2(v_ColorCoord, 0.5));
+    gl_FragColor = vec4(color.rgb * v_Light, color.a);
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Draws the 36 vertices of every cube, colored by the color map, see Renderer.drawCube().
+
+uniform mat4 u_MVP;
+uniform mat4 u_MVMatrix;
+uniform vec3 u_LightPos;
+// positions may be quantized, this maps them back: (1,1,1) and (0,0,0) if they are not
+uniform vec3 u_PositionScale;
+uniform vec3 u_PositionOffset;
+// how a color level becomes a coordinate of the color map, see ColorMap.getLookup()
+uniform vec3 u_ColorLookup;
+
+attribute vec4 a_Position;
+attribute float a_ColorLevel;
+attribute vec3 a_Normal;
+
+varying float v_ColorCoord;
+varying float v_Light;
+
+void main() {
+   vec4 position = vec4(a_Position.xyz * u_PositionScale + u_PositionOffset, 1.0);
+
+   vec3 modelViewVertex = vec3(u_MVMatrix * position);
+   vec3 modelViewNormal = vec3(u_MVMatrix * vec4(a_Normal, 0.0));
+
+   float distance = length(u_LightPos - modelViewVertex);
+   vec3 lightVector = normalize(u_LightPos - modelViewVertex);
+   float diffuse = max(dot(modelViewNormal, lightVector), 0.5);
+
+   v_Light = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
+   float coord = a_ColorLevel * u_ColorLookup.x + u_ColorLookup.y;
+   v_ColorCoord = u_ColorLookup.z > 0.5 ? fract(coord) : clamp(coord, 0.0, 1.0);
+   gl_Position = u_MVP * position;
+}
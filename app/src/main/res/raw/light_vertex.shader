@@ -18,6 +18,9 @@ uniform mat4 u_Model;
 uniform mat4 u_MVP;
 uniform mat4 u_MVMatrix;
 uniform vec3 u_LightPos;
+// positions may be quantized, this maps them back: (1,1,1) and (0,0,0) if they are not
+uniform vec3 u_PositionScale;
+uniform vec3 u_PositionOffset;
 
 attribute vec4 a_Position;
 attribute vec4 a_Color;
@@ -27,9 +30,10 @@ varying vec4 v_Color;
 varying vec3 v_Grid;
 
 void main() {
-   v_Grid = vec3(u_Model * a_Position);
+   vec4 position = vec4(a_Position.xyz * u_PositionScale + u_PositionOffset, 1.0);
+   v_Grid = vec3(u_Model * position);
 
-   vec3 modelViewVertex = vec3(u_MVMatrix * a_Position);
+   vec3 modelViewVertex = vec3(u_MVMatrix * position);
    vec3 modelViewNormal = vec3(u_MVMatrix * vec4(a_Normal, 0.0));
 
    float distance = length(u_LightPos - modelViewVertex);
@@ -38,5 +42,5 @@ void main() {
 
    diffuse = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
    v_Color = vec4(a_Color.rgb * diffuse, a_Color.a);
-   gl_Position = u_MVP * a_Position;
+   gl_Position = u_MVP * position;
 }
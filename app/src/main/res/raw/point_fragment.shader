@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Shades a point as a sphere facing the viewer, see point_vertex.
+
+precision mediump float;
+// the color map as one row of texels
+uniform sampler2D u_ColorMap;
+varying float v_ColorCoord;
+varying float v_Light;
+varying vec3 v_LightVector;
+
+void main() {
+    vec2 xy = gl_PointCoord * 2.0 - 1.0;
+    // y of gl_PointCoord points down
+    xy.y = -xy.y;
+    float r2 = dot(xy, xy);
+    if (r2 > 1.0)
+        discard;
+    vec3 normal = vec3(xy, sqrt(1.0 - r2));
+    float diffuse = max(dot(normal, v_LightVector), 0.5);
+    vec4 color = texture2D(u_ColorMap, vec2(v_ColorCoord, 0.5));
+    gl_FragColor = vec4(color.rgb * v_Light * diffuse, color.a);
+}
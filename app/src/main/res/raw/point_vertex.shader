@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Draws every sample as one point, shaded like a sphere by point_fragment, see Renderer.drawPoints().
+
+uniform mat4 u_MVP;
+uniform mat4 u_MVMatrix;
+uniform vec3 u_LightPos;
+// the positions may be quantized, this maps them back: (1,1,1) and (0,0,0) if they are not
+uniform vec3 u_PositionScale;
+uniform vec3 u_PositionOffset;
+// the size of a point in pixels at distance 1
+uniform float u_PointScale;
+// the color level of deleted samples, they get no point
+uniform float u_Deleted;
+// how a color level becomes a coordinate of the color map, see ColorMap.getLookup()
+uniform vec3 u_ColorLookup;
+
+// the position of the sample in xyz and its color level in w
+attribute vec4 a_Instance;
+
+varying float v_ColorCoord;
+varying float v_Light;
+varying vec3 v_LightVector;
+
+void main() {
+   vec4 position = vec4(a_Instance.xyz * u_PositionScale + u_PositionOffset, 1.0);
+   vec3 modelViewVertex = vec3(u_MVMatrix * position);
+
+   float distance = length(u_LightPos - modelViewVertex);
+   v_LightVector = normalize(u_LightPos - modelViewVertex);
+   v_Light = 1.0 / (1.0 + (0.00001 * distance * distance));
+   float coord = a_Instance.w * u_ColorLookup.x + u_ColorLookup.y;
+   v_ColorCoord = u_ColorLookup.z > 0.5 ? fract(coord) : clamp(coord, 0.0, 1.0);
+
+   if (a_Instance.w == u_Deleted) {
+      // outside of the clip volume
+      gl_Position = vec4(2.0, 2.0, 2.0, 1.0);
+      gl_PointSize = 0.0;
+   } else {
+      gl_Position = u_MVP * position;
+      gl_PointSize = u_PointScale / max(-modelViewVertex.z, 0.001);
+   }
+}
@@ -0,0 +1,90 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of decoding binary WebSocket messages.
+ */
+public class BinaryMessageTest {
+
+    private static ByteBuffer message(int type, int op, int from, int count, float... payload) {
+        ByteBuffer bytes = ByteBuffer.allocate(BinaryMessage.HEADER_BYTES + 4 * payload.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put((byte) type).put((byte) op).putShort((short) 0).putInt(from).putInt(count);
+        for (float f : payload)
+            bytes.putFloat(f);
+        bytes.flip();
+        return bytes;
+    }
+
+    @Test
+    public void decodesPointsAsViews() throws Exception {
+        ByteBuffer bytes = message(BinaryMessage.POINTS, 0, 0, 2,
+                1, 2, 3, 4, 5, 6, 7, 8);
+        PointTable table = BinaryMessage.decode(bytes).getTable();
+        assertEquals(2, table.size());
+        assertEquals(2f, table.getX(1), 0f);
+        assertEquals(5f, table.getZ(0), 0f);
+        assertEquals(8, table.getColorIndex(1));
+        // no copy: the columns still see the message
+        bytes.putFloat(BinaryMessage.HEADER_BYTES, 42f);
+        assertEquals(42f, table.getX(0), 0f);
+    }
+
+    @Test
+    public void decodesDeltas() throws Exception {
+        Delta update = BinaryMessage.decode(message(BinaryMessage.DELTA, Delta.UPDATE, 3, 1,
+                -1, -2, -3, 4)).getDelta();
+        assertEquals(Delta.UPDATE, update.getOp());
+        assertEquals(3, update.getFrom());
+        assertEquals(1, update.getCount());
+
+        PointTable table = new PointTable.Builder().build();
+        table = BinaryMessage.decode(message(BinaryMessage.DELTA, Delta.APPEND, 0, 3,
+                0, 1, 2, 0, 1, 2, 0, 1, 2, 1, 1, 1)).getDelta().applyTo(table);
+        assertEquals(3, table.size());
+        BinaryMessage.decode(message(BinaryMessage.DELTA, Delta.RECOLOR, 1, 2, 5)).getDelta().applyTo(table);
+        assertEquals(1, table.getColorIndex(0));
+        assertEquals(5, table.getColorIndex(2));
+        BinaryMessage.decode(message(BinaryMessage.DELTA, Delta.RECOLOR, 0, 2, 6, 7)).getDelta().applyTo(table);
+        assertEquals(7, table.getColorIndex(1));
+        BinaryMessage.decode(message(BinaryMessage.DELTA, Delta.DELETE, 2, 1)).getDelta().applyTo(table);
+        assertTrue(table.isDeleted(2));
+    }
+
+    @Test
+    public void decodesPose() throws Exception {
+        float[] pose = new float[16];
+        for (int i = 0; i < 16; i++)
+            pose[i] = i;
+        float[] matrix = new float[17];
+        BinaryMessage.decode(message(BinaryMessage.POSE, 0, 0, 0, pose)).getPose(matrix, 1);
+        assertEquals(0f, matrix[1], 0f);
+        assertEquals(15f, matrix[16], 0f);
+    }
+
+    @Test
+    public void decodesControl() throws Exception {
+        byte[] key = "space".getBytes("UTF-8");
+        ByteBuffer bytes = ByteBuffer.allocate(BinaryMessage.HEADER_BYTES + key.length);
+        bytes.put((byte) BinaryMessage.CONTROL).position(BinaryMessage.HEADER_BYTES);
+        bytes.put(key).flip();
+        assertEquals("space", BinaryMessage.decode(bytes).getControl());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedPayload() throws Exception {
+        BinaryMessage.decode(message(BinaryMessage.POINTS, 0, 0, 2, 1, 2, 3));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownTypes() throws Exception {
+        BinaryMessage.decode(message(9, 0, 0, 0));
+    }
+}
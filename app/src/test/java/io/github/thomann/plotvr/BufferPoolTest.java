@@ -0,0 +1,100 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the pool of direct buffers: size classes, reuse, budget and counters.
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void sizeClasses() {
+        assertEquals(BufferPool.MIN_CLASS_BYTES, BufferPool.classBytes(0));
+        assertEquals(BufferPool.MIN_CLASS_BYTES, BufferPool.classBytes(BufferPool.MIN_CLASS_BYTES));
+        assertEquals(5 * 1024, BufferPool.classBytes(4 * 1024 + 1));
+        assertEquals(8 * 1024, BufferPool.classBytes(8 * 1024));
+        assertEquals(1280 * 1024, BufferPool.classBytes(1024 * 1024 + 1));
+        for (int bytes = 1; bytes < 10000000; bytes = bytes * 3 + 1) {
+            int size = BufferPool.classBytes(bytes);
+            assertTrue(size >= bytes);
+            assertTrue(bytes <= BufferPool.MIN_CLASS_BYTES || size <= bytes * 1.25);
+        }
+    }
+
+    @Test
+    public void reusesReleasedBuffers() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        ByteBuffer a = pool.acquire(10000);
+        assertTrue(a.isDirect());
+        assertEquals(ByteOrder.nativeOrder(), a.order());
+        assertTrue(a.capacity() >= 10000);
+        a.position(100);
+        pool.release(a);
+        // about the same size gets the same buffer, cleared
+        ByteBuffer b = pool.acquire(9500);
+        assertSame(a, b);
+        assertEquals(0, b.position());
+        assertEquals(b.capacity(), b.limit());
+        assertEquals(2, pool.getAcquires());
+        assertEquals(1, pool.getReuses());
+        assertEquals(b.capacity(), pool.getBytesInUse());
+        assertEquals(0, pool.getIdleBytes());
+        // another size class gets a new one
+        ByteBuffer c = pool.acquire(100000);
+        assertNotSame(a, c);
+        assertEquals(b.capacity() + c.capacity(), pool.getPeakBytesInUse());
+    }
+
+    @Test
+    public void keepsAtMostTheBudget() {
+        BufferPool pool = new BufferPool(2 * BufferPool.MIN_CLASS_BYTES);
+        ByteBuffer[] buffers = new ByteBuffer[3];
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i] = pool.acquire(100);
+        for (ByteBuffer buffer : buffers)
+            pool.release(buffer);
+        assertEquals(3, pool.getReleases());
+        assertEquals(1, pool.getDrops());
+        assertEquals(2 * BufferPool.MIN_CLASS_BYTES, pool.getIdleBytes());
+        assertEquals(0, pool.getBytesInUse());
+        assertEquals(3 * BufferPool.MIN_CLASS_BYTES, pool.getPeakBytesInUse());
+        pool.trim();
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test
+    public void keepsABufferLargerThanTheBudget() {
+        BufferPool pool = new BufferPool(2 * BufferPool.MIN_CLASS_BYTES);
+        // like the geometry of a reload replacing the former one
+        ByteBuffer geometry = pool.acquire(100 * BufferPool.MIN_CLASS_BYTES);
+        ByteBuffer small = pool.acquire(100);
+        pool.release(small);
+        pool.release(geometry);
+        assertEquals(0, pool.getDrops());
+        assertEquals(geometry.capacity() + 2 * BufferPool.MIN_CLASS_BYTES, pool.getMaxIdleBytes());
+        assertSame(geometry, pool.acquire(100 * BufferPool.MIN_CLASS_BYTES));
+        assertSame(small, pool.acquire(100));
+        // but only one of them
+        ByteBuffer other = pool.acquire(100 * BufferPool.MIN_CLASS_BYTES);
+        pool.release(geometry);
+        pool.release(other);
+        assertEquals(1, pool.getDrops());
+    }
+
+    @Test
+    public void ignoresForeignAndDoubleReleases() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        ByteBuffer a = pool.acquire(100);
+        pool.release(a);
+        pool.release(a);
+        pool.release(ByteBuffer.allocateDirect(BufferPool.MIN_CLASS_BYTES));
+        pool.release(null);
+        assertEquals(1, pool.getReleases());
+        assertEquals(BufferPool.MIN_CLASS_BYTES, pool.getIdleBytes());
+    }
+}
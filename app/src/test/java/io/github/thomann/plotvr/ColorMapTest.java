@@ -0,0 +1,58 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the color maps, and of the texture coordinates the shaders compute
+ * from color levels.
+ */
+public class ColorMapTest {
+
+    /**
+     * The texel a shader samples for the level, like cube_vertex.
+     */
+    private static int texel(ColorMap map, float level) {
+        float[] lookup = new float[3];
+        map.getLookup(lookup);
+        float coord = level * lookup[0] + lookup[1];
+        coord = lookup[2] > 0.5f ? coord - (float) Math.floor(coord) : Math.max(0f, Math.min(1f, coord));
+        return (int) Math.floor(coord * map.getTexels());
+    }
+
+    @Test
+    public void paletteRepeats() {
+        ColorMap palette = ColorMap.palette("test", new int[]{0xFF000000, 0xFFFF0000, 0xFF00FF00});
+        assertFalse(palette.isContinuous());
+        assertEquals(3, palette.getTexels());
+        assertEquals(0, texel(palette, 0));
+        assertEquals(2, texel(palette, 2));
+        // the index one past the last color starts over instead of reading beyond the palette
+        assertEquals(0, texel(palette, 3));
+        assertEquals(1, texel(palette, 7));
+    }
+
+    @Test
+    public void continuousSpansTheLevels() {
+        ColorMap viridis = ColorMap.VIRIDIS;
+        assertTrue(viridis.isContinuous());
+        assertEquals(ColorMap.TEXELS, viridis.getTexels());
+        assertEquals(0xFF440154, viridis.getColor(0));
+        assertEquals(0xFFFDE725, viridis.getColor(ColorMap.TEXELS - 1));
+        assertEquals(0, texel(viridis, 0));
+        assertEquals(ColorMap.TEXELS / 2, texel(viridis, ColorMap.LEVELS / 2 + 200));
+        assertEquals(ColorMap.TEXELS - 1, texel(viridis, ColorMap.LEVELS));
+    }
+
+    @Test
+    public void textureIsRgba() {
+        byte[] texture = ColorMap.palette("test", new int[]{0x80102030}).getTexture();
+        assertArrayEquals(new byte[]{0x10, 0x20, 0x30, (byte) 0x80}, texture);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPalette() {
+        ColorMap.palette("test", new int[0]);
+    }
+}
@@ -0,0 +1,161 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of writing and reading the columnar format.
+ */
+public class ColumnarFormatTest {
+
+    private static final int SAMPLES = 101;
+
+    private static Data data(int n) {
+        PointTable.Builder builder = new PointTable.Builder(n);
+        for (int i = 0; i < n; i++)
+            builder.add(i, -i, 0.5f * i, i % 4);
+        PointTable table = builder.build();
+        FloatBuffer weight = ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        IntBuffer group = ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder()).asIntBuffer();
+        for (int i = 0; i < n; i++) {
+            weight.put(i, i / 10f);
+            group.put(i, 1000 + i);
+        }
+        table.addColumn("weight", weight);
+        table.addColumn("group", group);
+        Data data = new Data();
+        data.setTable(table);
+        data.setSpeed(2.5);
+        return data;
+    }
+
+    private static byte[] write(Data data, boolean quantized) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarFormat.write(data, out, quantized);
+        return out.toByteArray();
+    }
+
+    private static Data read(byte[] bytes) throws IOException {
+        return new Data().readColumns(new ByteArrayInputStream(bytes));
+    }
+
+    private static Data read(byte[] bytes, int length) throws IOException {
+        return new Data().readColumns(new ByteArrayInputStream(bytes, 0, length), length);
+    }
+
+    /**
+     * The fixed part of the header, little-endian, followed by the header of one column.
+     */
+    private static byte[] header(int n, int k, int nameLength) {
+        ByteBuffer header = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ColumnarFormat.MAGIC).putInt(ColumnarFormat.VERSION).putInt(n).putDouble(1)
+                .putInt(k).putInt(ColumnarFormat.TYPE_FLOAT32).putInt(nameLength);
+        return header.array();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Data read = read(write(data(SAMPLES), false));
+        PointTable table = read.getTable();
+        assertEquals(SAMPLES, table.size());
+        assertEquals(2.5, read.getSpeed(), 0);
+        for (int i = 0; i < SAMPLES; i++) {
+            assertEquals(i, table.getX(i), 0f);
+            assertEquals(-i, table.getY(i), 0f);
+            assertEquals(0.5f * i, table.getZ(i), 0f);
+            assertEquals(i % 4, table.getColorIndex(i));
+        }
+        assertEquals(5.5f, table.getFloatColumn("weight").get(55), 0f);
+        assertEquals(1055, table.getIntColumn("group").get(55));
+    }
+
+    @Test
+    public void roundTripQuantized() throws Exception {
+        Data data = data(SAMPLES);
+        PointTable table = read(write(data, true)).getTable();
+        float maxError = Quantization.of(data.getTable(), 0f).getMaxError(PointTable.X);
+        for (int i = 0; i < SAMPLES; i++) {
+            assertEquals(i, table.getX(i), maxError);
+            assertEquals(i % 4, table.getColorIndex(i));
+        }
+        assertEquals(1055, table.getIntColumn("group").get(55));
+    }
+
+    @Test
+    public void roundTripNoSamples() throws Exception {
+        assertEquals(0, read(write(data(0), false)).getTable().size());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedHeader() throws Exception {
+        byte[] bytes = write(data(SAMPLES), false);
+        read(Arrays.copyOf(bytes, 30));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedColumns() throws Exception {
+        byte[] bytes = write(data(SAMPLES), false);
+        read(Arrays.copyOf(bytes, bytes.length - 4));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedColumnsOfKnownLength() throws Exception {
+        byte[] bytes = write(data(SAMPLES), false);
+        read(bytes, bytes.length - 4);
+    }
+
+    @Test
+    public void readsColumnsOfKnownLength() throws Exception {
+        byte[] bytes = write(data(SAMPLES), true);
+        assertEquals(SAMPLES, read(bytes, bytes.length).getTable().size());
+    }
+
+    @Test(expected = EOFException.class)
+    public void samplesBeyondTheKnownLength() throws Exception {
+        // a column named x, padded, but none of its values: nothing is allocated for them
+        byte[] bytes = Arrays.copyOf(header(Integer.MAX_VALUE / 4, 1, 1), 36);
+        bytes[32] = 'x';
+        read(bytes, bytes.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void tooManyColumns() throws Exception {
+        read(header(SAMPLES, ColumnarFormat.MAX_COLUMNS + 1, 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void notColumnar() throws Exception {
+        read("{\"data\": []}".getBytes("UTF-8"));
+    }
+
+    @Test(expected = IOException.class)
+    public void negativeNameLength() throws Exception {
+        read(header(SAMPLES, 1, -1));
+    }
+
+    @Test(expected = IOException.class)
+    public void hugeNameLength() throws Exception {
+        read(header(SAMPLES, 1, Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IOException.class)
+    public void tooManySamplesForABuffer() throws Exception {
+        read(header(Integer.MAX_VALUE / 4 + 1, 1, 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void negativeSamples() throws Exception {
+        read(header(-1, 1, 1));
+    }
+}
@@ -0,0 +1,125 @@
+package io.github.thomann.plotvr;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Loads data from a local {@link TestDataServer} with and without compression.
+ * <p/>
+ * <p>The wall-clock comparison over a link throttled to 4 MB/s, roughly our lab Wi-Fi, takes
+ * seconds, so it is ignored and run on demand; its times go to the log with the tag
+ * "CompressionLoadTest".
+ */
+public class CompressionLoadTest {
+    private static final String TAG = "CompressionLoadTest";
+
+    private static final int SAMPLES = 10000;
+    private static final int TIMED_SAMPLES = 100000;
+    private static final long BYTES_PER_SECOND = 4L * 1024 * 1024;
+
+    private TestDataServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new TestDataServer(SAMPLES, TestDataServer.UNTHROTTLED);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    private static long load(TestDataServer server, boolean compression) throws Exception {
+        DataLoader loader = new DataLoader(null, null);
+        loader.setCompression(compression);
+        long sentBefore = server.getBytesSent();
+        long start = System.nanoTime();
+        Data data = loader.load(server.getUrl(), null, 0);
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertEquals(TIMED_SAMPLES, data.getSampleCount());
+        Log.i(TAG, (compression ? "compressed:   " : "uncompressed: ") + millis + " ms, "
+                + (server.getBytesSent() - sentBefore) + " bytes");
+        return millis;
+    }
+
+    @Ignore("Wall-clock comparison over a throttled link, run on demand")
+    @Test
+    public void compressionIsFaster() throws Exception {
+        TestDataServer throttled = new TestDataServer(TIMED_SAMPLES, BYTES_PER_SECOND);
+        try {
+            load(throttled, true); // warm up
+            long uncompressed = load(throttled, false);
+            long compressed = load(throttled, true);
+            assertTrue("compressed " + compressed + " ms vs. uncompressed " + uncompressed + " ms",
+                    compressed < uncompressed);
+        } finally {
+            throttled.stop();
+        }
+    }
+
+    @Test
+    public void sameDataEitherWay() throws Exception {
+        DataLoader loader = new DataLoader(null, null);
+        long sentBefore = server.getBytesSent();
+        Data compressed = loader.load(server.getUrl(), null, 0);
+        long compressedBytes = server.getBytesSent() - sentBefore;
+        loader.setCompression(false);
+        Data uncompressed = loader.load(server.getUrl(), null, 0);
+
+        assertEquals(server.getJsonLength(), server.getBytesSent() - sentBefore - compressedBytes);
+        assertTrue(compressedBytes < server.getJsonLength());
+        assertEquals(uncompressed.getContentHash(), compressed.getContentHash());
+        assertEquals(SAMPLES, compressed.getSampleCount());
+        PointTable a = uncompressed.getTable();
+        PointTable b = compressed.getTable();
+        for (int i = 0; i < SAMPLES; i++) {
+            assertEquals(a.getX(i), b.getX(i), 0f);
+            assertEquals(a.getY(i), b.getY(i), 0f);
+            assertEquals(a.getZ(i), b.getZ(i), 0f);
+            assertEquals(a.getColor(i), b.getColor(i), 0f);
+        }
+    }
+
+    @Test
+    public void sameDataReadWholeForTheParallelParser() throws Exception {
+        Data expected = new DataLoader(null, null).load(server.getUrl(), null, 0);
+        for (boolean compression : new boolean[]{false, true}) {
+            DataLoader loader = new DataLoader(null, null);
+            loader.setParser(new ParallelParser(2));
+            loader.setCompression(compression);
+            Data data = loader.load(server.getUrl(), null, 0);
+            assertEquals(expected.getContentHash(), data.getContentHash());
+            assertEquals(SAMPLES, data.getSampleCount());
+            assertEquals(expected.getTable().getX(SAMPLES - 1), data.getTable().getX(SAMPLES - 1), 0f);
+        }
+    }
+
+    @Test
+    public void inflatesRawDeflate() throws Exception {
+        byte[] json = TestDataServer.syntheticJson(10);
+        for (boolean nowrap : new boolean[]{false, true}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+            out.write(json);
+            out.close();
+            InputStream in = DataLoader.decode(new ByteArrayInputStream(bytes.toByteArray()), "deflate");
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) >= 0)
+                inflated.write(b);
+            assertArrayEquals(json, inflated.toByteArray());
+        }
+    }
+}
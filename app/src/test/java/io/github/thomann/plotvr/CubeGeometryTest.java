@@ -0,0 +1,102 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of building the cubes: written on several workers they must be the same
+ * as written sequentially.
+ */
+public class CubeGeometryTest {
+
+    private static final int COLORS = 4;
+
+    private static PointTable randomTable(int n) {
+        PointTable table = TestTables.random(n, 10f, COLORS);
+        table.delete(n / 2, n / 2 + 10);
+        return table;
+    }
+
+    private static void assertSameBytes(ByteBuffer expected, ByteBuffer actual, int bytes) {
+        for (int b = 0; b < bytes; b++)
+            if (expected.get(b) != actual.get(b))
+                fail("byte " + b + " differs");
+    }
+
+    private static int slot(CubeGeometry geometry, int sample) {
+        return geometry.getOctree() == null ? sample : geometry.getOctree().getSlot(sample);
+    }
+
+    private static void assertParallelIsSequential(boolean perSample, boolean quantize) throws Exception {
+        PointTable table = randomTable(100000);
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try {
+            CubeGeometry sequential = CubeGeometry.build(1, table, perSample, quantize, false, 1024);
+            CubeGeometry parallel = CubeGeometry.build(1, table, perSample, quantize, false, 1024, workers, 4);
+            assertEquals(table.size(), parallel.getCount());
+            assertSameBytes(sequential.getVertices(), parallel.getVertices(),
+                    table.size() * sequential.getCubeBytes());
+            assertTrue(parallel.isDirty());
+            assertEquals(0, parallel.getDirtyFrom());
+            assertEquals(table.size() * parallel.getCubeBytes(), parallel.getDirtyTo());
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelRecords() throws Exception {
+        assertParallelIsSequential(true, true);
+        assertParallelIsSequential(true, false);
+    }
+
+    @Test
+    public void parallelVertices() throws Exception {
+        assertParallelIsSequential(false, true);
+        assertParallelIsSequential(false, false);
+    }
+
+    @Test
+    public void colorLevels() {
+        PointTable.Builder builder = new PointTable.Builder(4);
+        builder.add(0f, 0f, 0f, 2f);
+        builder.add(1f, 0f, 0f, 4f);
+        builder.add(2f, 0f, 0f, 3f);
+        builder.add(3f, 0f, 0f, 10f);
+        PointTable table = builder.build();
+        table.delete(3, 4);
+
+        // color indices as they are
+        CubeGeometry palette = CubeGeometry.build(1, table, true, false, false, 1024);
+        ByteBuffer records = palette.getVertices();
+        assertEquals(2f, records.getFloat(16 * slot(palette, 0) + 12), 0f);
+        assertEquals(4f, records.getFloat(16 * slot(palette, 1) + 12), 0f);
+
+        // color values scaled over the range of the samples not deleted
+        CubeGeometry continuous = CubeGeometry.build(1, table, true, true, true, 1024);
+        assertArrayEquals(new float[]{2f, 4f}, continuous.getColorRange(), 0f);
+        records = continuous.getVertices();
+        assertEquals(0, records.getShort(8 * slot(continuous, 0) + 6) & 0xFFFF);
+        assertEquals(ColorMap.LEVELS, records.getShort(8 * slot(continuous, 1) + 6) & 0xFFFF);
+        assertEquals(ColorMap.LEVELS / 2, records.getShort(8 * slot(continuous, 2) + 6) & 0xFFFF);
+        assertEquals(CubeGeometry.DELETED_QUANTIZED, records.getShort(8 * slot(continuous, 3) + 6) & 0xFFFF);
+    }
+
+    @Test
+    public void rejectsMoreCubesThanFitABuffer() {
+        // 36 vertices of 16 bytes per cube as triangles with quantized positions
+        CubeGeometry triangles = new CubeGeometry(0, false, true, false);
+        assertEquals(Integer.MAX_VALUE / 576, triangles.getMaxCubes());
+        try {
+            triangles.ensureCapacity(triangles.getMaxCubes() + 1, false);
+            fail("No buffer holds that many cubes");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertNull(triangles.getVertices());
+    }
+}
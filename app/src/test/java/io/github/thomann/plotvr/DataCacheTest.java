@@ -0,0 +1,153 @@
+package io.github.thomann.plotvr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the binary column format and the cache built on it.
+ */
+public class DataCacheTest {
+
+    private File dir;
+
+    @Before
+    public void createDir() throws Exception {
+        dir = File.createTempFile("datacache", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+
+    private static Data sample(int n) {
+        PointTable.Builder builder = new PointTable.Builder();
+        for (int i = 0; i < n; i++)
+            builder.add(i, -i, 0.5f * i, i % 8);
+        PointTable table = builder.build();
+        float[] weights = new float[n];
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = 1f / (i + 1);
+            ids[i] = 1000 + i;
+        }
+        table.addColumn("weight", FloatBuffer.wrap(weights));
+        table.addColumn("id", IntBuffer.wrap(ids));
+        Data data = new Data();
+        data.setTable(table);
+        data.setSpeed(0.5);
+        return data;
+    }
+
+    @Test
+    public void columnarRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarFormat.write(sample(100000), out);
+        Data data = new Data().readColumns(new ByteArrayInputStream(out.toByteArray()));
+
+        PointTable table = data.getTable();
+        assertEquals(100000, table.size());
+        assertEquals(0.5, data.getSpeed(), 0);
+        assertEquals(-99999f, table.getY(99999), 0f);
+        assertEquals(7, table.getColorIndex(99999));
+        assertEquals(0.5f, table.getFloatColumn("weight").get(1), 0f);
+        assertEquals(1042, table.getIntColumn("id").get(42));
+        assertTrue(table.getColumn(PointTable.X).isDirect());
+    }
+
+    @Test
+    public void storesAndLoadsByUrl() throws Exception {
+        DataCache cache = new DataCache(dir, DataCache.DEFAULT_MAX_BYTES);
+        Data data = sample(10);
+        data.setContentHash("abc");
+        cache.put("http://host/data.json", data, "\"v1\"", null);
+
+        assertNull(cache.get("http://other/data.json"));
+        DataCache.Entry entry = cache.get("http://host/data.json");
+        assertEquals("\"v1\"", entry.getEtag());
+        assertNull(entry.getLastModified());
+        Data loaded = cache.load(entry);
+        assertEquals("abc", loaded.getContentHash());
+        assertEquals(10, loaded.getSampleCount());
+    }
+
+    @Test
+    public void replacesAnEntry() throws Exception {
+        DataCache cache = new DataCache(dir, DataCache.DEFAULT_MAX_BYTES);
+        cache.put("http://host/data.json", sample(10), "\"v1\"", null);
+        Data data = sample(20);
+        data.setContentHash("def");
+        cache.put("http://host/data.json", data, "\"v2\"", null);
+
+        DataCache.Entry entry = cache.get("http://host/data.json");
+        assertEquals("\"v2\"", entry.getEtag());
+        Data loaded = cache.load(entry);
+        assertEquals("def", loaded.getContentHash());
+        assertEquals(20, loaded.getSampleCount());
+        // nothing left over from writing
+        assertEquals(2, dir.listFiles().length);
+    }
+
+    @Test
+    public void skipsDataWithoutValidators() throws Exception {
+        DataCache cache = new DataCache(dir, DataCache.DEFAULT_MAX_BYTES);
+        cache.put("http://host/data.json", sample(10), null, null);
+        assertNull(cache.get("http://host/data.json"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        // room for two entries of 1000 samples, but not for three
+        DataCache cache = new DataCache(dir, 2 * 1000 * 6 * 4 + 1000);
+        cache.put("http://a/", sample(1000), "a", null);
+        cache.put("http://b/", sample(1000), "b", null);
+        new File(dir, DataCache.key("http://a/") + ".cols").setLastModified(1000L);
+        new File(dir, DataCache.key("http://b/") + ".cols").setLastModified(2000L);
+        cache.load(cache.get("http://a/"));
+        cache.put("http://c/", sample(1000), "c", null);
+
+        assertNotNull(cache.get("http://a/"));
+        assertNull(cache.get("http://b/"));
+        assertNotNull(cache.get("http://c/"));
+    }
+
+    @Test
+    public void downloadsAreCachedOnlyWhenAskedAndUnchanged() throws Exception {
+        TestDataServer server = new TestDataServer(100, TestDataServer.UNTHROTTLED);
+        try {
+            DataCache cache = new DataCache(dir, DataCache.DEFAULT_MAX_BYTES);
+            DataLoader loader = new DataLoader(cache, null);
+            Data data = loader.load(server.getUrl(), null, 0);
+            assertNull(cache.get(server.getUrl()));
+            // as a delta does before changing the samples
+            data.setContentHash(null);
+            loader.putInCache();
+            assertNull(cache.get(server.getUrl()));
+
+            loader = new DataLoader(cache, null);
+            data = loader.load(server.getUrl(), null, 0);
+            loader.putInCache();
+            DataCache.Entry entry = cache.get(server.getUrl());
+            assertNotNull(entry);
+            assertEquals(TestDataServer.ETAG, entry.getEtag());
+            assertEquals(data.getContentHash(), entry.getContentHash());
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of parsing and applying deltas.
+ */
+public class DeltaTest {
+
+    private static PointTable table(int n) {
+        PointTable.Builder builder = new PointTable.Builder();
+        for (int i = 0; i < n; i++)
+            builder.add(i, i, i, 1);
+        return builder.build();
+    }
+
+    @Test
+    public void appendsBehindTheLastSample() throws Exception {
+        Delta delta = Delta.parse("{\"op\": \"append\", \"data\": [[7,8,9,2],[1,1,1,3]]}");
+        PointTable table = delta.applyTo(table(5));
+        assertEquals(7, table.size());
+        assertEquals(5, delta.getFrom());
+        assertEquals(2, delta.getCount());
+        assertEquals(9f, table.getZ(5), 0f);
+        assertEquals(3, table.getColorIndex(6));
+        assertEquals(4f, table.getX(4), 0f);
+    }
+
+    @Test
+    public void appendsToNoData() throws Exception {
+        PointTable table = Delta.parse("{\"op\": \"append\", \"data\": [[7,8,9,2]]}").applyTo(null);
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void updatesInPlace() throws Exception {
+        PointTable table = table(5);
+        PointTable updated = Delta.parse("{\"from\": 3, \"op\": \"update\", \"data\": [[-1,-2,-3,4]]}").applyTo(table);
+        assertSame(table, updated);
+        assertEquals(-2f, table.getY(3), 0f);
+        assertEquals(4f, table.getX(4), 0f);
+    }
+
+    @Test
+    public void deletesKeepingIndices() throws Exception {
+        PointTable table = Delta.parse("{\"op\": \"delete\", \"from\": 1, \"count\": 2}").applyTo(table(5));
+        assertEquals(5, table.size());
+        assertFalse(table.isDeleted(0));
+        assertTrue(table.isDeleted(1));
+        assertTrue(table.isDeleted(2));
+        assertFalse(table.isDeleted(3));
+    }
+
+    @Test
+    public void recolors() throws Exception {
+        PointTable table = table(5);
+        Delta.parse("{\"op\": \"recolor\", \"from\": 1, \"colors\": [5,6]}").applyTo(table);
+        Delta.parse("{\"op\": \"recolor\", \"from\": 3, \"count\": 2, \"color\": 7}").applyTo(table);
+        assertEquals(1, table.getColorIndex(0));
+        assertEquals(6, table.getColorIndex(2));
+        assertEquals(7, table.getColorIndex(4));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsRangesBeyondTheData() throws Exception {
+        Delta.parse("{\"op\": \"delete\", \"from\": 4, \"count\": 2}").applyTo(table(5));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownOps() throws Exception {
+        Delta.parse("{\"op\": \"explode\"}");
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the frame time statistics.
+ */
+public class FrameTimerTest {
+
+    @Test
+    public void sumsSectionsPerFrame() {
+        FrameTimer timer = new FrameTimer(3);
+        // onNewFrame and two eyes
+        timer.add(1000000);
+        timer.add(2000000);
+        timer.add(3000000);
+        assertFalse(timer.endFrame());
+        timer.add(2000000);
+        assertFalse(timer.endFrame());
+        assertEquals(4f, timer.getAverageMillis(), 1e-4f);
+        assertEquals(6f, timer.getMaxMillis(), 1e-4f);
+        assertTrue(timer.endFrame());
+        // a new report starts
+        assertEquals(0f, timer.getAverageMillis(), 0f);
+    }
+
+    @Test
+    public void newModeStartsNewReport() {
+        FrameTimer timer = new FrameTimer(10);
+        timer.setMode("before");
+        timer.add(5000000);
+        timer.endFrame();
+        timer.setMode("before");
+        assertEquals(5f, timer.getMaxMillis(), 1e-4f);
+        timer.setMode("after");
+        assertEquals(0f, timer.getMaxMillis(), 0f);
+        assertTrue(timer.toString().contains("after"));
+    }
+
+    @Test
+    public void endWithoutBeginIsIgnored() {
+        FrameTimer timer = new FrameTimer(10);
+        timer.end();
+        timer.begin();
+        timer.end();
+        timer.endFrame();
+        assertTrue(timer.getMaxMillis() >= 0f);
+        assertTrue(timer.getMaxMillis() < 1000f);
+    }
+}
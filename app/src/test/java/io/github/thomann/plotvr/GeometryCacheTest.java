@@ -0,0 +1,126 @@
+package io.github.thomann.plotvr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the geometry cache: mapped geometry must be the geometry that was
+ * written, octree included, and must not write through to the file.
+ */
+public class GeometryCacheTest {
+
+    private static final int COLORS = 4;
+    private static final String HASH = "0123456789abcdef";
+
+    private File dir;
+
+    @Before
+    public void createDir() throws Exception {
+        dir = File.createTempFile("geometrycache", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+
+    private static void assertSameGeometry(CubeGeometry expected, CubeGeometry actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.isPerSample(), actual.isPerSample());
+        assertEquals(expected.isQuantized(), actual.isQuantized());
+        int bytes = expected.getCount() * expected.getCubeBytes();
+        for (int b = 0; b < bytes; b++)
+            if (expected.getVertices().get(b) != actual.getVertices().get(b))
+                fail("byte " + b + " differs");
+        if (expected.isQuantized())
+            for (int axis = 0; axis < Quantization.AXES; axis++)
+                assertEquals(expected.getQuantization().getOffset(axis), actual.getQuantization().getOffset(axis), 0f);
+    }
+
+    @Test
+    public void mapsWhatWasWritten() {
+        PointTable table = TestTables.random(5000, 10f, COLORS);
+        GeometryCache cache = new GeometryCache(dir, GeometryCache.DEFAULT_MAX_BYTES);
+        for (int layout = 0; layout < 8; layout++) {
+            boolean perSample = (layout & 1) != 0;
+            boolean quantize = (layout & 2) != 0;
+            boolean continuousColors = (layout & 4) != 0;
+            assertNull(cache.get(HASH, table.size(), 1, perSample, quantize, continuousColors));
+            CubeGeometry built = CubeGeometry.build(1, table, perSample, quantize, continuousColors, 100);
+            cache.put(HASH, built);
+            CubeGeometry mapped = cache.get(HASH, table.size(), 2, perSample, quantize, continuousColors);
+            assertNotNull(mapped);
+            assertEquals(2, mapped.getGeneration());
+            assertSameGeometry(built, mapped);
+            assertEquals(continuousColors, mapped.isContinuousColors());
+            if (continuousColors)
+                assertArrayEquals(built.getColorRange(), mapped.getColorRange(), 0f);
+
+            Octree octree = built.getOctree();
+            Octree mappedOctree = mapped.getOctree();
+            assertEquals(octree.getNodeCount(), mappedOctree.getNodeCount());
+            for (int i = 0; i < table.size(); i++)
+                assertEquals(octree.getSlot(i), mappedOctree.getSlot(i));
+            float[] mvp = {0.2f, 0, 0, 0, 0, 0.2f, 0, 0, 0, 0, 0.2f, 0, -0.5f, -0.5f, -0.5f, 1f};
+            int ranges = octree.cull(mvp, 0.1f);
+            assertEquals(ranges, mappedOctree.cull(mvp, 0.1f));
+            for (int r = 0; r < ranges; r++) {
+                assertEquals(octree.getRangeFirst()[r], mappedOctree.getRangeFirst()[r]);
+                assertEquals(octree.getRangeCount()[r], mappedOctree.getRangeCount()[r]);
+            }
+        }
+    }
+
+    @Test
+    public void changesDoNotReachTheFile() {
+        PointTable table = TestTables.random(2000, 10f, COLORS);
+        GeometryCache cache = new GeometryCache(dir, GeometryCache.DEFAULT_MAX_BYTES);
+        cache.put(HASH, CubeGeometry.build(1, table, true, true, false, 100));
+        CubeGeometry mapped = cache.get(HASH, table.size(), 1, true, true, false);
+        table.delete(0, 1000);
+        mapped.update(table, 0, 1000);
+        mapped.release();
+        CubeGeometry again = cache.get(HASH, table.size(), 1, true, true, false);
+        ByteBuffer vertices = again.getVertices();
+        int deleted = 0;
+        for (int i = 0; i < again.getCount(); i++)
+            if ((vertices.getShort(8 * i + 6) & 0xFFFF) == CubeGeometry.DELETED_QUANTIZED)
+                deleted++;
+        assertEquals(0, deleted);
+    }
+
+    @Test
+    public void rejectsOtherData() {
+        PointTable table = TestTables.random(2000, 10f, COLORS);
+        GeometryCache cache = new GeometryCache(dir, GeometryCache.DEFAULT_MAX_BYTES);
+        cache.put(HASH, CubeGeometry.build(1, table, true, true, false, 100));
+        assertNull(cache.get(HASH, table.size(), 1, true, true, true));
+        assertNull(cache.get("fedcba9876543210", table.size(), 1, true, true, false));
+        // a file that does not fit is deleted
+        assertNull(cache.get(HASH, table.size() + 1, 1, true, true, false));
+        assertNull(cache.get(HASH, table.size(), 1, true, true, false));
+    }
+
+    @Test
+    public void evictsBeyondTheBudget() throws Exception {
+        PointTable table = TestTables.random(2000, 10f, COLORS);
+        CubeGeometry geometry = CubeGeometry.build(1, table, true, true, false, 100);
+        GeometryCache cache = new GeometryCache(dir, 3 * table.size() * geometry.getCubeBytes());
+        for (int i = 0; i < 5; i++)
+            cache.put(HASH + i, geometry);
+        int files = dir.listFiles().length;
+        assertTrue(files >= 1 && files < 5);
+    }
+}
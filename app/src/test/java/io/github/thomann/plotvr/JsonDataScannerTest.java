@@ -0,0 +1,109 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the json scanner.
+ */
+public class JsonDataScannerTest {
+
+    private static Data read(String json) throws IOException {
+        // a tiny buffer makes every token cross a buffer boundary somewhere
+        return new JsonDataScanner(new StringReader(json), 7).read(new Data());
+    }
+
+    @Test
+    public void readsSamplesAndSpeed() throws Exception {
+        Data data = read("{ \"data\": [[0,0,0,1],[5.1,3.5,-1.4,2]],\n \"speed\": 0.25 }");
+        PointTable table = data.getTable();
+        assertEquals(2, table.size());
+        assertEquals(5.1f, table.getX(1), 0f);
+        assertEquals(3.5f, table.getY(1), 0f);
+        assertEquals(-1.4f, table.getZ(1), 0f);
+        assertEquals(2, table.getColorIndex(1));
+        assertEquals(0.25, data.getSpeed(), 0);
+    }
+
+    @Test
+    public void skipsUnknownKeys() throws Exception {
+        Data data = read("{\"title\": \"a \\\"quoted\\\" ] title\", \"meta\": {\"a\": [1, {\"b\": null}], \"c\": true},"
+                + " \"data\": [[1,2,3,4]], \"list\": [], \"flag\": false, \"n\": -1e-3}");
+        assertEquals(1, data.getSampleCount());
+        assertEquals(4f, data.getTable().getColor(0), 0f);
+    }
+
+    @Test
+    public void padsShortAndTruncatesLongSamples() throws Exception {
+        PointTable table = read("{\"data\": [[1,2],[],[1,2,3,4,5,[6]]]}").getTable();
+        assertEquals(3, table.size());
+        assertEquals(2f, table.getY(0), 0f);
+        assertEquals(0f, table.getZ(0), 0f);
+        assertEquals(0f, table.getX(1), 0f);
+        assertEquals(4f, table.getColor(2), 0f);
+    }
+
+    @Test
+    public void readsNullAsNaN() throws Exception {
+        PointTable table = read("{\"data\": [[null,1,2,3]]}").getTable();
+        assertTrue(Float.isNaN(table.getX(0)));
+    }
+
+    @Test
+    public void emptyData() throws Exception {
+        assertEquals(0, read("{\"data\": []}").getSampleCount());
+        assertNull(read("{}").getTable());
+    }
+
+    @Test
+    public void parsesNumbersLikeDoubleParseDouble() throws Exception {
+        String[] numbers = {"0", "-0", "0.0005", "123456789012345678901234", "1E10", "2.5e-7",
+                "-3.4028235E38", "1e-45", "0.1", "12345.678901234567", "9007199254740993"};
+        for (String number : numbers) {
+            double value = new JsonDataScanner(new StringReader(number + " ")).readDouble();
+            assertEquals(number, Double.parseDouble(number), value, 0);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String number = Float.toString((float) ((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 10)));
+            double value = new JsonDataScanner(new StringReader(number + ",")).readDouble();
+            assertEquals(number, (float) Double.parseDouble(number), (float) value, 0f);
+        }
+    }
+
+    @Test
+    public void publishesChunks() throws Exception {
+        StringBuilder json = new StringBuilder("{\"data\": [");
+        for (int i = 0; i < 10; i++)
+            json.append(i == 0 ? "" : ",").append("[").append(i).append(",0,0,1]");
+        json.append("]}");
+        final List<Integer> offsets = new ArrayList<Integer>();
+        final List<Integer> sizes = new ArrayList<Integer>();
+        JsonDataScanner scanner = new JsonDataScanner(new StringReader(json.toString()));
+        scanner.setChunkListener(new Data.ChunkListener() {
+            @Override
+            public void onChunk(Data data, PointTable chunk, int offset) {
+                offsets.add(offset);
+                sizes.add(chunk.size());
+                assertEquals(offset, chunk.getX(0), 0f);
+            }
+        }, 4);
+        Data data = scanner.read(new Data());
+        assertEquals(Arrays.asList(0, 4, 8), offsets);
+        assertEquals(Arrays.asList(4, 4, 2), sizes);
+        assertEquals(10, data.getSampleCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedInput() throws Exception {
+        read("{\"data\": [[1,2,3,4],[5,6");
+    }
+}
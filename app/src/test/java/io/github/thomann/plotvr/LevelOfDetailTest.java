@@ -0,0 +1,125 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the selection of near and far samples.
+ */
+public class LevelOfDetailTest {
+
+    private static final float[] ORIGIN = {0f, 0f, 0f};
+
+    /**
+     * Float records of samples on the x axis at the given distances, with color index i.
+     */
+    private static ByteBuffer floatRecords(float... distances) {
+        ByteBuffer records = ByteBuffer.allocateDirect(16 * distances.length).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < distances.length; i++) {
+            records.putFloat(16 * i, distances[i]);
+            records.putFloat(16 * i + 12, i);
+        }
+        return records;
+    }
+
+    private static float[] xOf(ByteBuffer records, int count) {
+        float[] x = new float[count];
+        for (int i = 0; i < count; i++)
+            x[i] = records.getFloat(16 * i);
+        return x;
+    }
+
+    @Test
+    public void splitsByDistance() {
+        ByteBuffer records = floatRecords(1f, 50f, 5f, 500f, 20f);
+        LevelOfDetail lod = new LevelOfDetail();
+        assertTrue(lod.update(records, 5, null, ORIGIN, 10f, 100f, 1000));
+        assertTrue(lod.hasSelection());
+        assertArrayEquals(new float[]{1f, 5f}, xOf(lod.getNear(), lod.getNearCount()), 0f);
+        assertArrayEquals(new float[]{50f, 20f}, xOf(lod.getFar(), lod.getFarCount()), 0f);
+        // the color index comes along
+        assertEquals(2f, lod.getNear().getFloat(16 + 12), 0f);
+    }
+
+    @Test
+    public void skipsDeletedSamples() {
+        ByteBuffer records = floatRecords(1f, 2f, 3f);
+        records.putFloat(16 + 12, CubeGeometry.DELETED_FLOAT);
+        LevelOfDetail lod = new LevelOfDetail();
+        lod.update(records, 3, null, ORIGIN, 10f, 100f, 1000);
+        assertArrayEquals(new float[]{1f, 3f}, xOf(lod.getNear(), lod.getNearCount()), 0f);
+    }
+
+    @Test
+    public void selectsQuantizedRecords() {
+        Quantization quantization = new Quantization(new float[]{0f, 0f, 0f}, new float[]{100f, 100f, 100f});
+        ByteBuffer records = ByteBuffer.allocateDirect(8 * 3).order(ByteOrder.nativeOrder());
+        float[] distances = {5f, 50f, 99f};
+        for (int i = 0; i < distances.length; i++)
+            records.putShort(8 * i, quantization.quantize(0, distances[i]));
+        records.putShort(8 * 2 + 6, (short) CubeGeometry.DELETED_QUANTIZED);
+        LevelOfDetail lod = new LevelOfDetail();
+        lod.update(records, 3, quantization, ORIGIN, 10f, 100f, 1000);
+        assertEquals(1, lod.getNearCount());
+        assertEquals(1, lod.getFarCount());
+        assertEquals(50f, quantization.dequantize(0, lod.getFar().getShort(0)), 0.01f);
+    }
+
+    @Test
+    public void keepsTheSelectionUntilAPassIsComplete() {
+        ByteBuffer records = floatRecords(1f, 2f, 3f, 4f, 5f);
+        LevelOfDetail lod = new LevelOfDetail();
+        assertFalse(lod.update(records, 5, null, ORIGIN, 10f, 100f, 2));
+        assertFalse(lod.hasSelection());
+        assertFalse(lod.update(records, 5, null, ORIGIN, 10f, 100f, 2));
+        assertTrue(lod.update(records, 5, null, ORIGIN, 10f, 100f, 2));
+        assertEquals(5, lod.getNearCount());
+
+        // walking away: the old selection is drawn until the new one is complete
+        float[] away = {-50f, 0f, 0f};
+        assertFalse(lod.update(records, 5, null, away, 10f, 100f, 3));
+        assertEquals(5, lod.getNearCount());
+        assertTrue(lod.update(records, 5, null, away, 10f, 100f, 3));
+        assertEquals(0, lod.getNearCount());
+        assertEquals(5, lod.getFarCount());
+    }
+
+    @Test
+    public void selectsAgainOnlyWhenNeeded() {
+        ByteBuffer records = floatRecords(1f, 2f);
+        LevelOfDetail lod = new LevelOfDetail();
+        assertTrue(lod.update(records, 2, null, ORIGIN, 10f, 100f, 1000));
+        // moving less than the tolerance
+        assertFalse(lod.update(records, 2, null, new float[]{0.5f, 0f, 0f}, 10f, 100f, 1000));
+        lod.restart();
+        assertTrue(lod.update(records, 2, null, ORIGIN, 10f, 100f, 1000));
+        lod.reset();
+        assertFalse(lod.hasSelection());
+        assertTrue(lod.update(records, 2, null, ORIGIN, 10f, 100f, 1000));
+    }
+
+    @Test
+    public void buffersGrowWithTheSelection() {
+        // every tenth sample near, the others beyond the far distance
+        int count = 100000;
+        float[] distances = new float[count];
+        for (int i = 0; i < count; i++)
+            distances[i] = i % 10 == 0 ? 1f : 1000f;
+        ByteBuffer records = floatRecords(distances);
+        LevelOfDetail lod = new LevelOfDetail();
+        while (!lod.update(records, count, null, ORIGIN, 10f, 100f, 1000)) {
+        }
+        assertEquals(count / 10, lod.getNearCount());
+        for (int i = 0; i < count / 10; i++)
+            // the index of the sample, in the place of the color index
+            assertEquals(10f * i, lod.getNear().getFloat(16 * i + 12), 0f);
+        assertEquals(0, lod.getFarCount());
+        // about the records selected, not those of all samples
+        assertTrue(lod.getNear().capacity() <= 2 * 16 * count / 10 * 1.25);
+        assertTrue(lod.getFar().capacity() <= 16 * 1000 * 1.25);
+    }
+}
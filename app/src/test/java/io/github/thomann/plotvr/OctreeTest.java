@@ -0,0 +1,108 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the octree: the slots must be a permutation, and culling must keep
+ * every sample in the view while dropping most of the others.
+ */
+public class OctreeTest {
+
+    /**
+     * Samples from -extent to extent on each axis.
+     */
+    private static PointTable randomTable(int n, float extent) {
+        return TestTables.random(n, 0f, 2 * extent, 2 * extent, 8);
+    }
+
+    /**
+     * An orthographic projection of the box from -size to size around the center, column-major.
+     */
+    private static float[] ortho(float size, float cx, float cy, float cz) {
+        float[] m = new float[16];
+        m[0] = m[5] = m[10] = 1 / size;
+        m[12] = -cx / size;
+        m[13] = -cy / size;
+        m[14] = -cz / size;
+        m[15] = 1f;
+        return m;
+    }
+
+    private static boolean[] drawn(Octree tree, int ranges) {
+        boolean[] drawn = new boolean[tree.size()];
+        for (int r = 0; r < ranges; r++)
+            for (int s = tree.getRangeFirst()[r]; s < tree.getRangeFirst()[r] + tree.getRangeCount()[r]; s++) {
+                assertFalse("slot " + s + " drawn twice", drawn[s]);
+                drawn[s] = true;
+            }
+        return drawn;
+    }
+
+    @Test
+    public void slotsArePermutation() {
+        PointTable table = randomTable(20000, 10f);
+        Octree tree = Octree.build(table, 100);
+        boolean[] used = new boolean[table.size()];
+        for (int i = 0; i < table.size(); i++) {
+            int slot = tree.getSlot(i);
+            assertFalse(used[slot]);
+            used[slot] = true;
+        }
+        assertTrue(tree.getNodeCount() > 20000 / 100);
+        // appended samples keep their index
+        assertEquals(20005, tree.getSlot(20005));
+    }
+
+    @Test
+    public void cullsOutsideOfTheView() {
+        PointTable table = randomTable(20000, 10f);
+        Octree tree = Octree.build(table, 100);
+        float margin = 0.1f;
+        int ranges = tree.cull(ortho(2f, 3f, 0f, 0f), margin);
+        boolean[] drawn = drawn(tree, ranges);
+        int count = 0;
+        for (int i = 0; i < table.size(); i++) {
+            boolean visible = Math.abs(table.getX(i) - 3f) <= 2f + margin && Math.abs(table.getY(i)) <= 2f + margin
+                    && Math.abs(table.getZ(i)) <= 2f + margin;
+            if (visible)
+                assertTrue("sample " + i + " culled", drawn[tree.getSlot(i)]);
+            if (drawn[tree.getSlot(i)])
+                count++;
+        }
+        // the view holds 1/125 of the volume, leaves reach out a little
+        assertTrue("drew " + count, count < table.size() / 20);
+    }
+
+    @Test
+    public void drawsEverythingInView() {
+        PointTable table = randomTable(5000, 1f);
+        Octree tree = Octree.build(table, 100);
+        int ranges = tree.cull(ortho(5f, 0f, 0f, 0f), 0f);
+        assertEquals(1, ranges);
+        assertEquals(0, tree.getRangeFirst()[0]);
+        assertEquals(5000, tree.getRangeCount()[0]);
+    }
+
+    @Test
+    public void movedSampleIsNotCulled() {
+        PointTable table = randomTable(5000, 1f);
+        Octree tree = Octree.build(table, 100);
+        float[] far = ortho(1f, 50f, 0f, 0f);
+        assertEquals(0, tree.cull(far, 0f));
+        tree.include(42, 50f, 0f, 0f);
+        boolean[] drawn = drawn(tree, tree.cull(far, 0f));
+        assertTrue(drawn[tree.getSlot(42)]);
+    }
+
+    @Test
+    public void identicalPositionsEndSplitting() {
+        PointTable.Builder builder = new PointTable.Builder(1000);
+        for (int i = 0; i < 1000; i++)
+            builder.add(1f, 2f, 3f, 0f);
+        Octree tree = Octree.build(builder.build(), 10);
+        assertEquals(1, tree.cull(ortho(5f, 0f, 0f, 0f), 0f));
+    }
+}
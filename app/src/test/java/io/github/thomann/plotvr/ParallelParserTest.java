@@ -0,0 +1,105 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of parsing on several threads, compared to the sequential scanner.
+ */
+public class ParallelParserTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static String json(int samples, String separator) {
+        Random random = new Random(samples);
+        StringBuilder sb = new StringBuilder("{\"name\": \"[data]\", \"data\" :").append(separator).append('[');
+        for (int i = 0; i < samples; i++) {
+            if (i > 0)
+                sb.append(',').append(separator);
+            sb.append(String.format(Locale.US, "[%.5f, %.5f,%.5f ,%d]",
+                    random.nextGaussian(), random.nextGaussian(), random.nextGaussian(), random.nextInt(8)));
+        }
+        return sb.append("], \"speed\": 2.5, \"more\": [[1],[2]]}").toString();
+    }
+
+    private static void assertSameAsSequential(String json, int threads) throws Exception {
+        byte[] bytes = json.getBytes(UTF8);
+        Data expected = new Data().readJson(new StringReader(json));
+        Data actual = new ParallelParser(threads).parse(bytes, bytes.length, "application/json");
+        assertEquals(expected.getSpeed(), actual.getSpeed(), 0d);
+        PointTable e = expected.getTable();
+        PointTable a = actual.getTable();
+        assertEquals(e.size(), a.size());
+        for (int i = 0; i < e.size(); i++) {
+            assertEquals(e.getX(i), a.getX(i), 0f);
+            assertEquals(e.getY(i), a.getY(i), 0f);
+            assertEquals(e.getZ(i), a.getZ(i), 0f);
+            assertEquals(e.getColor(i), a.getColor(i), 0f);
+        }
+    }
+
+    @Test
+    public void parsesLikeTheSequentialScanner() throws Exception {
+        String json = json(20000, "");
+        for (int threads = 1; threads <= 8; threads++)
+            assertSameAsSequential(json, threads);
+    }
+
+    @Test
+    public void parsesWithWhiteSpaceBetweenSamples() throws Exception {
+        assertSameAsSequential(json(20000, "\n  "), 3);
+    }
+
+    @Test
+    public void parsesNestedSurplusValues() throws Exception {
+        assertSameAsSequential(json(20000, " ").replaceAll("(\\d)\\]", "$1,[9,[8]]]"), 4);
+    }
+
+    @Test
+    public void fallsBackOnBracketsInStrings() throws Exception {
+        assertSameAsSequential(json(20000, " ").replaceAll("(\\d)\\]", "$1,\"],[\"]"), 4);
+    }
+
+    @Test
+    public void parsesSmallAndEmptyData() throws Exception {
+        assertSameAsSequential(json(3, ""), 4);
+        assertSameAsSequential(json(0, ""), 4);
+    }
+
+    @Test
+    public void parsesColumnsOfTheFirstBytes() throws Exception {
+        Data data = new Data().readJson(new StringReader(json(1000, "")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarFormat.write(data, out);
+        // the array of a body is larger than the body
+        byte[] bytes = Arrays.copyOf(out.toByteArray(), out.size() + 100);
+        PointTable table = new ParallelParser(2).parse(bytes, out.size(), ColumnarFormat.MIME_TYPE).getTable();
+        assertEquals(1000, table.size());
+        assertEquals(data.getTable().getZ(999), table.getZ(999), 0f);
+    }
+
+    @Test
+    public void findsTheDataArray() throws Exception {
+        byte[] bytes = "{\"x\": {\"data\": [1]}, \"data\": [[1,2,3,4]]}".getBytes(UTF8);
+        assertEquals(29, ParallelParser.findDataArray(bytes, bytes.length));
+        bytes = "{\"x\": [\"data\"]}".getBytes(UTF8);
+        assertEquals(-1, ParallelParser.findDataArray(bytes, bytes.length));
+    }
+
+    @Test
+    public void countsSamples() throws Exception {
+        byte[] bytes = "[1,2],[3,\"]\"],[]]".getBytes(UTF8);
+        int[] end = new int[1];
+        assertEquals(3, ParallelParser.countSamples(bytes, 0, bytes.length, end));
+        assertEquals(bytes.length - 1, end[0]);
+        assertEquals(2, ParallelParser.countSamples(bytes, 0, 14, null));
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.thomann.plotvr;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of 16 bit positions: the measured error must stay within the bound, in a
+ * fixed box as well as in one grown by appended samples, and the bound far below the size
+ * of a cube, or the positions are not quantized.
+ */
+public class QuantizationTest {
+
+    // the half size of the cubes drawn by the Renderer
+    private static final float CUBE_HALF_SIZE = 0.1f;
+
+    /**
+     * A flat box, 100 times thinner in z.
+     */
+    private static PointTable randomTable(int n, float extent, float center) {
+        return TestTables.random(n, center, extent, extent * 0.01f, 8);
+    }
+
+    private static float measureError(PointTable table, Quantization quantization, int axis) {
+        float maxError = 0f;
+        for (int i = 0; i < table.size(); i++) {
+            float value = table.getColumn(axis).get(i);
+            float error = Math.abs(quantization.dequantize(axis, quantization.quantize(axis, value)) - value);
+            maxError = Math.max(maxError, error);
+        }
+        return maxError;
+    }
+
+    @Test
+    public void errorStaysWithinTheBound() {
+        for (float extent : new float[]{1f, 100f, 10000f}) {
+            PointTable table = randomTable(100000, extent, extent / 3);
+            Quantization quantization = Quantization.of(table, CUBE_HALF_SIZE);
+            for (int axis = 0; axis < Quantization.AXES; axis++) {
+                float measured = measureError(table, quantization, axis);
+                float bound = quantization.getMaxError(axis);
+                // float arithmetic adds a little to the half step
+                assertTrue("axis " + axis + " extent " + extent + ": " + measured + " > " + bound,
+                        measured <= 1.001f * bound + Math.ulp(extent));
+            }
+        }
+    }
+
+    @Test
+    public void boundIsFarBelowTheCubeSize() {
+        Quantization quantization = Quantization.of(randomTable(1000, 100f, 0f), CUBE_HALF_SIZE);
+        for (int axis = 0; axis < Quantization.AXES; axis++)
+            assertTrue(quantization.getMaxError(axis) < CUBE_HALF_SIZE / 100);
+    }
+
+    @Test
+    public void errorStaysWithinTheBoundWhileTheBoxGrows() {
+        CubeGeometry geometry = new CubeGeometry(0, true, true, false);
+        PointTable table = randomTable(1000, 10f, 0f);
+        geometry.append(table);
+        // every box the cubes were quantized in adds its half step
+        float bound = geometry.getQuantization().getMaxError();
+        int boxes = 1;
+        for (float extent : new float[]{20f, 50f, 90f}) {
+            table.append(randomTable(1000, extent, 0f));
+            Quantization old = geometry.getQuantization();
+            geometry.appendFrom(table);
+            if (geometry.getQuantization() != old) {
+                bound += geometry.getQuantization().getMaxError();
+                boxes++;
+            }
+        }
+        assertTrue(boxes > 2);
+        assertFalse(geometry.isTooCoarse());
+
+        ByteBuffer records = geometry.getVertices();
+        Quantization quantization = geometry.getQuantization();
+        for (int i = 0; i < table.size(); i++)
+            for (int axis = 0; axis < Quantization.AXES; axis++) {
+                float value = table.getColumn(axis).get(i);
+                float error = Math.abs(quantization.dequantize(axis, records.getShort(8 * i + 2 * axis)) - value);
+                assertTrue("sample " + i + " axis " + axis + ": " + error + " > " + bound,
+                        error <= 1.001f * bound + Math.ulp(200f));
+            }
+
+        // far beyond, the steps of the box get too coarse
+        table.append(randomTable(1, 0f, 100000f));
+        geometry.appendFrom(table);
+        assertTrue(geometry.isTooCoarse());
+    }
+
+    @Test
+    public void doesNotQuantizeTooLargeABox() {
+        PointTable table = randomTable(1000, 100000f, 0f);
+        CubeGeometry geometry = CubeGeometry.build(0, table, true, true, false, 1024);
+        assertFalse(geometry.isQuantized());
+        assertTrue(geometry.isTooCoarse());
+        assertEquals(table.getX(7), geometry.getVertices().getFloat(16 * slot(geometry, 7)), 0f);
+
+        geometry = CubeGeometry.build(0, randomTable(1000, 100f, 0f), true, true, false, 1024);
+        assertTrue(geometry.isQuantized());
+        assertFalse(geometry.isTooCoarse());
+    }
+
+    private static int slot(CubeGeometry geometry, int sample) {
+        return geometry.getOctree() == null ? sample : geometry.getOctree().getSlot(sample);
+    }
+
+    @Test
+    public void clampsAndKeepsTheCorners() {
+        Quantization quantization = new Quantization(new float[]{-1, 0, 5}, new float[]{1, 2, 5});
+        assertEquals(0, quantization.quantize(0, -7f));
+        assertEquals((short) Quantization.LEVELS, quantization.quantize(0, 7f));
+        assertEquals(0, quantization.quantize(0, Float.NaN));
+        assertEquals(-1f, quantization.dequantize(0, quantization.quantize(0, -1f)), 0f);
+        assertEquals(2f, quantization.dequantize(1, quantization.quantize(1, 2f)), 1e-6f);
+        // a flat axis
+        assertEquals(5f, quantization.dequantize(2, quantization.quantize(2, 5f)), 1e-6f);
+        assertTrue(quantization.contains(new float[]{-0.5f, 0.5f, 5}, new float[]{0.5f, 1, 5}, 0f));
+        assertFalse(quantization.contains(new float[]{-0.5f, 0.5f, 5}, new float[]{0.5f, 1, 5}, 0.6f));
+    }
+
+    @Test
+    public void columnarRoundTripWithQuantizedPositions() throws Exception {
+        PointTable table = randomTable(10001, 50f, 3f);
+        Data data = new Data();
+        data.setTable(table);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ColumnarFormat.write(data, plain);
+        ByteArrayOutputStream quantized = new ByteArrayOutputStream();
+        ColumnarFormat.write(data, quantized, true);
+        // positions take half the bytes
+        assertTrue(quantized.size() < 0.65 * plain.size());
+
+        PointTable read = new Data().readColumns(new ByteArrayInputStream(quantized.toByteArray())).getTable();
+        Quantization quantization = Quantization.of(table, 0f);
+        assertEquals(table.size(), read.size());
+        for (int i = 0; i < table.size(); i++) {
+            assertEquals(table.getX(i), read.getX(i), 1.001f * quantization.getMaxError(0) + Math.ulp(53f));
+            assertEquals(table.getY(i), read.getY(i), 1.001f * quantization.getMaxError(1) + Math.ulp(53f));
+            assertEquals(table.getZ(i), read.getZ(i), 1.001f * quantization.getMaxError(2) + Math.ulp(53f));
+            assertEquals(table.getColor(i), read.getColor(i), 0f);
+        }
+    }
+}
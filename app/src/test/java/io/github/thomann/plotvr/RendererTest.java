@@ -0,0 +1,310 @@
+package io.github.thomann.plotvr;
+
+import com.google.vr.sdk.base.Eye;
+import com.google.vr.sdk.base.HeadTransform;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the renderer, drawing frames on a {@link RecordingGl}.
+ * <p/>
+ * <p>The data stays below the size of an octree leaf, so that nothing is culled and the calls
+ * do not depend on the matrices.
+ */
+public class RendererTest {
+
+    static final int SAMPLES = 500;
+    private static final int FLOOR_VERTICES = 6;
+
+    static Data randomData(int n) {
+        Data data = new Data();
+        data.setTable(TestTables.random(n, 10f, 4));
+        return data;
+    }
+
+    private static void frame(Renderer renderer) {
+        frame(renderer, new HeadTransform(), new Eye(Eye.Type.LEFT), new Eye(Eye.Type.RIGHT));
+    }
+
+    static void frame(Renderer renderer, HeadTransform head, Eye left, Eye right) {
+        renderer.onNewFrame(head);
+        renderer.onDrawEye(left);
+        renderer.onDrawEye(right);
+        renderer.onFinishFrame(null);
+    }
+
+    /**
+     * Frames with the keys of handle_char in between: moving in all directions, walking,
+     * and letting go of the head and tracking it again.
+     */
+    static void framesAndInputs(Renderer renderer, int frames, HeadTransform head, Eye left, Eye right) {
+        for (int i = 0; i < frames; i++) {
+            frame(renderer, head, left, right);
+            renderer.go(i % 3, i % 2 == 0 ? 1 : -1);
+            if (i % 10 == 0)
+                renderer.setDoWalking(!renderer.isDoWalking());
+            if (i % 100 == 0)
+                renderer.toggleTrackHead();
+        }
+    }
+
+    /**
+     * Draws frames until the geometry built in the background is swapped in.
+     */
+    static void settle(Renderer renderer) throws InterruptedException {
+        frame(renderer);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (renderer.isBuilding()) {
+            assertTrue("Still building", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+            frame(renderer);
+        }
+        frame(renderer);
+    }
+
+    static Renderer start(RecordingGl gl, Data data) throws InterruptedException {
+        Renderer renderer = new Renderer(null, gl);
+        renderer.onSurfaceCreated(null);
+        renderer.onSurfaceChanged(1000, 1000);
+        renderer.setData(data);
+        settle(renderer);
+        assertEquals(0, gl.glGetError());
+        return renderer;
+    }
+
+    @Test
+    public void createsProgramsForTheContext() {
+        RecordingGl gles3 = new RecordingGl(true);
+        new Renderer(null, gles3).onSurfaceCreated(null);
+        // cubes as triangles, floor, instanced cubes and points
+        assertEquals(4, gles3.getPrograms());
+        // the texels of the palette
+        assertEquals(8 * 4, gles3.getBytesUploaded());
+
+        RecordingGl gles2 = new RecordingGl(false);
+        new Renderer(null, gles2).onSurfaceCreated(null);
+        assertEquals(3, gles2.getPrograms());
+    }
+
+    @Test
+    public void drawsInstancesOnGles3() throws Exception {
+        RecordingGl gl = new RecordingGl(true);
+        Renderer renderer = start(gl, randomData(SAMPLES));
+        gl.resetCounts();
+        frame(renderer);
+        // cubes and floor for each eye
+        assertEquals(4, gl.getDrawCalls());
+        assertEquals(2 * (36 * SAMPLES + FLOOR_VERTICES), gl.getVertices());
+        // nothing changed, nothing to upload
+        assertEquals(0, gl.getBytesUploaded());
+        assertEquals(0, gl.getBufferAllocations());
+        assertEquals(0, gl.glGetError());
+    }
+
+    @Test
+    public void drawsTrianglesOnGles2() throws Exception {
+        RecordingGl gl = new RecordingGl(false);
+        Renderer renderer = start(gl, randomData(SAMPLES));
+        gl.resetCounts();
+        frame(renderer);
+        assertEquals(4, gl.getDrawCalls());
+        assertEquals(2 * (36 * SAMPLES + FLOOR_VERTICES), gl.getVertices());
+        assertEquals(0, gl.getBytesUploaded());
+        // no calls of GLES 3
+        assertEquals(0, gl.glGetError());
+    }
+
+    @Test
+    public void pointsAfterSwitching() throws Exception {
+        RecordingGl gl = new RecordingGl(false);
+        Renderer renderer = start(gl, randomData(SAMPLES));
+        renderer.setPointSprites(true);
+        settle(renderer);
+        gl.resetCounts();
+        frame(renderer);
+        assertEquals(2 * (SAMPLES + FLOOR_VERTICES), gl.getVertices());
+        assertEquals(0, gl.glGetError());
+    }
+
+    @Test
+    public void uploadsOnlyTheChangedSamples() throws Exception {
+        RecordingGl gl = new RecordingGl(true);
+        Renderer renderer = start(gl, randomData(SAMPLES));
+        renderer.applyDelta(Delta.parse("{\"op\": \"recolor\", \"from\": 3, \"colors\": [5]}"));
+        gl.resetCounts();
+        frame(renderer);
+        // one record of position and color level
+        assertEquals(16, gl.getBytesUploaded());
+        assertEquals(0, gl.getBufferAllocations());
+        assertEquals(0, gl.glGetError());
+    }
+
+    @Test
+    public void uploadsOnlyTheCubesOfARebuild() throws Exception {
+        RecordingGl gl = new RecordingGl(true);
+        Renderer renderer = start(gl, randomData(SAMPLES));
+        renderer.setData(randomData(SAMPLES));
+        gl.resetCounts();
+        settle(renderer);
+        // one record of position and color level per sample, not the rest of the pooled buffer
+        assertEquals(16 * SAMPLES, gl.getBytesUploaded());
+        assertEquals(1, gl.getBufferAllocations());
+        assertEquals(0, gl.glGetError());
+    }
+
+    @Test
+    public void deltasGrowingTheBoxTooMuchRebuildUnquantized() throws Exception {
+        RecordingGl gl = new RecordingGl(true);
+        Renderer renderer = start(gl, randomData(SAMPLES));
+        renderer.setQuantizePositions(true);
+        settle(renderer);
+        renderer.applyDelta(Delta.parse("{\"op\": \"append\", \"data\": [[100000, 0, 0, 1]]}"));
+        gl.resetCounts();
+        settle(renderer);
+        // all records built and uploaded anew, as floats
+        assertTrue(gl.getBytesUploaded() >= 16 * (SAMPLES + 1));
+        assertEquals(0, gl.glGetError());
+    }
+
+    @Test
+    public void reloadAfterDeltasRebuilds() throws Exception {
+        RecordingGl gl = new RecordingGl(true);
+        Data data = randomData(SAMPLES);
+        data.setContentHash("same");
+        Renderer renderer = start(gl, data);
+        renderer.applyDelta(Delta.parse("{\"op\": \"recolor\", \"from\": 3, \"colors\": [5]}"));
+        frame(renderer);
+        // the same content again, as after a 304, which the delta changed meanwhile
+        Data reloaded = randomData(SAMPLES);
+        reloaded.setContentHash("same");
+        renderer.setData(reloaded);
+        gl.resetCounts();
+        settle(renderer);
+        assertSame(reloaded, renderer.getData());
+        // all cubes built and uploaded anew
+        assertTrue(gl.getBytesUploaded() >= 8 * SAMPLES);
+        assertEquals(0, gl.glGetError());
+    }
+
+    @Test
+    public void notModifiedAfterDeltasRestoresTheServerData() throws Exception {
+        File dir = File.createTempFile("datacache", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        TestDataServer server = new TestDataServer(SAMPLES, TestDataServer.UNTHROTTLED);
+        try {
+            DataCache cache = new DataCache(dir, DataCache.DEFAULT_MAX_BYTES);
+            DataLoader loader = new DataLoader(cache, null);
+            Data data = loader.load(server.getUrl(), null, 0);
+            loader.putInCache();
+            float color = data.getTable().getColor(3);
+            RecordingGl gl = new RecordingGl(true);
+            Renderer renderer = start(gl, data);
+            renderer.applyDelta(Delta.parse("{\"op\": \"recolor\", \"from\": 3, \"colors\": [9]}"));
+            frame(renderer);
+            assertEquals(9f, data.getTable().getColor(3), 0f);
+
+            long sentBefore = server.getBytesSent();
+            Data reloaded = new DataLoader(cache, renderer.getData()).load(server.getUrl(), null, 0);
+            // revalidated, not downloaded again, but not the changed samples either
+            assertEquals(sentBefore, server.getBytesSent());
+            assertNotSame(data, reloaded);
+            assertEquals(color, reloaded.getTable().getColor(3), 0f);
+            renderer.setData(reloaded);
+            settle(renderer);
+            assertSame(reloaded, renderer.getData());
+            assertEquals(0, gl.glGetError());
+        } finally {
+            server.stop();
+            File[] files = dir.listFiles();
+            if (files != null)
+                for (File file : files)
+                    file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void drawsTheBuiltGeometryBeforeCachingIt() throws Exception {
+        File dir = File.createTempFile("geometrycache", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final GeometryCache cache = new GeometryCache(dir, GeometryCache.DEFAULT_MAX_BYTES) {
+            @Override
+            synchronized void put(String contentHash, CubeGeometry geometry) {
+                writing.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.put(contentHash, geometry);
+            }
+        };
+        try {
+            int samples = Renderer.GEOMETRY_CACHE_MIN_SAMPLES;
+            RecordingGl gl = new RecordingGl(true);
+            Renderer renderer = new Renderer(null, gl) {
+                @Override
+                GeometryCache getGeometryCache() {
+                    return cache;
+                }
+            };
+            renderer.onSurfaceCreated(null);
+            renderer.onSurfaceChanged(1000, 1000);
+            Data data = randomData(samples);
+            data.setContentHash("drawn");
+            renderer.setData(data);
+            // swapped in while the write waits
+            settle(renderer);
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            // a delta waits for the write, which must not see it
+            renderer.applyDelta(Delta.parse("{\"op\": \"recolor\", \"from\": 3, \"colors\": [9]}"));
+            gl.resetCounts();
+            frame(renderer);
+            assertEquals(0, gl.getBytesUploaded());
+            proceed.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (gl.getBytesUploaded() == 0) {
+                assertTrue("Delta not applied", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+                frame(renderer);
+            }
+            assertEquals(16, gl.getBytesUploaded());
+            assertEquals(9f, data.getTable().getColor(3), 0f);
+
+            CubeGeometry cached = cache.get("drawn", samples, 1, true, false, false);
+            assertNotNull(cached);
+            CubeGeometry expected = CubeGeometry.build(1, randomData(samples).getTable(), true, false, false, 100);
+            int level = 16 * cached.getOctree().getSlot(3) + 12;
+            assertEquals(expected.getVertices().getFloat(16 * expected.getOctree().getSlot(3) + 12),
+                    cached.getVertices().getFloat(level), 0f);
+            assertEquals(0, gl.glGetError());
+        } finally {
+            proceed.countDown();
+            File[] files = dir.listFiles();
+            if (files != null)
+                for (File file : files)
+                    file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void releasesTheBuffersOnShutdown() throws Exception {
+        RecordingGl gl = new RecordingGl(true);
+        Renderer renderer = start(gl, randomData(SAMPLES));
+        assertTrue(gl.getLiveBuffers() > 0);
+        renderer.onRendererShutdown();
+        assertEquals(0, gl.getLiveBuffers());
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.thomann.plotvr;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local HTTP server serving a synthetic data.json, for tests of the {@link DataLoader}.
+ * <p/>
+ * <p>It compresses according to Accept-Encoding like a server with pre-compressed static files,
+ * and throttles the body to a given bandwidth to mimic a Wi-Fi link, unless it is {@link #UNTHROTTLED}.
+ * The content never changes, so it answers a request revalidating its {@link #ETAG} with 304.
+ */
+class TestDataServer implements HttpHandler {
+
+    static final long UNTHROTTLED = 0;
+    static final String ETAG = "\"v1\"";
+
+    private final HttpServer server;
+    private final byte[] json;
+    private final byte[] gzip;
+    private final byte[] deflate;
+    private final long bytesPerSecond;
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    TestDataServer(int samples, long bytesPerSecond) throws IOException {
+        this.json = syntheticJson(samples);
+        this.gzip = compress(json, true);
+        this.deflate = compress(json, false);
+        this.bytesPerSecond = bytesPerSecond;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/data.json", this);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/data.json";
+    }
+
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    int getJsonLength() {
+        return json.length;
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        byte[] body = json;
+        if (accept != null && accept.contains("gzip")) {
+            body = gzip;
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        } else if (accept != null && accept.contains("deflate")) {
+            body = deflate;
+            exchange.getResponseHeaders().set("Content-Encoding", "deflate");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        long start = System.nanoTime();
+        int piece = 16 * 1024;
+        for (int offset = 0; offset < body.length; offset += piece) {
+            int length = Math.min(piece, body.length - offset);
+            out.write(body, offset, length);
+            out.flush();
+            bytesSent.addAndGet(length);
+            if (bytesPerSecond == UNTHROTTLED)
+                continue;
+            long due = start + (offset + length) * 1000000000L / bytesPerSecond;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        out.close();
+    }
+
+    static byte[] syntheticJson(int samples) {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder("{\"data\": [");
+        for (int i = 0; i < samples; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(String.format(Locale.US, "[%.3f,%.3f,%.3f,%d]", random.nextGaussian(),
+                    random.nextGaussian(), random.nextGaussian(), random.nextInt(8)));
+        }
+        sb.append("], \"speed\": 1}");
+        return sb.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    private static byte[] compress(byte[] data, boolean gzip) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = gzip ? new GZIPOutputStream(bytes)
+                : new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_COMPRESSION));
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.thomann.plotvr;
+
+import java.util.Random;
+
+/**
+ * Random tables for the tests, the same for the same arguments.
+ */
+class TestTables {
+
+    private TestTables() {
+    }
+
+    /**
+     * Samples uniformly distributed in the cube from 0 to extent on each axis.
+     */
+    static PointTable random(int n, float extent, int colors) {
+        return random(n, extent / 2, extent, extent, colors);
+    }
+
+    /**
+     * Samples uniformly distributed in a box around center on each axis, extent wide in x and y
+     * and depth deep in z, with random color indices below colors.
+     */
+    static PointTable random(int n, float center, float extent, float depth, int colors) {
+        Random random = new Random(n);
+        PointTable.Builder builder = new PointTable.Builder(n);
+        for (int i = 0; i < n; i++)
+            builder.add(center + extent * (random.nextFloat() - 0.5f), center + extent * (random.nextFloat() - 0.5f),
+                    center + depth * (random.nextFloat() - 0.5f), random.nextInt(colors));
+        return builder.build();
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.thomann.plotvr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic data of the benchmarks: samples normally distributed around the origin with
+ * 8 color indices, the same for every run.
+ */
+final class Datasets {
+
+    private Datasets() {
+    }
+
+    static PointTable table(int samples) {
+        Random random = new Random(samples);
+        PointTable.Builder builder = new PointTable.Builder(samples);
+        for (int i = 0; i < samples; i++)
+            builder.add((float) random.nextGaussian() * 10, (float) random.nextGaussian() * 10,
+                    (float) random.nextGaussian() * 10, random.nextInt(8));
+        return builder.build();
+    }
+
+    /**
+     * @return the data in the columnar format, as downloaded.
+     */
+    static byte[] columns(int samples) throws IOException {
+        Data data = new Data();
+        data.setTable(table(samples));
+        data.setSpeed(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarFormat.write(data, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Produces {"data": [[x,y,z,c],...], "speed": 1} on the fly by cycling through a block of
+     * random samples, like the JsonParserBenchmark of the app, so that even 10^7 samples need
+     * no memory and generating them costs next to nothing.
+     */
+    static class Json extends Reader {
+        private static final int BLOCK_SAMPLES = 4096;
+        private static final char[] BLOCK;
+        // where the samples of the block end
+        private static final int[] SAMPLE_ENDS = new int[BLOCK_SAMPLES];
+
+        static {
+            Random random = new Random(1);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < BLOCK_SAMPLES; i++) {
+                sb.append(String.format(Locale.US, "[%.4f,%.4f,%.4f,%d],",
+                        random.nextGaussian() * 10, random.nextGaussian() * 10,
+                        random.nextGaussian() * 10, random.nextInt(8)));
+                SAMPLE_ENDS[i] = sb.length();
+            }
+            BLOCK = sb.toString().toCharArray();
+        }
+
+        private static final char[] HEAD = "{\"data\": [".toCharArray();
+        private static final char[] TAIL = "[0,0,0,1]], \"speed\": 1}".toCharArray();
+
+        private long remainingBlockChars;
+        private int headPos = 0;
+        private int blockPos = 0;
+        private int tailPos = 0;
+
+        Json(int samples) {
+            // samples - 1 samples from the block, the last one from TAIL
+            remainingBlockChars = (long) (samples - 1) / BLOCK_SAMPLES * BLOCK.length;
+            int rest = (samples - 1) % BLOCK_SAMPLES;
+            if (rest > 0)
+                remainingBlockChars += SAMPLE_ENDS[rest - 1];
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (headPos < HEAD.length) {
+                int n = Math.min(len, HEAD.length - headPos);
+                System.arraycopy(HEAD, headPos, cbuf, off, n);
+                headPos += n;
+                return n;
+            }
+            if (remainingBlockChars > 0) {
+                int n = (int) Math.min(Math.min(len, BLOCK.length - blockPos), remainingBlockChars);
+                System.arraycopy(BLOCK, blockPos, cbuf, off, n);
+                blockPos = (blockPos + n) % BLOCK.length;
+                remainingBlockChars -= n;
+                return n;
+            }
+            if (tailPos < TAIL.length) {
+                int n = Math.min(len, TAIL.length - tailPos);
+                System.arraycopy(TAIL, tailPos, cbuf, off, n);
+                tailPos += n;
+                return n;
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.thomann.plotvr;
+
+import com.google.vr.sdk.base.Eye;
+import com.google.vr.sdk.base.HeadTransform;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A frame of the {@link Renderer} on a {@link RecordingGl}, i.e. its work on the CPU without a
+ * GPU: onNewFrame, onDrawEye for both eyes and onFinishFrame, with the cubes drawn instanced.
+ * The camera walks back and forth a little every frame, so that culling, once per frame or once
+ * per eye, and the level of detail have something new to do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FrameBenchmark {
+
+    // walking this many frames forward, then as many back
+    private static final int STEPS = 20;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int samples;
+
+    @Param({"true", "false"})
+    boolean cullOncePerFrame;
+
+    @Param({"false", "true"})
+    boolean levelOfDetail;
+
+    private RecordingGl gl;
+    private Renderer renderer;
+    private final HeadTransform head = new HeadTransform();
+    private final Eye left = new Eye(Eye.Type.LEFT);
+    private final Eye right = new Eye(Eye.Type.RIGHT);
+    private int frame = 0;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        gl = new RecordingGl(true);
+        renderer = new Renderer(null, gl);
+        renderer.onSurfaceCreated(null);
+        renderer.onSurfaceChanged(1440, 1440);
+        renderer.setShareCulling(cullOncePerFrame);
+        renderer.setLevelOfDetail(levelOfDetail);
+        Data data = new Data();
+        data.setTable(Datasets.table(samples));
+        renderer.setData(data);
+        // until the geometry built in the background is swapped in
+        frame();
+        while (renderer.isBuilding()) {
+            Thread.sleep(10);
+            frame();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        int error = gl.glGetError();
+        if (error != 0)
+            throw new IllegalStateException("GL error " + error);
+        renderer.onRendererShutdown();
+    }
+
+    @Benchmark
+    public long frame() {
+        renderer.go(2, frame++ / STEPS % 2 == 0 ? 1 : -1);
+        renderer.onNewFrame(head);
+        renderer.onDrawEye(left);
+        renderer.onDrawEye(right);
+        renderer.onFinishFrame(null);
+        return gl.getDrawCalls();
+    }
+}
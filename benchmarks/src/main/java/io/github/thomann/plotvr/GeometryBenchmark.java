@@ -0,0 +1,101 @@
+package io.github.thomann.plotvr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the cubes of all samples like a rebuild of the renderer, octree included: one record
+ * per sample as drawn instanced, as points or with the level of detail, and 36 vertices per
+ * sample as drawn on GLES 2. Positions are quantized as with render.quantize; the color levels are color
+ * indices or, for continuous color maps, scaled color values.
+ * <p/>
+ * <p>Vertices stop at 10^6 samples, 10^7 would take 5.8 GB. The built geometry goes back to the
+ * pool of buffers, as when the renderer replaces it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GeometryBenchmark {
+
+    private static final int OCTREE_LEAF_SIZE = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Records {
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        int samples;
+        @Param({"1", "4"})
+        int threads;
+        @Param({"false", "true"})
+        boolean continuousColors;
+
+        PointTable table;
+        ExecutorService workers;
+
+        @Setup
+        public void setUp() {
+            table = Datasets.table(samples);
+            workers = Executors.newFixedThreadPool(threads);
+        }
+
+        @TearDown
+        public void tearDown() {
+            workers.shutdown();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Vertices {
+        @Param({"1000", "10000", "100000", "1000000"})
+        int samples;
+        @Param({"1", "4"})
+        int threads;
+
+        PointTable table;
+        ExecutorService workers;
+
+        @Setup
+        public void setUp() {
+            table = Datasets.table(samples);
+            workers = Executors.newFixedThreadPool(threads);
+        }
+
+        @TearDown
+        public void tearDown() {
+            workers.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int records(Records state) {
+        CubeGeometry geometry = CubeGeometry.build(0, state.table, true, true, state.continuousColors,
+                OCTREE_LEAF_SIZE, state.workers, state.threads);
+        int count = geometry.getCount();
+        geometry.release();
+        return count;
+    }
+
+    @Benchmark
+    public int vertices(Vertices state) {
+        CubeGeometry geometry = CubeGeometry.build(0, state.table, false, true, false,
+                OCTREE_LEAF_SIZE, state.workers, state.threads);
+        int count = geometry.getCount();
+        geometry.release();
+        return count;
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.thomann.plotvr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the data of a download: json with the {@link JsonDataScanner}, and the columnar format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LoadBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int samples;
+
+    private byte[] columns;
+
+    @Setup
+    public void setUp() throws IOException {
+        columns = Datasets.columns(samples);
+    }
+
+    @Benchmark
+    public Data readJson() throws IOException {
+        return new Data().readJson(new Datasets.Json(samples));
+    }
+
+    @Benchmark
+    public Data readColumns() throws IOException {
+        return new Data().readColumns(new ByteArrayInputStream(columns));
+    }
+}